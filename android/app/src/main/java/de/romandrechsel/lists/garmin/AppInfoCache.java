@@ -0,0 +1,92 @@
+package de.romandrechsel.lists.garmin;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
+
+import com.garmin.android.connectiq.IQApp;
+
+/**
+ * cache of the app infos of the devices, so a reconnecting device doesn't have to wait for the app info request
+ */
+public class AppInfoCache
+{
+    /**
+     * cached app infos expire after this number of milliseconds
+     */
+    public static final long DefaultTtl = 6 * 60 * 60 * 1000;
+
+    private static class Entry
+    {
+        @NonNull
+        final String AppId;
+        @NonNull
+        final IQApp App;
+        final long Time;
+
+        Entry(@NonNull String app_id, @NonNull IQApp app)
+        {
+            this.AppId = app_id;
+            this.App = app;
+            this.Time = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private final LongSparseArray<Entry> _entries = new LongSparseArray<>();
+    private final long _ttl;
+
+    public AppInfoCache(long ttl)
+    {
+        this._ttl = ttl;
+    }
+
+    /**
+     * gets the cached app info of a device
+     *
+     * @param device_id device identifier
+     * @param app_id    id of the app
+     * @return app info, or null if not cached or expired
+     */
+    @Nullable
+    public synchronized IQApp Get(long device_id, @NonNull String app_id)
+    {
+        Entry entry = this._entries.get(device_id);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (!entry.AppId.equals(app_id) || SystemClock.elapsedRealtime() - entry.Time > this._ttl)
+        {
+            this._entries.remove(device_id);
+            return null;
+        }
+        return entry.App;
+    }
+
+    /**
+     * stores the app info of a device
+     *
+     * @param device_id device identifier
+     * @param app_id    id of the app
+     * @param app       app info, reported by the device
+     * @return true, if the device reported another app version than the cached one
+     */
+    public synchronized boolean Put(long device_id, @NonNull String app_id, @NonNull IQApp app)
+    {
+        Entry old = this._entries.get(device_id);
+        this._entries.put(device_id, new Entry(app_id, app));
+        return old != null && old.AppId.equals(app_id) && old.App.version() != app.version();
+    }
+
+    public synchronized void Invalidate(long device_id)
+    {
+        this._entries.remove(device_id);
+    }
+
+    public synchronized void Clear()
+    {
+        this._entries.clear();
+    }
+}
@@ -0,0 +1,140 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a batch of messages, that is sent to one or more devices with a single plugin call
+ */
+public class BatchSend
+{
+    public interface IBatchListener
+    {
+        /**
+         * a single message of the batch was transmitted or failed
+         *
+         * @param batch     the batch
+         * @param device_id device the message was sent to
+         * @param index     index of the message in the batch
+         * @param result    result of the transmission
+         */
+        void onProgress(@NonNull BatchSend batch, long device_id, int index, @NonNull MessageSendResult result);
+
+        /**
+         * all messages of the batch are processed
+         *
+         * @param batch the batch
+         */
+        void onCompleted(@NonNull BatchSend batch);
+    }
+
+    public static class Entry
+    {
+        @Nullable
+        public final String Type;
+        @Nullable
+        public final Object Payload;
+
+        public Entry(@Nullable String type, @Nullable Object payload)
+        {
+            this.Type = type;
+            this.Payload = payload;
+        }
+
+        @NonNull
+        public static Entry FromJson(@NonNull JSONObject json)
+        {
+            String type = json.optString("type", "");
+            Object payload = json.opt("payload");
+            return new Entry(type.isEmpty() ? null : type, payload == JSONObject.NULL ? null : payload);
+        }
+    }
+
+    private static final AtomicInteger _nextId = new AtomicInteger(1);
+
+    public final int Id = BatchSend._nextId.getAndIncrement();
+    @NonNull
+    public final long[] DeviceIds;
+    @NonNull
+    public final List<Entry> Entries;
+
+    @NonNull
+    private final MessageSendResult[] _results;
+    private final AtomicInteger _done = new AtomicInteger(0);
+    @Nullable
+    private final IBatchListener _listener;
+
+    public BatchSend(@NonNull long[] device_ids, @NonNull List<Entry> entries, @Nullable IBatchListener listener)
+    {
+        this.DeviceIds = device_ids;
+        this.Entries = entries;
+        this._listener = listener;
+        this._results = new MessageSendResult[device_ids.length * entries.size()];
+    }
+
+    public int Total()
+    {
+        return this._results.length;
+    }
+
+    public int Done()
+    {
+        return this._done.get();
+    }
+
+    /**
+     * stores the result of a single message
+     *
+     * @param device  index of the device in DeviceIds
+     * @param index   index of the message in Entries
+     * @param result  result of the transmission
+     */
+    public void Result(int device, int index, @NonNull MessageSendResult result)
+    {
+        this._results[device * this.Entries.size() + index] = result;
+        int done = this._done.incrementAndGet();
+        if (this._listener != null)
+        {
+            this._listener.onProgress(this, this.DeviceIds[device], index, result);
+            if (done == this._results.length)
+            {
+                this._listener.onCompleted(this);
+            }
+        }
+    }
+
+    public JSObject toJSObject()
+    {
+        JSArray results = new JSArray();
+        boolean success = true;
+        for (int d = 0; d < this.DeviceIds.length; d++)
+        {
+            for (int i = 0; i < this.Entries.size(); i++)
+            {
+                MessageSendResult result = this._results[d * this.Entries.size() + i];
+                JSObject obj = result != null ? result.toJSObject() : new JSObject();
+                obj.put("device_id", String.valueOf(this.DeviceIds[d]));
+                obj.put("index", i);
+                results.put(obj);
+                if (result == null || !result.Success())
+                {
+                    success = false;
+                }
+            }
+        }
+
+        JSObject ret = new JSObject();
+        ret.put("batch", this.Id);
+        ret.put("success", success);
+        ret.put("results", results);
+        return ret;
+    }
+}
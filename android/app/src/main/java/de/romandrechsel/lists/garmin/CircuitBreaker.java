@@ -0,0 +1,153 @@
+package de.romandrechsel.lists.garmin;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * per device circuit breaker, that stops sending to a device after repeated failures
+ * after a cool down a single probe is let through, its result closes the breaker or opens it again for a longer time
+ * a failure is a message, that failed after all of its retries, messages are held in the send queue while the breaker is open
+ */
+public class CircuitBreaker
+{
+    public enum EState
+    {Closed, Open, HalfOpen}
+
+    public static final int DefaultFailureThreshold = 5;
+    public static final long DefaultOpenDuration = 10 * 1000;
+    public static final long MaxOpenDuration = 2 * 60 * 1000;
+    /**
+     * minimum milliseconds, a held message waits before it asks the breaker again
+     */
+    public static final long MinRetryDelay = 1000;
+
+    private final int _failureThreshold;
+    private final long _baseOpenDuration;
+
+    @NonNull
+    private EState _state = EState.Closed;
+    private int _failures = 0;
+    private long _openDuration;
+    private long _openUntil = 0;
+    private boolean _probing = false;
+
+    public CircuitBreaker(int failure_threshold, long open_duration)
+    {
+        this._failureThreshold = Math.max(1, failure_threshold);
+        this._baseOpenDuration = Math.max(0, open_duration);
+        this._openDuration = this._baseOpenDuration;
+    }
+
+    public CircuitBreaker()
+    {
+        this(DefaultFailureThreshold, DefaultOpenDuration);
+    }
+
+    /**
+     * checks, if a message may be sent to the device
+     * an open breaker lets a single probe through once the cool down has passed
+     *
+     * @return true, if the message may be sent
+     */
+    public synchronized boolean Allow()
+    {
+        switch (this._state)
+        {
+            case Closed:
+                return true;
+            case Open:
+                if (SystemClock.elapsedRealtime() < this._openUntil)
+                {
+                    return false;
+                }
+                this._state = EState.HalfOpen;
+                this._probing = true;
+                return true;
+            default:
+                if (this._probing)
+                {
+                    return false;
+                }
+                this._probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * a transmission succeeded, closes the breaker
+     */
+    public synchronized void Success()
+    {
+        this._state = EState.Closed;
+        this._failures = 0;
+        this._probing = false;
+        this._openDuration = this._baseOpenDuration;
+    }
+
+    /**
+     * a transmission failed, opens the breaker after the threshold is reached or if the probe failed
+     */
+    public synchronized void Failure()
+    {
+        this._failures++;
+        if (this._state == EState.HalfOpen)
+        {
+            this._openDuration = Math.min(MaxOpenDuration, this._openDuration * 2);
+            this.open();
+        }
+        else if (this._state == EState.Closed && this._failures >= this._failureThreshold)
+        {
+            this.open();
+        }
+    }
+
+    /**
+     * a transmission ended with a result, that says nothing about the link to the device (e.g. the sdk is not available)
+     * lets the next message probe again, if this one was the probe
+     */
+    public synchronized void Release()
+    {
+        this._probing = false;
+    }
+
+    /**
+     * closes the breaker without a successful transmission, e.g. after the device reconnected
+     */
+    public synchronized void Reset()
+    {
+        this.Success();
+    }
+
+    /**
+     * gets the time, a message, that was not allowed, should wait before it asks again
+     *
+     * @return the rest of the cool down, while the breaker is open, else the base cool down, while a probe is running
+     */
+    public synchronized long RetryIn()
+    {
+        long delay = this._baseOpenDuration;
+        if (this._state == EState.Open)
+        {
+            delay = this._openUntil - SystemClock.elapsedRealtime();
+        }
+        return Math.max(MinRetryDelay, delay);
+    }
+
+    @NonNull
+    public synchronized EState State()
+    {
+        if (this._state == EState.Open && SystemClock.elapsedRealtime() >= this._openUntil)
+        {
+            return EState.HalfOpen;
+        }
+        return this._state;
+    }
+
+    private void open()
+    {
+        this._state = EState.Open;
+        this._probing = false;
+        this._openUntil = SystemClock.elapsedRealtime() + this._openDuration;
+    }
+}
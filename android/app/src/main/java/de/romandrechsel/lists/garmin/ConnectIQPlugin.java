@@ -1,17 +1,27 @@
 package de.romandrechsel.lists.garmin;
 
+import android.content.pm.ApplicationInfo;
+
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
+import org.json.JSONObject;
+
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
+import de.romandrechsel.lists.logging.LogFile;
 import de.romandrechsel.lists.logging.Logger;
+import de.romandrechsel.lists.metrics.Metrics;
 import de.romandrechsel.lists.utils.HelperUtils;
 
 @CapacitorPlugin(name = "ConnectIQ")
@@ -19,13 +29,98 @@ public class ConnectIQPlugin extends Plugin
 {
     private static final String TAG = "ConnectIQPlugin";
 
+    /**
+     * number of records per chunk of ExportLogs
+     */
+    private static final int ExportChunkSize = 250;
+
     private DeviceManager Manager;
 
     @Override
     public void load()
     {
         super.load();
-        Logger.Plugin = this;
+        //release builds skip debug records until the app requests another level
+        boolean debuggable = (this.getContext().getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        Logger.SetMinLevel(debuggable ? Logger.ELevel.Debug : Logger.ELevel.Notice);
+        if (!Logger.HasFile())
+        {
+            Logger.SetFile(new File(this.getContext().getFilesDir(), LogFile.DefaultName), LogFile.DefaultSize);
+        }
+        Logger.SetListener(batch -> this.emitJsEvent("LOG", batch));
+    }
+
+    @Override
+    protected void handleOnDestroy()
+    {
+        Logger.SetListener(null);
+        super.handleOnDestroy();
+    }
+
+    @PluginMethod
+    public void SetLogLevel(PluginCall call)
+    {
+        Logger.ELevel level = Logger.ParseLevel(call.getString("level", null));
+        if (level != null)
+        {
+            Logger.SetMinLevel(level);
+        }
+        JSObject ret = new JSObject();
+        ret.put("level", Logger.GetMinLevel().name().toLowerCase(Locale.ROOT));
+        call.resolve(ret);
+    }
+
+    /**
+     * gets the counters and latency histograms of the native layer
+     * with "reset" set, all metrics are reset after reading, so the next call returns the metrics since this one
+     */
+    @PluginMethod
+    public void GetMetrics(PluginCall call)
+    {
+        JSObject ret = Metrics.Snapshot(call.getBoolean("reset", false));
+        if (this.Manager != null)
+        {
+            ret.put("pending_timeouts", TimeoutWheel.Shared().Pending());
+            ret.put("pending_transactions", this.Manager.Transactions.Pending());
+        }
+        call.resolve(ret);
+    }
+
+    /**
+     * streams the persisted native logs in chunks, the last chunk has "done" set
+     * filter options: since, until (timestamps in ms), level (minimum level), tag, contains, limit (newest records)
+     */
+    @PluginMethod(returnType = PluginMethod.RETURN_CALLBACK)
+    public void ExportLogs(PluginCall call)
+    {
+        LogFile file = Logger.GetFile();
+        if (file == null)
+        {
+            call.reject("Native log file not available");
+            return;
+        }
+
+        LogFile.Filter filter = new LogFile.Filter();
+        filter.Since = call.getLong("since", 0L);
+        filter.Until = call.getLong("until", 0L);
+        Logger.ELevel level = Logger.ParseLevel(call.getString("level", null));
+        if (level != null)
+        {
+            filter.MinLevel = level;
+        }
+        filter.Tag = call.getString("tag", null);
+        filter.Contains = call.getString("contains", null);
+        filter.Limit = call.getInt("limit", 0);
+
+        ArrayList<LogFile.Entry> entries = file.Read(filter);
+        int chunk_size = Math.max(1, call.getInt("chunk", ExportChunkSize));
+        call.setKeepAlive(true);
+        for (int start = 0; start < entries.size(); start += chunk_size)
+        {
+            call.resolve(this.logsChunk(entries.subList(start, Math.min(entries.size(), start + chunk_size)), entries.size(), false));
+        }
+        call.setKeepAlive(false);
+        call.resolve(this.logsChunk(new ArrayList<>(), entries.size(), true));
     }
 
     @PluginMethod
@@ -36,18 +131,39 @@ public class ConnectIQPlugin extends Plugin
             this.Manager = new DeviceManager(this);
 
         }
-        this.Manager.Initialize(this.getActivity(), call.getBoolean("simulator", false), call.getBoolean("debug_app", false), new DeviceManager.IInitializeListener()
+        this.Manager.DeltaSync = call.getBoolean("delta_sync", false);
+        this.Manager.CompactWire = call.getBoolean("compact_wire", false);
+        int fragment_bytes = call.getInt("fragment_bytes", 0);
+        this.Manager.FragmentBudget = fragment_bytes > 0 ? Math.max(MessageFragmenter.MinByteBudget, fragment_bytes) : 0;
+        this.Manager.OutboxDirectory = new File(this.getContext().getFilesDir(), Outbox.DirectoryName);
+        if (this.Manager.Cache == null)
+        {
+            this.Manager.Cache = new DeviceCache(new File(this.getContext().getFilesDir(), DeviceCache.FileName));
+        }
+        this.Manager.Retries = new RetryPolicy(call.getInt("send_attempts", RetryPolicy.DefaultMaxAttempts), RetryPolicy.DefaultBaseDelay, RetryPolicy.DefaultMaxDelay);
+        IDeviceTransport transport;
+        JSObject local_simulator = call.getObject("local_simulator");
+        if (local_simulator != null)
+        {
+            transport = new SimulatedTransport(SimulatedTransport.Profile.FromJson(local_simulator));
+        }
+        else
+        {
+            transport = new ConnectIQTransport(this.getActivity(), call.getBoolean("simulator", false));
+        }
+        DeviceManager manager = this.Manager;
+        manager.Initialize(this.getActivity(), transport, call.getBoolean("debug_app", false), new DeviceManager.IInitializeListener()
         {
             @Override
             public void Success()
             {
                 JSObject ret = new JSObject();
                 ret.put("success", true);
-                if (ConnectIQPlugin.this.Manager.UsingSimulator())
+                if (manager.UsingSimulator())
                 {
                     ret.put("simulator", true);
                 }
-                if (ConnectIQPlugin.this.Manager.UsingDebugApp())
+                if (manager.UsingDebugApp())
                 {
                     ret.put("debug_app", true);
                 }
@@ -70,11 +186,19 @@ public class ConnectIQPlugin extends Plugin
     {
         if (this.Manager != null)
         {
-            this.Manager.Shutdown(this.getActivity());
+            DeviceManager manager = this.Manager;
             this.Manager = null;
-            Logger.Important(TAG, "ConnectIQ plugin shutdown successful");
+            manager.Shutdown(this.getActivity()).whenComplete((result, ex) ->
+            {
+                manager.Worker.Quit();
+                Logger.Important(TAG, "ConnectIQ plugin shutdown successful");
+                call.resolve();
+            });
+        }
+        else
+        {
+            call.resolve();
         }
-        call.resolve();
     }
 
     @PluginMethod
@@ -93,21 +217,32 @@ public class ConnectIQPlugin extends Plugin
         if (this.Manager != null)
         {
             Long device_id = HelperUtils.toLong(call.getString("device_id", null));
-            boolean request = false;
             if (device_id != null)
             {
-                request = this.Manager.openApp(device_id, (device, success) ->
+                this.Manager.openApp(device_id, (device, success) ->
                 {
                     JSObject event = new JSObject();
                     event.put("app_opened", success);
                     event.put("device", device != null ? device.getDeviceIdentifier() : null);
                     this.emitJsEvent("APP_OPENED", event);
+                }).whenComplete((request, ex) ->
+                {
+                    if (ex != null)
+                    {
+                        call.reject(ex.getMessage());
+                        return;
+                    }
+                    JSObject ret = new JSObject();
+                    ret.put("request_send", request != null && request);
+                    call.resolve(ret);
                 });
             }
-
-            JSObject ret = new JSObject();
-            ret.put("request_send", request);
-            call.resolve(ret);
+            else
+            {
+                JSObject ret = new JSObject();
+                ret.put("request_send", false);
+                call.resolve(ret);
+            }
         }
         else
         {
@@ -120,8 +255,33 @@ public class ConnectIQPlugin extends Plugin
     {
         if (this.Manager != null)
         {
-            List<DeviceInfo> devices = this.Manager.getDevices(call.getBoolean("force_reload", false));
-            call.resolve(this.toJSObject(devices));
+            boolean force_reload = call.getBoolean("force_reload", false);
+            DeviceManager.Snapshot snapshot = this.Manager.Devices();
+            DeviceManager.Snapshot stale = !snapshot.SdkReady ? this.Manager.StaleDevices() : null;
+            if (stale != null)
+            {
+                //the sdk is still initializing, answer with the last known devices, the live ones follow as DEVICES_RECONCILED
+                call.resolve(this.toJSObject(stale));
+            }
+            else if (!force_reload && !snapshot.Devices.isEmpty())
+            {
+                //the published snapshot is current, no need to wait for the event loop
+                call.resolve(this.toJSObject(snapshot));
+            }
+            else
+            {
+                this.Manager.GetDevices(force_reload).whenComplete((devices, ex) ->
+                {
+                    if (ex != null)
+                    {
+                        call.reject(ex.getMessage());
+                    }
+                    else
+                    {
+                        call.resolve(devices != null ? this.toJSObject(devices) : null);
+                    }
+                });
+            }
         }
         else
         {
@@ -136,7 +296,7 @@ public class ConnectIQPlugin extends Plugin
         {
             Long identifier = HelperUtils.toLong(call.getString("device_id", null));
 
-            DeviceInfo device = this.Manager.getDevice(identifier);
+            DeviceSnapshot device = this.Manager.Devices().Get(identifier);
             if (device != null)
             {
                 call.resolve(device.toJSObject());
@@ -159,14 +319,147 @@ public class ConnectIQPlugin extends Plugin
         {
             Long device_id = HelperUtils.toLong(call.getString("device_id", null));
             String message_type = call.getString("type", null);
-            String json = call.getString("json", null);
+            DeviceInfo.ESendPriority priority = this.getPriority(call);
+            long timeout = this.getTimeout(call);
+            JSArray data = call.getArray("data", null);
+            if (data != null)
+            {
+                //pre-flattened string array, no json parsing needed
+                ArrayList<String> lines = new ArrayList<>(data.length());
+                for (int i = 0; i < data.length(); i++)
+                {
+                    lines.add(data.isNull(i) ? "" : data.optString(i, ""));
+                }
+                this.Manager.SendToDevice(device_id, message_type, lines, priority, timeout, result -> call.resolve(result.toJSObject()));
+            }
+            else
+            {
+                String json = call.getString("json", null);
+                this.Manager.SendToDevice(device_id, message_type, json, priority, timeout, result -> call.resolve(result.toJSObject()));
+            }
+        }
+        else
+        {
+            call.resolve(null);
+        }
+    }
 
-            this.Manager.SendToDevice(device_id, message_type, json, (result, iq_status) ->
+    /**
+     * sends a request to a device and resolves with the response of the device
+     * the transaction id is assigned natively, the response is not broadcast as RECEIVE event
+     */
+    @PluginMethod
+    public void SendTransaction(PluginCall call)
+    {
+        if (this.Manager != null)
+        {
+            Long device_id = HelperUtils.toLong(call.getString("device_id", null));
+            String message_type = call.getString("type", null);
+            DeviceInfo.ESendPriority priority = this.getPriority(call);
+            long timeout = this.getTimeout(call);
+            TransactionRegistry.ITransactionListener listener = (tid, result, device, response) ->
             {
-                JSObject ret = new JSObject();
-                ret.put("success", result == DeviceInfo.EMessageSendResult.Success);
+                JSObject ret = result.toJSObject();
+                if (tid >= 0)
+                {
+                    ret.put("tid", tid);
+                }
+                if (device != null)
+                {
+                    ret.put("device", device.toJSObject());
+                }
+                if (response != null)
+                {
+                    ret.put("message", response.Message);
+                }
                 call.resolve(ret);
+            };
+
+            JSArray data = call.getArray("data", null);
+            if (data != null)
+            {
+                ArrayList<String> lines = new ArrayList<>(data.length() + 1);
+                for (int i = 0; i < data.length(); i++)
+                {
+                    lines.add(data.isNull(i) ? "" : data.optString(i, ""));
+                }
+                this.Manager.SendTransaction(device_id, message_type, lines, priority, timeout, listener);
+            }
+            else
+            {
+                this.Manager.SendTransaction(device_id, message_type, call.getString("json", null), priority, timeout, listener);
+            }
+        }
+        else
+        {
+            call.resolve(null);
+        }
+    }
+
+    @PluginMethod
+    public void SendBatch(PluginCall call)
+    {
+        if (this.Manager != null)
+        {
+            ArrayList<Long> ids = new ArrayList<>();
+            JSArray device_ids = call.getArray("device_ids", new JSArray());
+            for (int i = 0; i < device_ids.length(); i++)
+            {
+                Long id = HelperUtils.toLong(device_ids.optString(i, null));
+                if (id != null)
+                {
+                    ids.add(id);
+                }
+            }
+            Long device_id = HelperUtils.toLong(call.getString("device_id", null));
+            if (device_id != null && !ids.contains(device_id))
+            {
+                ids.add(device_id);
+            }
+
+            ArrayList<BatchSend.Entry> entries = new ArrayList<>();
+            JSArray json_entries = call.getArray("entries", new JSArray());
+            for (int i = 0; i < json_entries.length(); i++)
+            {
+                JSONObject entry = json_entries.optJSONObject(i);
+                entries.add(entry != null ? BatchSend.Entry.FromJson(entry) : new BatchSend.Entry(null, null));
+            }
+
+            long[] device_array = new long[ids.size()];
+            for (int i = 0; i < ids.size(); i++)
+            {
+                device_array[i] = ids.get(i);
+            }
+
+            BatchSend batch = new BatchSend(device_array, entries, new BatchSend.IBatchListener()
+            {
+                @Override
+                public void onProgress(@NonNull BatchSend batch, long device_id, int index, @NonNull MessageSendResult result)
+                {
+                    JSObject progress = result.toJSObject();
+                    progress.put("batch", batch.Id);
+                    progress.put("device_id", String.valueOf(device_id));
+                    progress.put("index", index);
+                    progress.put("done", batch.Done());
+                    progress.put("total", batch.Total());
+                    ConnectIQPlugin.this.emitJsEvent("BATCH_PROGRESS", progress);
+                }
+
+                @Override
+                public void onCompleted(@NonNull BatchSend batch)
+                {
+                    call.resolve(batch.toJSObject());
+                }
             });
+
+            if (batch.Total() == 0)
+            {
+                call.resolve(batch.toJSObject());
+            }
+            else
+            {
+                this.Manager.SendBatch(batch, this.getPriority(call), this.getTimeout(call));
+            }
         }
         else
         {
@@ -179,25 +472,64 @@ public class ConnectIQPlugin extends Plugin
         this.notifyListeners(event, log);
     }
 
-    private JSObject toJSObject(@NonNull List<DeviceInfo> devices)
+    /**
+     * reads the optional send priority lane of a call
+     *
+     * @param call plugin call
+     * @return priority, or null to use the default lane of the message type
+     */
+    @Nullable
+    private DeviceInfo.ESendPriority getPriority(PluginCall call)
     {
-        ArrayList<JSObject> list = new ArrayList<>();
-        for (DeviceInfo d : devices)
+        String priority = call.getString("priority", null);
+        if (priority != null)
         {
-            JSObject obj = d.toJSObject();
-            if (obj != null)
+            for (DeviceInfo.ESendPriority p : DeviceInfo.ESendPriority.values())
             {
-                list.add(obj);
+                if (p.name().equalsIgnoreCase(priority))
+                {
+                    return p;
+                }
             }
         }
+        return null;
+    }
 
-        if (!list.isEmpty())
+    /**
+     * gets the timeout of a call
+     *
+     * @param call plugin call with an optional "timeout" in seconds
+     * @return timeout in milliseconds, 0 for the default timeout
+     */
+    private long getTimeout(PluginCall call)
+    {
+        Double timeout = call.getDouble("timeout");
+        return timeout != null && timeout > 0 ? Math.round(timeout * 1000) : 0;
+    }
+
+    @Nullable
+    private JSObject toJSObject(@NonNull DeviceManager.Snapshot snapshot)
+    {
+        return !snapshot.Devices.isEmpty() ? snapshot.toJSObject() : null;
+    }
+
+    @NonNull
+    private JSObject logsChunk(@NonNull List<LogFile.Entry> entries, int total, boolean done)
+    {
+        JSArray logs = new JSArray();
+        for (LogFile.Entry entry : entries)
         {
-            JSObject ret = new JSObject();
-            ret.put("devices", list);
-            return ret;
+            JSObject log = new JSObject();
+            log.put("level", entry.Level.name().toLowerCase(Locale.ROOT));
+            log.put("tag", entry.Tag);
+            log.put("message", entry.Message);
+            log.put("time", entry.Time);
+            logs.put(log);
         }
-
-        return null;
+        JSObject ret = new JSObject();
+        ret.put("logs", logs);
+        ret.put("total", total);
+        ret.put("done", done);
+        return ret;
     }
 }
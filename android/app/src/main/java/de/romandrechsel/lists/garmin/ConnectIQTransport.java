@@ -0,0 +1,241 @@
+package de.romandrechsel.lists.garmin;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.garmin.android.connectiq.ConnectIQ;
+import com.garmin.android.connectiq.IQApp;
+import com.garmin.android.connectiq.IQDevice;
+import com.garmin.android.connectiq.exception.InvalidStateException;
+import com.garmin.android.connectiq.exception.ServiceUnavailableException;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * transport over the ConnectIQ sdk, to real devices or to the garmin simulator via adb
+ * sends and queries are called on the event loop, so the serialization of the payloads stays off the ui thread
+ * the calls, that may show ui (initialize, shutdown, openApplication, openStore), run on the main looper
+ * the sdk calls its listeners on the main thread, the device manager posts them back to the loop
+ */
+public class ConnectIQTransport implements IDeviceTransport
+{
+    /**
+     * adb port of the garmin simulator
+     */
+    public static final int SimulatorAdbPort = 7381;
+    /**
+     * milliseconds, the event loop waits for a call on the main looper, before it gives up with InvalidStateException
+     */
+    public static final long MainCallTimeout = 5000;
+
+    @NonNull
+    private final ConnectIQ _connectIQ;
+    private final boolean _tethered;
+    @NonNull
+    private final Handler _main = new Handler(Looper.getMainLooper());
+
+    private interface ISdkCall<T>
+    {
+        T call() throws InvalidStateException, ServiceUnavailableException;
+    }
+
+    private interface ISdkAction
+    {
+        void run() throws InvalidStateException;
+    }
+
+    /**
+     * @param context  context
+     * @param tethered connect to the garmin simulator instead of the paired devices
+     */
+    public ConnectIQTransport(@NonNull Context context, boolean tethered)
+    {
+        this._tethered = tethered;
+        if (tethered)
+        {
+            this._connectIQ = ConnectIQ.getInstance(context, ConnectIQ.IQConnectType.TETHERED);
+            this._connectIQ.setAdbPort(SimulatorAdbPort);
+        }
+        else
+        {
+            this._connectIQ = ConnectIQ.getInstance(context, ConnectIQ.IQConnectType.WIRELESS);
+        }
+    }
+
+    @Override
+    public boolean isSimulator()
+    {
+        return this._tethered;
+    }
+
+    @Override
+    public void initialize(@NonNull Context context, @NonNull ConnectIQ.ConnectIQListener listener)
+    {
+        //with auto ui the sdk may show its dialog to install garmin connect, that has to be created on the ui thread
+        //the result is reported to the listener, so the loop doesn't wait for it
+        if (Looper.myLooper() == Looper.getMainLooper())
+        {
+            this._connectIQ.initialize(context, true, listener);
+        }
+        else
+        {
+            this._main.post(() -> this._connectIQ.initialize(context, true, listener));
+        }
+    }
+
+    @Override
+    public void shutdown(@NonNull Context context) throws InvalidStateException
+    {
+        this.runOnMain(() -> this._connectIQ.shutdown(context));
+    }
+
+    @Override
+    public void unregisterAllForEvents() throws InvalidStateException
+    {
+        this._connectIQ.unregisterAllForEvents();
+    }
+
+    @Override
+    public void unregisterForEvents(@NonNull IQDevice device) throws InvalidStateException
+    {
+        this._connectIQ.unregisterForEvents(device);
+    }
+
+    @Nullable
+    @Override
+    public List<IQDevice> getKnownDevices() throws InvalidStateException, ServiceUnavailableException
+    {
+        return this._connectIQ.getKnownDevices();
+    }
+
+    @Nullable
+    @Override
+    public IQDevice.IQDeviceStatus getDeviceStatus(@NonNull IQDevice device) throws InvalidStateException, ServiceUnavailableException
+    {
+        return this._connectIQ.getDeviceStatus(device);
+    }
+
+    @Override
+    public void registerForDeviceEvents(@NonNull IQDevice device, @NonNull ConnectIQ.IQDeviceEventListener listener) throws InvalidStateException
+    {
+        this._connectIQ.registerForDeviceEvents(device, listener);
+    }
+
+    @Override
+    public void registerForAppEvents(@NonNull IQDevice device, @NonNull IQApp app, @NonNull ConnectIQ.IQApplicationEventListener listener) throws InvalidStateException
+    {
+        this._connectIQ.registerForAppEvents(device, app, listener);
+    }
+
+    @Override
+    public void getApplicationInfo(@NonNull String app_id, @NonNull IQDevice device, @NonNull ConnectIQ.IQApplicationInfoListener listener) throws InvalidStateException, ServiceUnavailableException
+    {
+        this._connectIQ.getApplicationInfo(app_id, device, listener);
+    }
+
+    @Override
+    public void openApplication(@NonNull IQDevice device, @NonNull IQApp app, @NonNull ConnectIQ.IQOpenApplicationListener listener) throws InvalidStateException, ServiceUnavailableException
+    {
+        this.onMain(() ->
+        {
+            this._connectIQ.openApplication(device, app, listener);
+            return null;
+        });
+    }
+
+    @Override
+    public void sendMessage(@NonNull IQDevice device, @NonNull IQApp app, @NonNull Object message, @NonNull ConnectIQ.IQSendMessageListener listener) throws InvalidStateException, ServiceUnavailableException
+    {
+        this._connectIQ.sendMessage(device, app, message, listener);
+    }
+
+    @Override
+    public void openStore(@NonNull String app_id) throws InvalidStateException, ServiceUnavailableException
+    {
+        this.onMain(() ->
+        {
+            this._connectIQ.openStore(app_id);
+            return null;
+        });
+    }
+
+    /**
+     * runs a sdk call, that only throws InvalidStateException, on the main thread and waits for it
+     *
+     * @param action sdk call
+     */
+    private void runOnMain(@NonNull ISdkAction action) throws InvalidStateException
+    {
+        try
+        {
+            this.onMain(() ->
+            {
+                action.run();
+                return null;
+            });
+        }
+        catch (ServiceUnavailableException ex)
+        {
+            throw new InvalidStateException(ex.getMessage());
+        }
+    }
+
+    /**
+     * runs a sdk call on the main thread and waits for it, at once if called on the main thread
+     * the wait is bounded by MainCallTimeout, so a busy ui thread can't stall the event loop for longer
+     *
+     * @param call sdk call
+     * @return result of the call
+     */
+    private <T> T onMain(@NonNull ISdkCall<T> call) throws InvalidStateException, ServiceUnavailableException
+    {
+        if (Looper.myLooper() == Looper.getMainLooper())
+        {
+            return call.call();
+        }
+        FutureTask<T> task = new FutureTask<>(call::call);
+        if (!this._main.post(task))
+        {
+            throw new InvalidStateException("Main looper is not running");
+        }
+        try
+        {
+            return task.get(MainCallTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException ex)
+        {
+            task.cancel(false);
+            throw new InvalidStateException("Sdk call on the main thread timed out");
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InvalidStateException("Interrupted while waiting for the sdk");
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InvalidStateException invalid)
+            {
+                throw invalid;
+            }
+            if (cause instanceof ServiceUnavailableException unavailable)
+            {
+                throw unavailable;
+            }
+            if (cause instanceof RuntimeException runtime)
+            {
+                throw runtime;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.romandrechsel.lists.logging.Logger;
+
+/**
+ * file backed copy of the last known devices, so GetDevices can answer at a cold start, before the sdk is ready
+ * the file is rewritten on every change of the devices, the states in it are stale until the sdk reports the live ones
+ * <p>
+ * file: version (4), device count (4), per device: id (8), has name (1), name (utf), state (utf), app version (4)
+ */
+public class DeviceCache
+{
+    private static final String TAG = "IQDeviceCache";
+
+    public static final String FileName = "devices.bin";
+
+    private static final int FileVersion = 1;
+    private static final int MaxDevices = 64;
+
+    @NonNull
+    private final File _file;
+    /**
+     * devices of the file, read on the first Load or replaced by the last Save, so the file is never read to compare
+     */
+    private List<DeviceSnapshot> _devices = null;
+
+    public DeviceCache(@NonNull File file)
+    {
+        this._file = file;
+    }
+
+    /**
+     * gets the last known devices, the file is read on the first call
+     *
+     * @return devices, empty if there is no valid file
+     */
+    @NonNull
+    public synchronized List<DeviceSnapshot> Load()
+    {
+        if (this._devices == null)
+        {
+            this._devices = Collections.unmodifiableList(this.read());
+        }
+        return this._devices;
+    }
+
+    /**
+     * stores the devices, if they differ from the ones in memory
+     *
+     * @param devices current devices
+     */
+    public synchronized void Save(@NonNull List<DeviceSnapshot> devices)
+    {
+        if (devices.equals(this._devices))
+        {
+            return;
+        }
+        this._devices = Collections.unmodifiableList(new ArrayList<>(devices));
+        try
+        {
+            this.write(this._devices);
+        }
+        catch (IOException ex)
+        {
+            Logger.Error(TAG, "Could not write device cache " + this._file + ": " + ex.getMessage());
+        }
+    }
+
+    @NonNull
+    private ArrayList<DeviceSnapshot> read()
+    {
+        ArrayList<DeviceSnapshot> ret = new ArrayList<>();
+        if (!this._file.isFile())
+        {
+            return ret;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this._file))))
+        {
+            if (in.readInt() != FileVersion)
+            {
+                Logger.Notice(TAG, "Ignoring device cache of another version");
+                return ret;
+            }
+            int count = in.readInt();
+            if (count < 0 || count > MaxDevices)
+            {
+                throw new IOException("invalid device count " + count);
+            }
+            for (int i = 0; i < count; i++)
+            {
+                long id = in.readLong();
+                String name = in.readBoolean() ? in.readUTF() : null;
+                DeviceInfo.DeviceState state = DeviceInfo.DeviceState.valueOf(in.readUTF());
+                int version = in.readInt();
+                ret.add(new DeviceSnapshot(id, name, state, version));
+            }
+        }
+        catch (IOException | IllegalArgumentException ex)
+        {
+            Logger.Error(TAG, "Could not read device cache " + this._file + ": " + ex.getMessage());
+            ret.clear();
+        }
+        return ret;
+    }
+
+    private void write(@NonNull List<DeviceSnapshot> devices) throws IOException
+    {
+        File tmp = new File(this._file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp, false))))
+        {
+            int count = Math.min(devices.size(), MaxDevices);
+            out.writeInt(FileVersion);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++)
+            {
+                DeviceSnapshot device = devices.get(i);
+                out.writeLong(device.Id);
+                out.writeBoolean(device.Name != null);
+                if (device.Name != null)
+                {
+                    out.writeUTF(device.Name);
+                }
+                out.writeUTF(device.State.name());
+                out.writeInt(device.Version);
+            }
+            out.flush();
+        }
+        if (!tmp.renameTo(this._file))
+        {
+            throw new IOException("could not replace " + this._file);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package de.romandrechsel.lists.garmin;
+
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.collection.LongSparseArray;
+
+/**
+ * coalesces device state changes, so a device emits one event with its final state for all transitions within a short window
+ * transitions, that need an immediate reaction, are emitted at once
+ * only used on the event loop of the device manager, so the pending events need no lock
+ */
+public class DeviceEventDispatcher
+{
+    public interface IDeviceEventListener
+    {
+        /**
+         * the state of a device changed
+         *
+         * @param device device with its current state
+         */
+        void onDeviceChanged(@NonNull DeviceInfo device);
+    }
+
+    /**
+     * transitions within this number of milliseconds are collapsed into one event
+     */
+    public static final long CoalesceWindow = 150;
+
+    @NonNull
+    private final IDeviceEventListener _listener;
+    @NonNull
+    private final Handler _handler;
+    private final LongSparseArray<DeviceInfo> _pending = new LongSparseArray<>();
+    private boolean _scheduled = false;
+
+    /**
+     * @param handler  handler of the thread, the coalesced events are emitted on
+     * @param listener listener for the events
+     */
+    public DeviceEventDispatcher(@NonNull Handler handler, @NonNull IDeviceEventListener listener)
+    {
+        this._handler = handler;
+        this._listener = listener;
+    }
+
+    /**
+     * checks, if a state must be emitted without delay
+     *
+     * @param state device state
+     * @return true for states, the app has to react to immediately
+     */
+    public static boolean IsUrgent(@NonNull DeviceInfo.DeviceState state)
+    {
+        return switch (state)
+        {
+            case ConnectionLost, NotPaired, InvalidState, ServiceUnavailable -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * a device changed its state
+     *
+     * @param device the device
+     */
+    public void Post(@NonNull DeviceInfo device)
+    {
+        long identifier = device.getDeviceIdentifier();
+        if (DeviceEventDispatcher.IsUrgent(device.state))
+        {
+            this._pending.remove(identifier);
+            this._handler.post(() -> this._listener.onDeviceChanged(device));
+            return;
+        }
+
+        this._pending.put(identifier, device);
+        if (this._scheduled)
+        {
+            return;
+        }
+        this._scheduled = true;
+        this._handler.postDelayed(this::Flush, CoalesceWindow);
+    }
+
+    /**
+     * emits all pending events
+     */
+    public void Flush()
+    {
+        this._scheduled = false;
+        DeviceInfo[] devices = new DeviceInfo[this._pending.size()];
+        for (int i = 0; i < devices.length; i++)
+        {
+            devices[i] = this._pending.valueAt(i);
+        }
+        this._pending.clear();
+        for (DeviceInfo device : devices)
+        {
+            this._listener.onDeviceChanged(device);
+        }
+    }
+
+    /**
+     * drops all pending events
+     */
+    public void Clear()
+    {
+        this._pending.clear();
+    }
+}
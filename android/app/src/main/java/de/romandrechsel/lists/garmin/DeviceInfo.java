@@ -1,7 +1,6 @@
 package de.romandrechsel.lists.garmin;
 
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -14,18 +13,20 @@ import com.garmin.android.connectiq.IQDevice;
 import com.garmin.android.connectiq.exception.InvalidStateException;
 import com.garmin.android.connectiq.exception.ServiceUnavailableException;
 import com.getcapacitor.JSObject;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonSyntaxException;
-import com.google.gson.LongSerializationPolicy;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import de.romandrechsel.lists.logging.Logger;
+import de.romandrechsel.lists.metrics.Metrics;
+import de.romandrechsel.lists.utils.CompactCodec;
 import de.romandrechsel.lists.utils.DeviceUtils;
+import de.romandrechsel.lists.utils.HelperUtils;
 
+/**
+ * a device and its app, the state is owned by the event loop of the device manager (DeviceWorker)
+ * sdk callbacks are posted to the loop, other threads read the state from the published DeviceSnapshot
+ */
 public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQApplicationEventListener
 {
     private static final String TAG = "IQDevice";
@@ -34,11 +35,14 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
     {Initializing, Ready, AppNotInstalled, CheckingApp, NotConnected, ConnectionLost, NotPaired, InvalidState, ServiceUnavailable}
 
     public enum EMessageSendResult
-    {Success, NotSend, Timeout, Failed, DeviceNotFound, InvalidState, ServiceUnavailable, MessageEmpty, InvalidPayload}
+    {Success, Unchanged, NotSend, Timeout, Failed, DeviceNotFound, InvalidState, ServiceUnavailable, MessageEmpty, InvalidPayload, Queued}
+
+    public enum ESendPriority
+    {High, Normal, Low}
 
     public interface IMessageSendListener
     {
-        void onMessageSendResult(@NonNull EMessageSendResult result, @Nullable ConnectIQ.IQMessageStatus iq_status);
+        void onMessageSendResult(@NonNull MessageSendResult result);
     }
 
     public interface IAppOpenedListener
@@ -54,62 +58,90 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
     @Nullable
     public IQApp deviceApp = null;
 
+    /**
+     * only read and written on the event loop, other threads use Snapshot
+     */
     @NonNull
     public DeviceState state = DeviceState.NotConnected;
 
+    @NonNull
+    private final SendQueue _sendQueue;
+    @NonNull
+    private final ListDeltaSync _deltaSync = new ListDeltaSync();
+    @NonNull
+    private final MessageReassembler _reassembler = new MessageReassembler();
+    /**
+     * stops sending to the device after repeated failed transmissions
+     */
+    @NonNull
+    private final CircuitBreaker _breaker = new CircuitBreaker();
+    /**
+     * list transfers, that wait for the device to become ready
+     */
+    @Nullable
+    private Outbox _outbox = null;
+    /**
+     * highest wire format revision, the app on the device announced
+     */
+    private int _wireRevision = CompactCodec.LegacyRevision;
+
     public DeviceInfo(@NonNull IQDevice device, @NonNull DeviceManager manager)
     {
         this.Manager = manager;
+        this._sendQueue = new SendQueue(new SendQueue.ITransmitter()
+        {
+            @Override
+            public void transmit(@NonNull SendQueue.Entry entry)
+            {
+                DeviceInfo.this.transmitToDevice(entry);
+            }
+
+            @Override
+            public void timedOut(@NonNull SendQueue.Entry entry)
+            {
+                Logger.Error(TAG, "Timeout: Failed to transmit data to device " + DeviceInfo.this + " within " + entry.Timeout + " ms");
+                DeviceInfo.this.transmitCompleted(entry, EMessageSendResult.Timeout, null);
+            }
+        }, manager.Worker.Handler(), SendQueue.DefaultMaxInFlight);
         this.setDevice(device);
     }
 
     @Override
     public void onDeviceStatusChanged(IQDevice iqDevice, IQDevice.IQDeviceStatus iqDeviceStatus)
     {
-        if (iqDeviceStatus == IQDevice.IQDeviceStatus.CONNECTED)
+        this.Manager.Worker.Post(() ->
         {
-            this.setState(DeviceState.CheckingApp);
+            if (this.isCurrent(iqDevice))
+            {
+                this.deviceStatusChanged(iqDevice, iqDeviceStatus);
+            }
+        });
+    }
 
-            try
+    private void deviceStatusChanged(@NonNull IQDevice iqDevice, @Nullable IQDevice.IQDeviceStatus iqDeviceStatus)
+    {
+        if (iqDeviceStatus == IQDevice.IQDeviceStatus.CONNECTED)
+        {
+            this._breaker.Reset();
+            IQApp cached = this.Manager.AppInfos.Get(this.getDeviceIdentifier(), DeviceManager.AppId);
+            if (cached != null)
             {
-                this.Manager.connectIQ.getApplicationInfo(DeviceManager.AppId, this.device, new IQApplicationInfoListener()
+                //fast reconnect: the device is ready at once, the app info is verified in the background
+                this.deviceApp = cached;
+                this.setState(DeviceState.Ready);
+                this.Manager.Worker.Post(() ->
                 {
-                    @Override
-                    public void onApplicationInfoReceived(IQApp iqApp)
-                    {
-                        DeviceInfo.this.deviceApp = iqApp;
-                        if (DeviceInfo.this.state != DeviceState.Ready)
-                        {
-                            DeviceInfo.this.setState(DeviceState.Ready);
-                            try
-                            {
-                                DeviceInfo.this.Manager.connectIQ.registerForAppEvents(iqDevice, iqApp, DeviceInfo.this);
-                                Logger.Debug(TAG, "Listening for ConnectIQ app messages for device " + DeviceInfo.this);
-                            }
-                            catch (InvalidStateException ex)
-                            {
-                                Logger.Error(TAG, "Could not register for ConnectIQ app events for device " + DeviceInfo.this + ", invalid state", ex);
-                                DeviceInfo.this.setState(DeviceState.InvalidState);
-                            }
-                        }
-                    }
-
-                    @Override
-                    public void onApplicationNotInstalled(String s)
+                    if (this.isCurrent(iqDevice) && this.state == DeviceState.Ready)
                     {
-                        DeviceInfo.this.setState(DeviceState.AppNotInstalled);
+                        this.registerForAppEvents(iqDevice, cached);
+                        this.requestAppInfo(iqDevice);
                     }
                 });
             }
-            catch (InvalidStateException e)
-            {
-                Log.e(TAG, "ConnectIQ not in valid state!");
-                this.setState(DeviceState.InvalidState);
-            }
-            catch (ServiceUnavailableException e)
+            else
             {
-                Log.e(TAG, "ConnectIQ Service unavailable!");
-                this.setState(DeviceState.ServiceUnavailable);
+                this.setState(DeviceState.CheckingApp);
+                this.requestAppInfo(iqDevice);
             }
         }
         else if (iqDeviceStatus == IQDevice.IQDeviceStatus.NOT_CONNECTED)
@@ -129,13 +161,111 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
         }
     }
 
+    /**
+     * requests the app info from the device, the device is ready as soon as the app info is received
+     * if the device is already ready with a cached app info, the received app info verifies it
+     *
+     * @param iqDevice device
+     */
+    private void requestAppInfo(@NonNull IQDevice iqDevice)
+    {
+        try
+        {
+            this.Manager.Transport.getApplicationInfo(DeviceManager.AppId, iqDevice, new IQApplicationInfoListener()
+            {
+                @Override
+                public void onApplicationInfoReceived(IQApp iqApp)
+                {
+                    DeviceInfo.this.Manager.Worker.Post(() -> DeviceInfo.this.appInfoReceived(iqDevice, iqApp));
+                }
+
+                @Override
+                public void onApplicationNotInstalled(String s)
+                {
+                    DeviceInfo.this.Manager.Worker.Post(() ->
+                    {
+                        if (DeviceInfo.this.isCurrent(iqDevice))
+                        {
+                            DeviceInfo.this.Manager.AppInfos.Invalidate(DeviceInfo.this.getDeviceIdentifier());
+                            DeviceInfo.this.setState(DeviceState.AppNotInstalled);
+                        }
+                    });
+                }
+            });
+        }
+        catch (InvalidStateException e)
+        {
+            Log.e(TAG, "ConnectIQ not in valid state!");
+            this.setState(DeviceState.InvalidState);
+        }
+        catch (ServiceUnavailableException e)
+        {
+            Log.e(TAG, "ConnectIQ Service unavailable!");
+            this.setState(DeviceState.ServiceUnavailable);
+        }
+    }
+
+    private void appInfoReceived(@NonNull IQDevice iqDevice, @NonNull IQApp iqApp)
+    {
+        if (!this.isCurrent(iqDevice))
+        {
+            return;
+        }
+        boolean version_changed = this.Manager.AppInfos.Put(this.getDeviceIdentifier(), DeviceManager.AppId, iqApp);
+        this.deviceApp = iqApp;
+        this.Manager.SentPayloads.AppVersion(this.getDeviceIdentifier(), iqApp.version());
+        if (this.state != DeviceState.Ready)
+        {
+            this.setState(DeviceState.Ready);
+            this.registerForAppEvents(iqDevice, iqApp);
+        }
+        else if (version_changed)
+        {
+            Logger.Debug(TAG, () -> "App on device " + this + " was updated to version " + iqApp.version());
+            this.registerForAppEvents(iqDevice, iqApp);
+            this.Manager.notifyDeviceStateChanged(this);
+        }
+    }
+
+    /**
+     * the sdk may report events with another object for the same device
+     */
+    private boolean isCurrent(@NonNull IQDevice iqDevice)
+    {
+        return this.device != null && this.device.getDeviceIdentifier() == iqDevice.getDeviceIdentifier();
+    }
+
+    private void registerForAppEvents(@NonNull IQDevice iqDevice, @NonNull IQApp iqApp)
+    {
+        try
+        {
+            this.Manager.Transport.registerForAppEvents(iqDevice, iqApp, this);
+            Logger.Debug(TAG, () -> "Listening for ConnectIQ app messages for device " + this);
+        }
+        catch (InvalidStateException ex)
+        {
+            Logger.Error(TAG, "Could not register for ConnectIQ app events for device " + this + ", invalid state", ex);
+            this.setState(DeviceState.InvalidState);
+        }
+    }
+
     @Override
     public void onMessageReceived(IQDevice iqDevice, IQApp iqApp, List<Object> data, ConnectIQ.IQMessageStatus iqMessageStatus)
+    {
+        //decoding and event building don't belong on the sdk (ui) thread
+        final long received = SystemClock.elapsedRealtime();
+        this.Manager.Worker.Post(() ->
+        {
+            Metrics.Record(Metrics.Key("receive.dispatch", this.getDeviceIdentifier()), SystemClock.elapsedRealtime() - received);
+            this.processMessage(iqDevice, iqApp, data, iqMessageStatus);
+        });
+    }
+
+    private void processMessage(IQDevice iqDevice, IQApp iqApp, List<Object> data, ConnectIQ.IQMessageStatus iqMessageStatus)
     {
         if (iqDevice.getDeviceIdentifier() != this.getDeviceIdentifier() || !iqApp.getApplicationId().equals(this.deviceApp.getApplicationId()))
         {
-            String device_string = iqDevice.getDeviceIdentifier() + " (" + iqDevice.getFriendlyName() + ")";
-            Logger.Debug(TAG, "Received data from other device " + device_string + " - ignoring for device " + this);
+            Logger.Debug(TAG, () -> "Received data from other device " + iqDevice.getDeviceIdentifier() + " (" + iqDevice.getFriendlyName() + ") - ignoring for device " + this);
             return;
         }
 
@@ -145,13 +275,53 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
         }
         else
         {
-            DeviceMessage msg = DeviceUtils.DeserializeStringArray(data.get(0));
+            Object payload = data.get(0);
+            if (MessageReassembler.IsFragment(payload))
+            {
+                payload = this._reassembler.Add((List<?>) payload);
+                if (payload == null)
+                {
+                    //waiting for more fragments
+                    return;
+                }
+            }
+
+            if (payload instanceof List<?> lines && CompactCodec.IsCompact(lines))
+            {
+                payload = CompactCodec.Decode(lines);
+            }
+
+            DeviceMessage msg = payload != null ? DeviceUtils.DeserializeStringArray(payload) : null;
             if (msg != null)
             {
-                Logger.Debug(TAG, "Received data from device " + this + ": " + msg.Size + " bytes");
+                this.negotiateWireRevision(msg);
+                long device_id = this.getDeviceIdentifier();
+                Metrics.Increment(Metrics.Key("receive.messages", device_id, msg.Get("type")));
+                Metrics.Add(Metrics.Key("receive.bytes", device_id), msg.Size);
+            }
+            if (msg != null && ListDeltaSync.MessageTypeMismatch.equals(msg.Get("type")))
+            {
+                String uuid = msg.Get("uuid");
+                ArrayList<String> full = this._deltaSync.Mismatch(uuid);
+                Logger.Debug(TAG, () -> "Device " + this + " reported a revision mismatch for list " + uuid + ", " + (full != null ? "resending full list" : "list unknown"));
+                if (full != null)
+                {
+                    //the acknowledged delta stored the hash of this payload, the resend must not be skipped as unchanged
+                    this.Manager.SentPayloads.Invalidate(this.getDeviceIdentifier(), uuid);
+                    this.SendStrings(ListDeltaSync.MessageTypeList, new ArrayList<>(full), ESendPriority.High, 0, null);
+                }
+            }
+            else if (msg != null && this.Manager.Transactions.Complete(this, msg))
+            {
+                //responses to native transactions are delivered to the waiting call only
+                Logger.Debug(TAG, () -> "Received response " + msg.Get("tid") + " from device " + this + ": " + msg.Size + " bytes");
+            }
+            else if (msg != null)
+            {
+                Logger.Debug(TAG, () -> "Received data from device " + this + ": " + msg.Size + " bytes");
                 JSObject event_args = new JSObject();
                 event_args.put("device", this.toJSObject());
-                event_args.put("message", msg.Json());
+                event_args.put("message", msg.Message);
                 this.Manager.Plugin.emitJsEvent("RECEIVE", event_args);
             }
             else
@@ -163,17 +333,29 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
 
     public void setDevice(IQDevice device)
     {
-        if (device != this.device)
+        if (device != null && this.device != null && device.getDeviceIdentifier() == this.device.getDeviceIdentifier())
+        {
+            //the sdk returns new objects for the same device, keep the registration and state
+            boolean renamed = device.getFriendlyName() != null && !device.getFriendlyName().equals(this.device.getFriendlyName());
+            this.device = device;
+            if (renamed)
+            {
+                this.Manager.notifyDeviceStateChanged(this);
+            }
+        }
+        else if (device != this.device)
         {
             this.disconnect();
 
             this.device = device;
+            this._deltaSync.Clear();
+            this._reassembler.Clear();
             this.setState(DeviceState.Initializing);
 
             try
             {
-                this.onDeviceStatusChanged(device, this.Manager.connectIQ.getDeviceStatus(device));
-                this.Manager.connectIQ.registerForDeviceEvents(device, this);
+                this.deviceStatusChanged(device, this.Manager.Transport.getDeviceStatus(device));
+                this.Manager.Transport.registerForDeviceEvents(device, this);
             }
             catch (InvalidStateException e)
             {
@@ -190,11 +372,19 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
 
     public void disconnect()
     {
+        for (SendQueue.Entry entry : this._sendQueue.Clear())
+        {
+            if (entry.Listener != null)
+            {
+                entry.Listener.onMessageSendResult(entry.Stats(new MessageSendResult(EMessageSendResult.NotSend, null)));
+            }
+        }
+
         if (this.device != null)
         {
             try
             {
-                this.Manager.connectIQ.unregisterForEvents(this.device);
+                this.Manager.Transport.unregisterForEvents(this.device);
             }
             catch (InvalidStateException e)
             {
@@ -202,6 +392,12 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
             }
             this.device = null;
         }
+
+        if (this._outbox != null)
+        {
+            this._outbox.Close();
+            this._outbox = null;
+        }
     }
 
     /**
@@ -209,9 +405,11 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
      *
      * @param message_type type of the message, will always be in line 0 of the send string array
      * @param data         data object
+     * @param priority     priority lane in the send queue of the device
+     * @param timeout      milliseconds to wait for the acknowledgement, 0 for the default timeout
      * @param sendListener listener for send success or failure
      */
-    public void Send(@Nullable String message_type, @Nullable Object data, @Nullable IMessageSendListener sendListener)
+    public void Send(@Nullable String message_type, @Nullable Object data, @NonNull ESendPriority priority, long timeout, @Nullable IMessageSendListener sendListener)
     {
         if (this.device == null)
         {
@@ -228,57 +426,126 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
         {
             send = new ArrayList<>();
         }
+        this.SendStrings(message_type, send, priority, timeout, sendListener);
+    }
 
-        if (message_type != null && !message_type.isEmpty())
+    /**
+     * sends an already flattened message to a device
+     *
+     * @param message_type type of the message, will always be in line 0 of the send string array
+     * @param send         message lines, the list is taken over by the send queue
+     * @param priority     priority lane in the send queue of the device
+     * @param timeout      milliseconds to wait for the acknowledgement, 0 for the default timeout
+     * @param sendListener listener for send success or failure
+     */
+    public void SendStrings(@Nullable String message_type, @NonNull ArrayList<String> send, @NonNull ESendPriority priority, long timeout, @Nullable IMessageSendListener sendListener)
+    {
+        if (this.device == null)
         {
-            send.add(0, message_type);
+            Logger.Debug(TAG, "Could not send to undefined device");
+            return;
         }
 
-        if (send.isEmpty())
+        if (this.state != DeviceState.Ready && Outbox.Persistable(message_type))
         {
-            if (sendListener != null)
+            Outbox outbox = this.outbox();
+            if (outbox != null && outbox.Add(message_type, send, priority))
             {
-                sendListener.onMessageSendResult(EMessageSendResult.MessageEmpty, null);
+                final String queued_type = message_type;
+                Logger.Debug(TAG, () -> "Device " + this + " is in state " + this.state + ", queued " + queued_type + " message in outbox");
+                if (sendListener != null)
+                {
+                    sendListener.onMessageSendResult(new MessageSendResult(EMessageSendResult.Queued, null));
+                }
+                return;
             }
         }
-        else
+
+        if (ListDeltaSync.MessageTypeList.equals(message_type))
+        {
+            String uuid = DeviceUtils.GetValue(send, "uuid");
+            if (uuid != null)
+            {
+                final long device_id = this.getDeviceIdentifier();
+                final long hash = PayloadCache.Hash(message_type, send);
+                if (this.Manager.SentPayloads.IsUnchanged(device_id, uuid, hash))
+                {
+                    Logger.Debug(TAG, () -> "List " + uuid + " is unchanged on device " + this + ", not sending");
+                    if (sendListener != null)
+                    {
+                        sendListener.onMessageSendResult(new MessageSendResult(EMessageSendResult.Unchanged, null));
+                    }
+                    return;
+                }
+
+                final IMessageSendListener listener = sendListener;
+                sendListener = result ->
+                {
+                    if (result.Result == EMessageSendResult.Success)
+                    {
+                        this.Manager.SentPayloads.Acknowledged(device_id, uuid, hash);
+                    }
+                    if (listener != null)
+                    {
+                        listener.onMessageSendResult(result);
+                    }
+                };
+            }
+        }
+        else if ("dellist".equals(message_type) && !send.isEmpty())
         {
-            this.transmitToDevice(send, sendListener);
+            this.Manager.SentPayloads.Invalidate(this.getDeviceIdentifier(), send.get(0));
         }
-    }
 
-    /**
-     * sends a json object to a device
-     *
-     * @param message_type type of the message, will always be in line 0 of the send string array
-     * @param json         json data string
-     * @param sendListener listener for send success or failure
-     */
-    public void SendJson(@Nullable String message_type, @Nullable String json, @Nullable IMessageSendListener sendListener)
-    {
-        Object obj;
-        if (json != null)
+        if (this.Manager.DeltaSync)
         {
-            try
+            ListDeltaSync.Prepared prepared = this._deltaSync.Prepare(message_type, send);
+            if (prepared != null)
             {
-                Gson gson = new GsonBuilder().setLongSerializationPolicy(LongSerializationPolicy.STRING).create(); //parse long numbers as string
-                obj = gson.fromJson(json, JsonElement.class);
+                message_type = prepared.MessageType;
+                send = prepared.Data;
+                sendListener = prepared.Wrap(sendListener);
             }
-            catch (JsonSyntaxException ex)
+            else if ("dellist".equals(message_type) && !send.isEmpty())
             {
-                Logger.Error(TAG, "Could not deserialize json data: " + ex.getMessage());
-                if (sendListener != null)
-                {
-                    sendListener.onMessageSendResult(EMessageSendResult.InvalidPayload, null);
-                }
-                return;
+                this._deltaSync.Forget(send.get(0));
+            }
+        }
+
+        //encode before the budget is checked, so large lists are compacted too and fragmented by their encoded size
+        if (this.Manager.CompactWire && this._wireRevision >= CompactCodec.Revision && ListDeltaSync.MessageTypeList.equals(message_type))
+        {
+            ArrayList<String> compact = CompactCodec.Encode(send);
+            if (compact != null)
+            {
+                send = compact;
+            }
+        }
+
+        if (!send.isEmpty() && this.Manager.FragmentBudget > 0 && MessageFragmenter.Exceeds(message_type, send, this.Manager.FragmentBudget))
+        {
+            ArrayList<ArrayList<String>> fragments = MessageFragmenter.Split(message_type, send, this.Manager.FragmentBudget);
+            Logger.Debug(TAG, () -> "Message to device " + this + " exceeds " + this.Manager.FragmentBudget + " bytes, sending " + fragments.size() + " fragment(s)");
+            new MessageFragmenter.Transfer(this._sendQueue, fragments, priority, timeout, sendListener).Start();
+            return;
+        }
+
+        if (message_type != null && !message_type.isEmpty())
+        {
+            send.add(0, message_type);
+        }
+
+        if (send.isEmpty())
+        {
+            if (sendListener != null)
+            {
+                sendListener.onMessageSendResult(new MessageSendResult(EMessageSendResult.MessageEmpty, null));
             }
         }
         else
         {
-            obj = null;
+            this._sendQueue.Enqueue(new SendQueue.Entry(send, message_type, priority, timeout, sendListener));
         }
-        this.Send(message_type, obj, sendListener);
     }
 
     /**
@@ -294,17 +561,17 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
             return false;
         }
 
-        if (this.Manager.connectIQ != null && this.Manager.sdkReady)
+        if (this.Manager.Transport != null && this.Manager.sdkReady)
         {
             try
             {
-                this.Manager.connectIQ.openApplication(this.device, this.deviceApp, (device, app, status) ->
+                this.Manager.Transport.openApplication(this.device, this.deviceApp, (device, app, status) -> this.Manager.Worker.Post(() ->
                 {
                     boolean success = false;
                     if (status == ConnectIQ.IQOpenApplicationStatus.APP_IS_ALREADY_RUNNING || status == ConnectIQ.IQOpenApplicationStatus.PROMPT_SHOWN_ON_DEVICE)
                     {
                         success = true;
-                        Logger.Debug(TAG, "Opened App on device " + this + ":", status);
+                        Logger.Debug(TAG, () -> "Opened App on device " + this + ":", status);
 
                     }
                     else
@@ -315,7 +582,7 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
                     {
                         listener.onAppOpenResponse(this, success);
                     }
-                });
+                }));
                 return true;
             }
             catch (InvalidStateException ex)
@@ -334,6 +601,14 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
         return false;
     }
 
+    /**
+     * number of messages in the send queue of the device, queued and in flight
+     */
+    public int PendingSends()
+    {
+        return this._sendQueue.Depth();
+    }
+
     public long getDeviceIdentifier()
     {
         if (this.device != null)
@@ -346,21 +621,28 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
         }
     }
 
-    public JSObject toJSObject()
+    /**
+     * copies the current state of the device
+     *
+     * @return snapshot, or null if the device is disconnected
+     */
+    @Nullable
+    public DeviceSnapshot Snapshot()
     {
         if (this.device != null)
         {
-            JSObject ret = new JSObject();
-            ret.put("id", this.device.getDeviceIdentifier());
-            ret.put("name", this.device.getFriendlyName());
-            ret.put("state", this.state.name());
-            ret.put("version", this.deviceApp != null ? this.deviceApp.version() : 0);
-            return ret;
+            return new DeviceSnapshot(this.device.getDeviceIdentifier(), this.device.getFriendlyName(), this.state, this.deviceApp != null ? this.deviceApp.version() : 0);
         }
 
         return null;
     }
 
+    public JSObject toJSObject()
+    {
+        DeviceSnapshot snapshot = this.Snapshot();
+        return snapshot != null ? snapshot.toJSObject() : null;
+    }
+
     @NonNull
     @Override
     public String toString()
@@ -377,92 +659,208 @@ public class DeviceInfo implements ConnectIQ.IQDeviceEventListener, ConnectIQ.IQ
 
     private void setState(DeviceState state)
     {
+        if (state == DeviceState.ConnectionLost)
+        {
+            this.Manager.SentPayloads.InvalidateDevice(this.getDeviceIdentifier());
+        }
         this.state = state;
         this.Manager.notifyDeviceStateChanged(this);
+        if (state == DeviceState.Ready)
+        {
+            this.Manager.Worker.Post(this::drainOutbox);
+        }
+    }
+
+    /**
+     * the app on the device announces the highest wire format revision it supports in the rev field of its messages
+     *
+     * @param msg inbound message
+     */
+    private void negotiateWireRevision(@NonNull DeviceMessage msg)
+    {
+        Long revision = HelperUtils.toLong(msg.Get("rev"));
+        if (revision != null && revision != this._wireRevision)
+        {
+            this._wireRevision = (int) Math.max(CompactCodec.LegacyRevision, Math.min(CompactCodec.Revision, revision));
+            Logger.Debug(TAG, () -> "Device " + this + " supports wire format revision " + revision + ", using " + this._wireRevision);
+        }
+    }
+
+    /**
+     * gets the outbox of the device, the file is opened on first use
+     */
+    @Nullable
+    private Outbox outbox()
+    {
+        if (this._outbox == null && this.device != null && this.Manager.OutboxDirectory != null)
+        {
+            this._outbox = Outbox.Open(this.Manager.OutboxDirectory, this.getDeviceIdentifier());
+        }
+        return this._outbox;
     }
 
     /**
-     * transmits data to the device
+     * transmits the messages, that were queued while the device was not ready, in the order they were queued
+     * a message stays in the outbox, until the device acknowledged it
+     */
+    private void drainOutbox()
+    {
+        Outbox outbox = this.outbox();
+        if (outbox == null || this.state != DeviceState.Ready)
+        {
+            return;
+        }
+        ArrayList<Outbox.Entry> entries = outbox.Take();
+        if (entries.isEmpty())
+        {
+            return;
+        }
+        Logger.Notice(TAG, () -> "Transmitting " + entries.size() + " queued message(s) to device " + this);
+        for (Outbox.Entry entry : entries)
+        {
+            this.SendStrings(entry.MessageType, new ArrayList<>(entry.Data), entry.Priority, 0, result -> outbox.Done(entry.Seq, result.Success()));
+        }
+    }
+
+    /**
+     * transmits a queued message to the device
+     * is called by the send queue, as soon as the message is next in line, the queue tracks the deadline
      *
-     * @param data     data map of type Array<String>
-     *                 other formats are known to fail to send on some devices
-     * @param listener listener for result
+     * @param entry queued message, data is of type Array<String>
+     *              other formats are known to fail to send on some devices
      */
-    private void transmitToDevice(@NonNull ArrayList<String> data, @Nullable IMessageSendListener listener)
+    private void transmitToDevice(@NonNull SendQueue.Entry entry)
     {
-        final Handler timeoutHandler = new Handler(Looper.getMainLooper());
-        final boolean[] messageSent = {false};
+        if (entry.Cancelled())
+        {
+            //the device was disconnected, while the entry waited for a retry
+            return;
+        }
+        final ArrayList<String> data = entry.Data;
 
-        Runnable timeoutRunnable = () ->
+        if (!this._breaker.Allow())
         {
-            if (!messageSent[0])
-            {
-                Logger.Error(TAG, "Timeout: Failed to transmit data to device " + this + " within 30 seconds");
-                if (listener != null)
-                {
-                    listener.onMessageSendResult(EMessageSendResult.Timeout, null);
-                }
-            }
-        };
+            //hold the message in its slot until the breaker lets it through, it is not failed and the attempt isn't counted
+            entry.TryComplete();
+            long delay = this._breaker.RetryIn();
+            Logger.Notice(TAG, () -> "Circuit breaker of device " + this + " is open, holding message for " + delay + " ms");
+            this._sendQueue.Retry(entry, delay);
+            return;
+        }
 
+        final int attempt = entry.Attempt();
         if (this.state == DeviceState.Ready)
         {
             try
             {
-                Logger.Debug(TAG, "Trying to transmit data to device " + this + ": ", data);
+                Logger.Debug(TAG, () -> "Trying to transmit data to device " + this + " (attempt " + attempt + "): ", data);
 
-                this.Manager.connectIQ.sendMessage(this.device, this.deviceApp, data, (device, app, status) ->
+                this.Manager.Transport.sendMessage(this.device, this.deviceApp, data, (device, app, status) ->
                 {
-                    messageSent[0] = true;
-                    timeoutHandler.removeCallbacks(timeoutRunnable);
-                    if (status == ConnectIQ.IQMessageStatus.SUCCESS)
+                    if (!entry.TryComplete())
                     {
-                        Logger.Debug(TAG, "Transmitted data to device " + this);
-
+                        //already timed out
+                        return;
                     }
-                    else
+                    this.Manager.Worker.Post(() ->
                     {
-                        Logger.Error(TAG, "Failed to transmit data to device " + this + ": " + status.name());
-                    }
+                        if (status == ConnectIQ.IQMessageStatus.SUCCESS)
+                        {
+                            Logger.Debug(TAG, () -> "Transmitted data to device " + this);
 
-                    if (listener != null)
-                    {
-                        listener.onMessageSendResult(status == ConnectIQ.IQMessageStatus.SUCCESS ? EMessageSendResult.Success : EMessageSendResult.Failed, status);
-                    }
+                        }
+                        else
+                        {
+                            Logger.Error(TAG, "Failed to transmit data to device " + this + ": " + status.name());
+                        }
+
+                        this.transmitCompleted(entry, status == ConnectIQ.IQMessageStatus.SUCCESS ? EMessageSendResult.Success : EMessageSendResult.Failed, status);
+                    });
                 });
             }
             catch (InvalidStateException e)
             {
-                Logger.Error(TAG, "Failed to transmit data to device " + this + ": Invalid state");
-                if (listener != null)
+                if (entry.TryComplete())
                 {
-                    listener.onMessageSendResult(EMessageSendResult.InvalidState, null);
+                    Logger.Error(TAG, "Failed to transmit data to device " + this + ": Invalid state");
+                    this.transmitCompleted(entry, EMessageSendResult.InvalidState, null);
                 }
             }
             catch (ServiceUnavailableException e)
             {
-                Logger.Error(TAG, "Failed to transmit data to device " + this + ": Service unavailable");
-                if (listener != null)
+                if (entry.TryComplete())
                 {
-                    listener.onMessageSendResult(EMessageSendResult.ServiceUnavailable, null);
+                    Logger.Error(TAG, "Failed to transmit data to device " + this + ": Service unavailable");
+                    this.transmitCompleted(entry, EMessageSendResult.ServiceUnavailable, null);
                 }
             }
             catch (Exception ex)
             {
-                Logger.Error(TAG, "Failed to transmit data to device " + this + ": " + ex.getMessage());
-                if (listener != null)
+                if (entry.TryComplete())
                 {
-                    listener.onMessageSendResult(EMessageSendResult.Failed, null);
+                    Logger.Error(TAG, "Failed to transmit data to device " + this + ": " + ex.getMessage());
+                    this.transmitCompleted(entry, EMessageSendResult.Failed, null);
                 }
             }
         }
         else
         {
+            entry.TryComplete();
             Logger.Error(TAG, "Failed to transmit data to device " + this + ": Device is in state " + this.state);
-            if (listener != null)
-            {
-                listener.onMessageSendResult(EMessageSendResult.Failed, ConnectIQ.IQMessageStatus.FAILURE_INVALID_DEVICE);
-            }
+            this.transmitCompleted(entry, EMessageSendResult.Failed, ConnectIQ.IQMessageStatus.FAILURE_INVALID_DEVICE);
+        }
+    }
+
+    /**
+     * a queued message was transmitted or failed, frees its slot in the send queue
+     *
+     * @param entry     queued message
+     * @param result    result of the transmission
+     * @param iq_status status reported by the sdk
+     */
+    private void transmitCompleted(@NonNull SendQueue.Entry entry, @NonNull EMessageSendResult result, @Nullable ConnectIQ.IQMessageStatus iq_status)
+    {
+        if (entry.Cancelled())
+        {
+            //already reported as not sent by disconnect
+            return;
+        }
+        if (result == EMessageSendResult.Failed && this.state == DeviceState.Ready && this.Manager.Retries.ShouldRetry(entry.Attempts(), iq_status))
+        {
+            //keep the slot in the send queue, so the message is not overtaken by the following ones
+            //the breaker counts the message once, when its retries are exhausted
+            this._breaker.Release();
+            long delay = this.Manager.Retries.Delay(entry.Attempts());
+            Logger.Notice(TAG, () -> "Retrying transmission to device " + this + " in " + delay + " ms (attempt " + entry.Attempts() + " failed: " + iq_status + ")");
+            this._sendQueue.Retry(entry, delay);
+            return;
+        }
+
+        switch (result)
+        {
+            case Success -> this._breaker.Success();
+            case Failed, Timeout -> this._breaker.Failure();
+            default -> this._breaker.Release();
+        }
+
+        long device_id = this.getDeviceIdentifier();
+        Metrics.Increment(Metrics.Key("send." + result.name(), device_id, entry.MessageType));
+        Metrics.Record(Metrics.Key("send.latency", device_id, entry.MessageType), entry.Elapsed());
+        if (entry.Attempts() > 1)
+        {
+            Metrics.Add(Metrics.Key("send.retries", device_id), entry.Attempts() - 1);
+        }
+        if (result == EMessageSendResult.Success)
+        {
+            Metrics.Add(Metrics.Key("send.bytes", device_id), DeviceUtils.EstimateSize(entry.Data));
+        }
+
+        if (entry.Listener != null)
+        {
+            MessageSendResult send_result = entry.Stats(new MessageSendResult(result, iq_status));
+            send_result.Breaker = this._breaker.State();
+            entry.Listener.onMessageSendResult(send_result);
         }
+        this._sendQueue.Completed(entry);
     }
 }
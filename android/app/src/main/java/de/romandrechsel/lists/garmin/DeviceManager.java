@@ -1,29 +1,34 @@
 package de.romandrechsel.lists.garmin;
 
 import android.app.Activity;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
 
 import com.garmin.android.connectiq.ConnectIQ;
 import com.garmin.android.connectiq.IQDevice;
 import com.garmin.android.connectiq.exception.InvalidStateException;
 import com.garmin.android.connectiq.exception.ServiceUnavailableException;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.LongSerializationPolicy;
-
-import org.jetbrains.annotations.NotNull;
+import com.getcapacitor.JSObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.romandrechsel.lists.logging.Logger;
+import de.romandrechsel.lists.metrics.Metrics;
+import de.romandrechsel.lists.utils.DeviceUtils;
 
+/**
+ * registry of the devices, its state is owned by the event loop of the worker
+ * commands are posted to the loop, readers on other threads use the published snapshot
+ */
 public class DeviceManager implements ConnectIQ.ConnectIQListener
 {
     public interface IInitializeListener
@@ -33,33 +38,197 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
         void Failed(String message);
     }
 
+    /**
+     * immutable view of the registry, published by the event loop after every change
+     */
+    public static final class Snapshot
+    {
+        public static final Snapshot Empty = new Snapshot(false, false, Collections.emptyList());
+
+        public final boolean SdkReady;
+        /**
+         * devices from the device cache, their states are the last known ones and not live
+         */
+        public final boolean Stale;
+        @NonNull
+        public final List<DeviceSnapshot> Devices;
+
+        public Snapshot(boolean sdk_ready, boolean stale, @NonNull List<DeviceSnapshot> devices)
+        {
+            this.SdkReady = sdk_ready;
+            this.Stale = stale;
+            this.Devices = Collections.unmodifiableList(devices);
+        }
+
+        @NonNull
+        public JSObject toJSObject()
+        {
+            ArrayList<JSObject> list = new ArrayList<>(this.Devices.size());
+            for (DeviceSnapshot device : this.Devices)
+            {
+                list.add(device.toJSObject());
+            }
+            JSObject ret = new JSObject();
+            ret.put("devices", list);
+            if (this.Stale)
+            {
+                ret.put("stale", true);
+            }
+            return ret;
+        }
+
+        /**
+         * gets a single device
+         *
+         * @param identifier unique identifier
+         * @return device or null, if the device is unknown or the sdk is not ready
+         */
+        @Nullable
+        public DeviceSnapshot Get(@Nullable Long identifier)
+        {
+            if (this.SdkReady && identifier != null)
+            {
+                for (DeviceSnapshot device : this.Devices)
+                {
+                    if (device.Id == identifier)
+                    {
+                        return device;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
     @NonNull
     public ConnectIQPlugin Plugin;
-    public ConnectIQ connectIQ;
+    /**
+     * link to the devices, the ConnectIQ sdk or the local simulator
+     */
+    @Nullable
+    public IDeviceTransport Transport;
     private static final String AppIdDebug = "64655bbc-555c-484d-827b-4aef68ff6f5e";
     private static final String AppIdRelease = "f9b0d002-4a4d-45ab-9330-bbed2c3af49f";
     public static String AppId = DeviceManager.AppIdRelease;
 
-    private Boolean _useGarminSimulator = false;
+    /**
+     * transmit lists as item-level deltas to devices, that already acknowledged a previous version
+     */
+    public boolean DeltaSync = false;
+
+    /**
+     * messages larger than this number of bytes are split in fragments, 0 to send every message as a whole
+     */
+    public int FragmentBudget = 0;
+
+    /**
+     * transmit lists in the compact wire format to devices, that announced support for it
+     */
+    public boolean CompactWire = false;
+
+    /**
+     * backoff for sends, that failed with a transient status
+     */
+    @NonNull
+    public RetryPolicy Retries = new RetryPolicy();
+
+    /**
+     * directory of the outboxes of the devices, list transfers to devices, that are not ready, are not kept if null
+     */
+    @Nullable
+    public File OutboxDirectory = null;
+
+    /**
+     * last known devices, written on every change, lets GetDevices answer, while the sdk initializes, no cache if null
+     */
+    @Nullable
+    public DeviceCache Cache = null;
 
     private static final String TAG = "IQDeviceManager";
+    /**
+     * owned by the event loop, other threads read Devices().SdkReady
+     */
     public boolean sdkReady = false;
 
-    private final List<DeviceInfo> devices = new ArrayList<>();
+    /**
+     * last published state of the registry
+     */
+    @NonNull
+    private volatile Snapshot _snapshot = Snapshot.Empty;
+
+    /**
+     * true, if the registry mirrors the devices known to the sdk, only then the device cache is updated
+     */
+    private boolean _devicesListed = false;
+
+    /**
+     * a stale device list was handed out, the live devices are emitted as DEVICES_RECONCILED, once the sdk is ready
+     */
+    private final AtomicBoolean _staleServed = new AtomicBoolean(false);
+
+    /**
+     * known devices, keyed by device identifier, only accessed on the event loop
+     */
+    private final LongSparseArray<DeviceInfo> devices = new LongSparseArray<>();
+
+    /**
+     * hashes of the list payloads, the devices acknowledged
+     */
+    public final PayloadCache SentPayloads = new PayloadCache(PayloadCache.DefaultCapacity);
+
+    /**
+     * app infos of the devices, lets reconnecting devices skip the app info request
+     */
+    public final AppInfoCache AppInfos = new AppInfoCache(AppInfoCache.DefaultTtl);
+
+    /**
+     * pending request/response transactions
+     */
+    public final TransactionRegistry Transactions = new TransactionRegistry();
+
+    /**
+     * event loop of the device layer, registry changes, sdk callbacks, flattening, decoding and send results run on this thread
+     */
+    public final DeviceWorker Worker = new DeviceWorker("IQWorker");
 
     @Nullable
     private IInitializeListener _initListener = null;
 
+    /**
+     * collapses fast state transitions of a device into a single DEVICE event
+     */
+    private final DeviceEventDispatcher _deviceEvents = new DeviceEventDispatcher(this.Worker.Handler(), device ->
+    {
+        JSObject event = device.toJSObject();
+        if (event != null)
+        {
+            this.Plugin.emitJsEvent("DEVICE", event);
+        }
+    });
+
     public DeviceManager(@NonNull ConnectIQPlugin plugin)
     {
         this.Plugin = plugin;
     }
 
-    public void Initialize(Activity activity, @Nullable Boolean simulator, @Nullable Boolean debug_app, @Nullable IInitializeListener listener)
+    /**
+     * initializes the transport on the event loop, a running transport is shut down first
+     *
+     * @param activity  activity
+     * @param transport link to the devices
+     * @param debug_app use the debug app id
+     * @param listener  listener for the result of the initialization, called on the event loop
+     */
+    public void Initialize(Activity activity, @NonNull IDeviceTransport transport, @Nullable Boolean debug_app, @Nullable IInitializeListener listener)
+    {
+        this.Worker.Post(() -> this.initialize(activity, transport, debug_app, listener));
+    }
+
+    private void initialize(Activity activity, @NonNull IDeviceTransport transport, @Nullable Boolean debug_app, @Nullable IInitializeListener listener)
     {
-        if (this.connectIQ != null)
+        if (this.Transport != null)
         {
-            this.Shutdown(activity);
+            this.shutdown(activity);
         }
 
         this._initListener = listener;
@@ -75,57 +244,81 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
             DeviceManager.AppId = DeviceManager.AppIdRelease;
         }
 
-        if (simulator != null && simulator)
+        if (transport.isSimulator())
         {
-            //get debugging devices
-            this._useGarminSimulator = true;
-            this.connectIQ = ConnectIQ.getInstance(activity, ConnectIQ.IQConnectType.TETHERED);
-            this.connectIQ.setAdbPort(7381);
             Logger.Debug(TAG, "Initialize simulator devices...");
         }
-        else
-        {
-            //get live devices
-            this._useGarminSimulator = false;
-            this.connectIQ = ConnectIQ.getInstance(activity, ConnectIQ.IQConnectType.WIRELESS);
-        }
-        this.connectIQ.initialize(activity, true, this);
+        this.Transport = transport;
+        this.Transport.initialize(activity, this);
 
         try
         {
-            this.connectIQ.unregisterAllForEvents();
+            this.Transport.unregisterAllForEvents();
         }
         catch (InvalidStateException ignored)
         {
         }
     }
 
-    public void Shutdown(Activity activity)
+    /**
+     * shuts the transport down on the event loop
+     *
+     * @param activity activity
+     * @return future, that completes, when the devices are disconnected and the transport is shut down
+     */
+    @NonNull
+    public CompletableFuture<Void> Shutdown(Activity activity)
     {
-        this.DisconnectAllDevices();
-        try
-        {
-            this.connectIQ.shutdown(activity);
-        }
-        catch (InvalidStateException ignore)
-        {
-        }
-        try
+        return this.Worker.Submit(() ->
         {
-            this.connectIQ.unregisterAllForEvents();
-        }
-        catch (InvalidStateException ignore)
+            this.shutdown(activity);
+            return null;
+        });
+    }
+
+    private void shutdown(Activity activity)
+    {
+        this.DisconnectAllDevices();
+        this.Transactions.Clear();
+        if (this.Transport != null)
         {
+            try
+            {
+                this.Transport.shutdown(activity);
+            }
+            catch (InvalidStateException ignore)
+            {
+            }
+            try
+            {
+                this.Transport.unregisterAllForEvents();
+            }
+            catch (InvalidStateException ignore)
+            {
+            }
         }
-        this.connectIQ = null;
+        this.Transport = null;
         this._initListener = null;
+        this.sdkReady = false;
+        this.publish();
         Logger.Notice(TAG, "ConnectIQ shutdown successful");
     }
 
     @Override
     public void onSdkReady()
+    {
+        this.Worker.Post(this::sdkReady);
+    }
+
+    private void sdkReady()
     {
         this.sdkReady = true;
+        this.publish();
+        if (this._staleServed.getAndSet(false))
+        {
+            this.listDevices();
+            this.notifyDevicesReconciled();
+        }
         Logger.Debug(TAG, "ConnectIQ initialization successful");
         if (this._initListener != null)
         {
@@ -136,10 +329,20 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
 
     @Override
     public void onInitializeError(ConnectIQ.IQSdkErrorStatus errStatus)
+    {
+        this.Worker.Post(() -> this.initializeError(errStatus));
+    }
+
+    private void initializeError(ConnectIQ.IQSdkErrorStatus errStatus)
     {
         Logger.Error(TAG, "ConnectIQ initialization failed: " + errStatus.toString());
         this.sdkReady = false;
         this.DisconnectAllDevices();
+        this.publish();
+        if (this._staleServed.getAndSet(false))
+        {
+            this.notifyDevicesReconciled();
+        }
         if (this._initListener != null)
         {
             this._initListener.Failed(errStatus.toString());
@@ -149,25 +352,36 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
 
     @Override
     public void onSdkShutDown()
+    {
+        this.Worker.Post(this::sdkShutDown);
+    }
+
+    private void sdkShutDown()
     {
         this.sdkReady = false;
-        if (this.connectIQ != null)
+        if (this.Transport != null)
         {
             Logger.Debug(TAG, "ConnectIQ sdk shut down");
             this.DisconnectAllDevices();
         }
+        this.publish();
     }
 
     /**
      * opens browser to the Garmin App-Store
      */
     public void openStore()
+    {
+        this.Worker.Post(this::openStoreOnLoop);
+    }
+
+    private void openStoreOnLoop()
     {
         try
         {
-            if (this.connectIQ != null)
+            if (this.Transport != null)
             {
-                this.connectIQ.openStore(AppId);
+                this.Transport.openStore(AppId);
             }
         }
         catch (InvalidStateException | UnsupportedOperationException | ServiceUnavailableException ignored)
@@ -175,7 +389,20 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
         }
     }
 
-    public boolean openApp(@NonNull Long deviceId, @Nullable DeviceInfo.IAppOpenedListener listener)
+    /**
+     * opens the app on a device
+     *
+     * @param deviceId unique device identifier
+     * @param listener listener for the response of the device, called on the event loop
+     * @return future, true if the request was sent to the device
+     */
+    @NonNull
+    public CompletableFuture<Boolean> openApp(@NonNull Long deviceId, @Nullable DeviceInfo.IAppOpenedListener listener)
+    {
+        return this.Worker.Submit(() -> this.openAppOnLoop(deviceId, listener));
+    }
+
+    private boolean openAppOnLoop(@NonNull Long deviceId, @Nullable DeviceInfo.IAppOpenedListener listener)
     {
         DeviceInfo device = this.getDevice(deviceId);
         if (device != null)
@@ -189,14 +416,75 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
         return false;
     }
 
-    public void SendToDevice(@Nullable Long deviceId, @Nullable String message_type, @Nullable String json, @Nullable DeviceInfo.IMessageSendListener listener)
+    /**
+     * sends a json payload to a device
+     * the json is flattened to a string array message without building a json tree
+     *
+     * @param deviceId     unique device identifier
+     * @param message_type type of the message
+     * @param json         json data string
+     * @param priority     priority lane in the send queue of the device, null to use the default lane of the message type
+     * @param timeout      milliseconds to wait for the acknowledgement, 0 for the default timeout
+     * @param listener     listener for send success or failure
+     */
+    public void SendToDevice(@Nullable Long deviceId, @Nullable String message_type, @Nullable String json, @Nullable DeviceInfo.ESendPriority priority, long timeout, @Nullable DeviceInfo.IMessageSendListener listener)
+    {
+        this.Worker.Post(() -> this.sendToDevice(deviceId, message_type, json, priority, timeout, listener));
+    }
+
+    private void sendToDevice(@Nullable Long deviceId, @Nullable String message_type, @Nullable String json, @Nullable DeviceInfo.ESendPriority priority, long timeout, @Nullable DeviceInfo.IMessageSendListener listener)
+    {
+        if (json == null || json.isEmpty())
+        {
+            Logger.Error(TAG, "Could not send empty json to device " + deviceId);
+            if (listener != null)
+            {
+                listener.onMessageSendResult(new MessageSendResult(DeviceInfo.EMessageSendResult.NotSend, null));
+            }
+            return;
+        }
+
+        ArrayList<String> data;
+        try
+        {
+            data = DeviceUtils.FlattenJson(json);
+        }
+        catch (IOException | IllegalStateException ex)
+        {
+            Logger.Error(TAG, "Could not deserialize json data: " + ex.getMessage());
+            if (listener != null)
+            {
+                listener.onMessageSendResult(new MessageSendResult(DeviceInfo.EMessageSendResult.InvalidPayload, null));
+            }
+            return;
+        }
+
+        this.sendToDevice(deviceId, message_type, data, priority, timeout, listener);
+    }
+
+    /**
+     * sends an already flattened string array message to a device
+     *
+     * @param deviceId     unique device identifier
+     * @param message_type type of the message
+     * @param data         message lines
+     * @param priority     priority lane in the send queue of the device, null to use the default lane of the message type
+     * @param timeout      milliseconds to wait for the acknowledgement, 0 for the default timeout
+     * @param listener     listener for send success or failure
+     */
+    public void SendToDevice(@Nullable Long deviceId, @Nullable String message_type, @NonNull ArrayList<String> data, @Nullable DeviceInfo.ESendPriority priority, long timeout, @Nullable DeviceInfo.IMessageSendListener listener)
+    {
+        this.Worker.Post(() -> this.sendToDevice(deviceId, message_type, data, priority, timeout, listener));
+    }
+
+    private void sendToDevice(@Nullable Long deviceId, @Nullable String message_type, @NonNull ArrayList<String> data, @Nullable DeviceInfo.ESendPriority priority, long timeout, @Nullable DeviceInfo.IMessageSendListener listener)
     {
         if (deviceId == null)
         {
-            Logger.Error(TAG, "Could not send json to device, no device identifier provided");
+            Logger.Error(TAG, "Could not send data to device, no device identifier provided");
             if (listener != null)
             {
-                listener.onMessageSendResult(DeviceInfo.EMessageSendResult.DeviceNotFound, null);
+                listener.onMessageSendResult(new MessageSendResult(DeviceInfo.EMessageSendResult.DeviceNotFound, null));
             }
             return;
         }
@@ -204,46 +492,199 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
         DeviceInfo device = this.getDevice(deviceId);
         if (device != null)
         {
-            if (json == null || json.isEmpty())
+            device.SendStrings(message_type, data, priority != null ? priority : SendQueue.PriorityFor(message_type), timeout, listener);
+        }
+        else if (listener != null)
+        {
+            listener.onMessageSendResult(new MessageSendResult(DeviceInfo.EMessageSendResult.DeviceNotFound, null));
+        }
+    }
+
+    /**
+     * sends a request to a device and waits for its response
+     * the transaction id is assigned here and added to the request as "tid"
+     *
+     * @param deviceId     unique device identifier
+     * @param message_type type of the message
+     * @param json         json data string, may be empty
+     * @param priority     priority lane in the send queue of the device, null to use the default lane of the message type
+     * @param timeout      milliseconds to wait for the response, 0 for the default timeout
+     * @param listener     listener for the response, the timeout or the send failure
+     */
+    public void SendTransaction(@Nullable Long deviceId, @Nullable String message_type, @Nullable String json, @Nullable DeviceInfo.ESendPriority priority, long timeout, @NonNull TransactionRegistry.ITransactionListener listener)
+    {
+        this.Worker.Post(() -> this.sendTransaction(deviceId, message_type, json, priority, timeout, listener));
+    }
+
+    private void sendTransaction(@Nullable Long deviceId, @Nullable String message_type, @Nullable String json, @Nullable DeviceInfo.ESendPriority priority, long timeout, @NonNull TransactionRegistry.ITransactionListener listener)
+    {
+        ArrayList<String> data;
+        try
+        {
+            data = json != null && !json.isEmpty() ? DeviceUtils.FlattenJson(json) : new ArrayList<>();
+        }
+        catch (IOException | IllegalStateException ex)
+        {
+            Logger.Error(TAG, "Could not deserialize json data: " + ex.getMessage());
+            listener.onTransactionResult(-1, new MessageSendResult(DeviceInfo.EMessageSendResult.InvalidPayload, null), null, null);
+            return;
+        }
+
+        this.sendTransaction(deviceId, message_type, data, priority, timeout, listener);
+    }
+
+    /**
+     * sends an already flattened request to a device and waits for its response
+     * the transaction id is assigned here and added to the request as "tid"
+     *
+     * @param deviceId     unique device identifier
+     * @param message_type type of the message
+     * @param data         message lines, the list is copied before the transaction id is added
+     * @param priority     priority lane in the send queue of the device, null to use the default lane of the message type
+     * @param timeout      milliseconds to wait for the response, 0 for the default timeout
+     * @param listener     listener for the response, the timeout or the send failure
+     */
+    public void SendTransaction(@Nullable Long deviceId, @Nullable String message_type, @NonNull ArrayList<String> data, @Nullable DeviceInfo.ESendPriority priority, long timeout, @NonNull TransactionRegistry.ITransactionListener listener)
+    {
+        ArrayList<String> lines = new ArrayList<>(data);
+        this.Worker.Post(() -> this.sendTransaction(deviceId, message_type, lines, priority, timeout, listener));
+    }
+
+    private void sendTransaction(@Nullable Long deviceId, @Nullable String message_type, @NonNull ArrayList<String> data, @Nullable DeviceInfo.ESendPriority priority, long timeout, @NonNull TransactionRegistry.ITransactionListener listener)
+    {
+        final long tid = this.Transactions.Begin(deviceId != null ? deviceId : -1, timeout, listener);
+        data.add("tid=" + tid);
+        this.sendToDevice(deviceId, message_type, data, priority, timeout, result ->
+        {
+            if (!result.Success())
             {
-                Logger.Error(TAG, "Could not send empty json to device " + device);
-                if (listener != null)
-                {
-                    listener.onMessageSendResult(DeviceInfo.EMessageSendResult.NotSend, null);
-                }
-                return;
+                this.Transactions.Fail(tid, result);
             }
+        });
+    }
+
+    /**
+     * sends a batch of messages to one or more devices
+     * the messages are queued in the send queues of the devices, so devices are served in parallel
+     *
+     * @param batch    batch of messages
+     * @param priority priority lane in the send queues, null to use the default lane of each message type
+     * @param timeout  milliseconds to wait for the acknowledgement of each message, 0 for the default timeout
+     */
+    public void SendBatch(@NonNull BatchSend batch, @Nullable DeviceInfo.ESendPriority priority, long timeout)
+    {
+        this.Worker.Post(() -> this.sendBatch(batch, priority, timeout));
+    }
+
+    private void sendBatch(@NonNull BatchSend batch, @Nullable DeviceInfo.ESendPriority priority, long timeout)
+    {
+        Logger.Debug(TAG, () -> "Sending batch " + batch.Id + " with " + batch.Entries.size() + " message(s) to " + batch.DeviceIds.length + " device(s)");
 
-            device.SendJson(message_type, json, listener);
-            if (this._useGarminSimulator && message_type != null && message_type.equals("req_logs"))
+        for (int d = 0; d < batch.DeviceIds.length; d++)
+        {
+            final int device_index = d;
+            DeviceInfo device = this.getDevice(batch.DeviceIds[d]);
+            for (int i = 0; i < batch.Entries.size(); i++)
             {
-                this.debugLogResponse(device, json);
+                final int entry_index = i;
+                BatchSend.Entry entry = batch.Entries.get(i);
+                if (device == null)
+                {
+                    batch.Result(device_index, entry_index, new MessageSendResult(DeviceInfo.EMessageSendResult.DeviceNotFound, null));
+                }
+                else if (entry.Payload == null)
+                {
+                    batch.Result(device_index, entry_index, new MessageSendResult(DeviceInfo.EMessageSendResult.MessageEmpty, null));
+                }
+                else
+                {
+                    device.Send(entry.Type, entry.Payload, priority != null ? priority : SendQueue.PriorityFor(entry.Type), timeout, result -> batch.Result(device_index, entry_index, result));
+                }
             }
         }
-        else if (listener != null)
+    }
+
+    /**
+     * last published state of the registry, can be read from any thread without waiting for the event loop
+     */
+    @NonNull
+    public Snapshot Devices()
+    {
+        return this._snapshot;
+    }
+
+    /**
+     * last known devices from the device cache, for readers, that must not wait for the sdk to become ready
+     * the cached states are served as Initializing, nothing can be sent to the devices, until the sdk reported them
+     * once the sdk is ready, the live devices are emitted as DEVICES_RECONCILED
+     *
+     * @return stale snapshot, or null if the sdk is already ready or there are no cached devices
+     */
+    @Nullable
+    public Snapshot StaleDevices()
+    {
+        DeviceCache cache = this.Cache;
+        if (cache == null)
+        {
+            return null;
+        }
+        List<DeviceSnapshot> devices = cache.Load();
+        if (devices.isEmpty())
+        {
+            return null;
+        }
+        this._staleServed.set(true);
+        if (this._snapshot.SdkReady)
+        {
+            //the sdk became ready in the meantime, the caller reads the live devices instead
+            this._staleServed.set(false);
+            return null;
+        }
+        ArrayList<DeviceSnapshot> stale = new ArrayList<>(devices.size());
+        for (DeviceSnapshot device : devices)
         {
-            listener.onMessageSendResult(DeviceInfo.EMessageSendResult.DeviceNotFound, null);
+            stale.add(new DeviceSnapshot(device.Id, device.Name, DeviceInfo.DeviceState.Initializing, device.Version));
         }
+        return new Snapshot(false, true, stale);
     }
 
     /**
-     * get all known devices
+     * gets all known devices, the device list is reloaded on the event loop if it is empty or a reload is forced
      *
      * @param force_reload reload device list
+     * @return future with the state of the registry after the reload
+     */
+    @NonNull
+    public CompletableFuture<Snapshot> GetDevices(boolean force_reload)
+    {
+        return this.Worker.Submit(() ->
+        {
+            if (this.devices.isEmpty() || force_reload)
+            {
+                this.listDevices();
+            }
+            return this._snapshot;
+        });
+    }
+
+    /**
+     * get all known devices, only on the event loop
+     *
      * @return List of all known devices
      */
-    public List<DeviceInfo> getDevices(Boolean force_reload)
+    @NonNull
+    List<DeviceInfo> getDevices()
     {
-        if (this.devices.isEmpty() || force_reload)
+        List<DeviceInfo> ret = new ArrayList<>(this.devices.size());
+        for (int i = 0; i < this.devices.size(); i++)
         {
-            this.listDevices();
+            ret.add(this.devices.valueAt(i));
         }
-
-        return this.devices;
+        return ret;
     }
 
     /**
-     * gets information for a single device
+     * gets information for a single device, only on the event loop
      *
      * @param identifier unique identifier
      * @return DeviceInfo object
@@ -253,20 +694,14 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
     {
         if (this.sdkReady && identifier != null)
         {
-            for (DeviceInfo d : this.devices)
-            {
-                if (d.getDeviceIdentifier() == identifier)
-                {
-                    return d;
-                }
-            }
+            return this.devices.get(identifier);
         }
         return null;
     }
 
     public boolean UsingSimulator()
     {
-        return this._useGarminSimulator;
+        return this.Transport != null && this.Transport.isSimulator();
     }
 
     public boolean UsingDebugApp()
@@ -281,54 +716,126 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
      */
     public void notifyDeviceStateChanged(DeviceInfo device)
     {
-        this.Plugin.emitJsEvent("DEVICE", device.toJSObject());
+        this.publish();
+        this._deviceEvents.Post(device);
+    }
+
+    /**
+     * the live devices replace a stale device list, that was handed out before the sdk was ready
+     */
+    private void notifyDevicesReconciled()
+    {
+        Snapshot snapshot = this._snapshot;
+        JSObject event = snapshot.toJSObject();
+        event.put("sdk_ready", snapshot.SdkReady);
+        this.Plugin.emitJsEvent("DEVICES_RECONCILED", event);
+        Logger.Debug(TAG, () -> "Reconciled stale device list with " + snapshot.Devices.size() + " live device(s)");
+    }
+
+    /**
+     * a device is no longer known to the sdk
+     *
+     * @param identifier device identifier
+     */
+    public void notifyDeviceRemoved(long identifier)
+    {
+        JSObject event = new JSObject();
+        event.put("id", identifier);
+        this.Plugin.emitJsEvent("DEVICE_REMOVED", event);
     }
 
     /**
-     * gets all known devices
+     * reconciles the registry with the devices known to the sdk
+     * only new devices are added and vanished devices removed, existing devices keep their state and connection
      */
     private void listDevices()
     {
-        this.DisconnectAllDevices();
+        this.reconcileDevices();
+        this.publish();
+    }
 
-        if (this.sdkReady)
+    private void reconcileDevices()
+    {
+        if (!this.sdkReady || this.Transport == null)
         {
-            try
+            this.DisconnectAllDevices();
+            return;
+        }
+        this._devicesListed = false;
+
+        long start = SystemClock.elapsedRealtime();
+        List<IQDevice> known;
+        try
+        {
+            known = this.Transport.getKnownDevices();
+        }
+        catch (InvalidStateException e)
+        {
+            Logger.Error(TAG, "ConnectIQ not in valid state!");
+            this.DisconnectAllDevices();
+            return;
+        }
+        catch (ServiceUnavailableException e)
+        {
+            Logger.Error(TAG, "ConnectIQ Service unavailable!");
+            this.DisconnectAllDevices();
+            return;
+        }
+
+        LongSparseArray<IQDevice> current = new LongSparseArray<>(known != null ? known.size() : 0);
+        if (known != null)
+        {
+            for (IQDevice d : known)
+            {
+                current.put(d.getDeviceIdentifier(), d);
+            }
+        }
+
+        for (int i = this.devices.size() - 1; i >= 0; i--)
+        {
+            long identifier = this.devices.keyAt(i);
+            if (current.get(identifier) == null)
             {
-                List<IQDevice> devices = this.connectIQ.getKnownDevices();
-                for (IQDevice d : devices)
+                DeviceInfo removed = this.devices.valueAt(i);
+                this.devices.removeAt(i);
+                Logger.Debug(TAG, () -> "Device " + removed + " is no longer known, removing it");
+                removed.disconnect();
+                this.SentPayloads.InvalidateDevice(identifier);
+                this.AppInfos.Invalidate(identifier);
+                if (this.OutboxDirectory != null)
                 {
-                    DeviceInfo info = this.getDevice(d.getDeviceIdentifier());
-                    if (info == null)
-                    {
-                        info = new DeviceInfo(d, this);
-                        this.devices.add(info);
-                    }
-                    else
-                    {
-                        info.setDevice(d);
-                    }
+                    Outbox.Delete(this.OutboxDirectory, identifier);
                 }
+                this.notifyDeviceRemoved(identifier);
+                Metrics.Increment("devices.removed");
             }
-            catch (InvalidStateException e)
+        }
+
+        for (int i = 0; i < current.size(); i++)
+        {
+            IQDevice d = current.valueAt(i);
+            DeviceInfo info = this.devices.get(current.keyAt(i));
+            if (info == null)
             {
-                Logger.Error(TAG, "ConnectIQ not in valid state!");
-                this.DisconnectAllDevices();
+                this.devices.put(current.keyAt(i), new DeviceInfo(d, this));
+                Metrics.Increment("devices.added");
             }
-            catch (ServiceUnavailableException e)
+            else
             {
-                Logger.Error(TAG, "ConnectIQ Service unavailable!");
-                this.DisconnectAllDevices();
+                info.setDevice(d);
             }
         }
 
+        Metrics.Record("devices.list", SystemClock.elapsedRealtime() - start);
+        this._devicesListed = true;
+
         if (this.devices.size() == 1)
         {
             Logger.Notice(TAG, "1 device found");
         }
         else
         {
-            Logger.Notice(TAG, this.devices.size() + " device(s) found");
+            Logger.Notice(TAG, () -> this.devices.size() + " device(s) found");
         }
     }
 
@@ -339,44 +846,39 @@ public class DeviceManager implements ConnectIQ.ConnectIQListener
     {
         if (!this.devices.isEmpty())
         {
-            for (DeviceInfo device : this.devices)
+            for (int i = 0; i < this.devices.size(); i++)
             {
-                device.disconnect();
+                this.devices.valueAt(i).disconnect();
             }
             this.devices.clear();
         }
+        this._devicesListed = false;
+        this._deviceEvents.Clear();
     }
 
-    private static boolean IsDebug()
-    {
-        return DeviceManager.AppId.equals(DeviceManager.AppIdDebug);
-    }
-
-    private void debugLogResponse(@NotNull DeviceInfo device, @NotNull String json)
+    /**
+     * publishes the current state of the registry for readers on other threads
+     */
+    private void publish()
     {
-        if (device.device == null)
+        List<DeviceSnapshot> devices = new ArrayList<>(this.devices.size());
+        for (int i = 0; i < this.devices.size(); i++)
         {
-            return;
+            DeviceSnapshot device = this.devices.valueAt(i).Snapshot();
+            if (device != null)
+            {
+                devices.add(device);
+            }
         }
-        Gson gson = new GsonBuilder().setLongSerializationPolicy(LongSerializationPolicy.STRING).create();
-        Object obj = gson.fromJson(json, JsonElement.class);
-        if (obj instanceof JsonObject jsonobj)
+        this._snapshot = new Snapshot(this.sdkReady, false, devices);
+        if (this.Cache != null && this.sdkReady && this._devicesListed)
         {
-            String tid = jsonobj.has("tid") ? jsonobj.get("tid").getAsString() : null;
-            new Handler(Looper.getMainLooper()).postDelayed(() ->
-            {
-                List<Object> resp = new ArrayList<>();
-                if (tid != null)
-                {
-                    resp.add("tid=" + tid);
-                }
-                resp.add("0=Hallo");
-                resp.add("1=Welt");
-                resp.add("2=!");
-                resp.add("3=");
-                resp.add("4");
-                device.onMessageReceived(device.device, device.deviceApp, resp, ConnectIQ.IQMessageStatus.SUCCESS);
-            }, 5000);
+            this.Cache.Save(devices);
         }
     }
+
+    private static boolean IsDebug()
+    {
+        return DeviceManager.AppId.equals(DeviceManager.AppIdDebug);
+    }
 }
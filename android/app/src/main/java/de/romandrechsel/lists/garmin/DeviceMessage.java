@@ -1,17 +1,30 @@
 package de.romandrechsel.lists.garmin;
 
-import com.google.gson.Gson;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import com.getcapacitor.JSObject;
+
+import org.json.JSONObject;
 
 public class DeviceMessage
 {
+    /**
+     * size of the message in bytes (utf-8)
+     */
     public int Size = 0;
-    public Map<String, Object> Message = new HashMap<>();
+    @NonNull
+    public final JSObject Message = new JSObject();
+
+    @Nullable
+    public String Get(@NonNull String key)
+    {
+        Object val = this.Message.opt(key);
+        return val != null && val != JSONObject.NULL ? val.toString() : null;
+    }
 
     public String Json()
     {
-        return new Gson().toJson(this.Message);
+        return this.Message.toString();
     }
 }
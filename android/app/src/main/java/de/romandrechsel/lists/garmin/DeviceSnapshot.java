@@ -0,0 +1,70 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Objects;
+
+/**
+ * immutable copy of the state of a device, taken on the event loop and read from any thread
+ */
+public final class DeviceSnapshot
+{
+    public final long Id;
+    @Nullable
+    public final String Name;
+    @NonNull
+    public final DeviceInfo.DeviceState State;
+    /**
+     * version of the app on the device, 0 if unknown
+     */
+    public final int Version;
+
+    public DeviceSnapshot(long id, @Nullable String name, @NonNull DeviceInfo.DeviceState state, int version)
+    {
+        this.Id = id;
+        this.Name = name;
+        this.State = state;
+        this.Version = version;
+    }
+
+    @NonNull
+    public JSObject toJSObject()
+    {
+        JSObject ret = new JSObject();
+        ret.put("id", this.Id);
+        ret.put("name", this.Name);
+        ret.put("state", this.State.name());
+        ret.put("version", this.Version);
+        return ret;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof DeviceSnapshot other))
+        {
+            return false;
+        }
+        return this.Id == other.Id && this.State == other.State && this.Version == other.Version && Objects.equals(this.Name, other.Name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(this.Id, this.Name, this.State, this.Version);
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return this.Id + " (" + this.Name + ")";
+    }
+}
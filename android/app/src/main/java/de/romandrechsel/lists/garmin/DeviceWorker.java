@@ -0,0 +1,93 @@
+package de.romandrechsel.lists.garmin;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * event loop of the device layer, the only thread, that mutates the state of the device manager and its devices
+ * plugin methods and sdk callbacks post commands to the loop, other threads read the published snapshots
+ * a single thread keeps the order of the messages of each device without locks on the send path
+ */
+public class DeviceWorker
+{
+    @NonNull
+    private final HandlerThread _thread;
+    @NonNull
+    private final Handler _handler;
+
+    public DeviceWorker(@NonNull String name)
+    {
+        this._thread = new HandlerThread(name, Process.THREAD_PRIORITY_BACKGROUND);
+        this._thread.start();
+        this._handler = new Handler(this._thread.getLooper());
+    }
+
+    /**
+     * runs a task on the worker thread, tasks are run in the order they were posted
+     *
+     * @param task task
+     */
+    public void Post(@NonNull Runnable task)
+    {
+        this._handler.post(task);
+    }
+
+    public void PostDelayed(@NonNull Runnable task, long delay)
+    {
+        this._handler.postDelayed(task, delay);
+    }
+
+    /**
+     * runs a command on the worker thread, at once if called on the worker thread
+     *
+     * @param command command
+     * @return future with the result of the command, completes exceptionally if the command threw or the loop was quit
+     */
+    @NonNull
+    public <T> CompletableFuture<T> Submit(@NonNull Callable<T> command)
+    {
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        Runnable task = () ->
+        {
+            try
+            {
+                ret.complete(command.call());
+            }
+            catch (Exception ex)
+            {
+                ret.completeExceptionally(ex);
+            }
+        };
+        if (this.IsCurrent())
+        {
+            task.run();
+        }
+        else if (!this._handler.post(task))
+        {
+            ret.completeExceptionally(new IllegalStateException("Device worker " + this._thread.getName() + " was quit"));
+        }
+        return ret;
+    }
+
+    public boolean IsCurrent()
+    {
+        return Thread.currentThread() == this._thread;
+    }
+
+    @NonNull
+    public Handler Handler()
+    {
+        return this._handler;
+    }
+
+    public void Quit()
+    {
+        this._thread.quitSafely();
+    }
+}
@@ -0,0 +1,52 @@
+package de.romandrechsel.lists.garmin;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.garmin.android.connectiq.ConnectIQ;
+import com.garmin.android.connectiq.IQApp;
+import com.garmin.android.connectiq.IQDevice;
+import com.garmin.android.connectiq.exception.InvalidStateException;
+import com.garmin.android.connectiq.exception.ServiceUnavailableException;
+
+import java.util.List;
+
+/**
+ * link to the devices, the device manager talks to
+ * mirrors the calls of the ConnectIQ sdk, that are used, so the sdk can be replaced by a simulator
+ */
+public interface IDeviceTransport
+{
+    /**
+     * true, if the devices are not real devices (garmin simulator or local simulator)
+     */
+    boolean isSimulator();
+
+    void initialize(@NonNull Context context, @NonNull ConnectIQ.ConnectIQListener listener);
+
+    void shutdown(@NonNull Context context) throws InvalidStateException;
+
+    void unregisterAllForEvents() throws InvalidStateException;
+
+    void unregisterForEvents(@NonNull IQDevice device) throws InvalidStateException;
+
+    @Nullable
+    List<IQDevice> getKnownDevices() throws InvalidStateException, ServiceUnavailableException;
+
+    @Nullable
+    IQDevice.IQDeviceStatus getDeviceStatus(@NonNull IQDevice device) throws InvalidStateException, ServiceUnavailableException;
+
+    void registerForDeviceEvents(@NonNull IQDevice device, @NonNull ConnectIQ.IQDeviceEventListener listener) throws InvalidStateException;
+
+    void registerForAppEvents(@NonNull IQDevice device, @NonNull IQApp app, @NonNull ConnectIQ.IQApplicationEventListener listener) throws InvalidStateException;
+
+    void getApplicationInfo(@NonNull String app_id, @NonNull IQDevice device, @NonNull ConnectIQ.IQApplicationInfoListener listener) throws InvalidStateException, ServiceUnavailableException;
+
+    void openApplication(@NonNull IQDevice device, @NonNull IQApp app, @NonNull ConnectIQ.IQOpenApplicationListener listener) throws InvalidStateException, ServiceUnavailableException;
+
+    void sendMessage(@NonNull IQDevice device, @NonNull IQApp app, @NonNull Object message, @NonNull ConnectIQ.IQSendMessageListener listener) throws InvalidStateException, ServiceUnavailableException;
+
+    void openStore(@NonNull String app_id) throws InvalidStateException, ServiceUnavailableException;
+}
@@ -0,0 +1,243 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * item-level delta sync of list payloads for a single device
+ * remembers the last payload of each list, that was acknowledged by the device, and only transmits changed keys
+ */
+public class ListDeltaSync
+{
+    public static final String MessageTypeList = "list";
+    public static final String MessageTypeDelta = "listdelta";
+    public static final String MessageTypeMismatch = "delta_mismatch";
+
+    private static final String KeyUuid = "uuid";
+    private static final String KeyBase = "base";
+    private static final String KeyRevision = "drev";
+
+    private static class Base
+    {
+        @NonNull
+        final ArrayList<String> Payload;
+        @NonNull
+        final LinkedHashMap<String, String> Entries;
+        final int Revision;
+
+        Base(@NonNull ArrayList<String> payload, @NonNull LinkedHashMap<String, String> entries, int revision)
+        {
+            this.Payload = payload;
+            this.Entries = entries;
+            this.Revision = revision;
+        }
+    }
+
+    public class Prepared
+    {
+        @NonNull
+        public final String MessageType;
+        @NonNull
+        public final ArrayList<String> Data;
+
+        @NonNull
+        private final String _uuid;
+        @NonNull
+        private final Base _base;
+
+        private Prepared(@NonNull String message_type, @NonNull ArrayList<String> data, @NonNull String uuid, @NonNull Base base)
+        {
+            this.MessageType = message_type;
+            this.Data = data;
+            this._uuid = uuid;
+            this._base = base;
+        }
+
+        /**
+         * the device acknowledged the message, it becomes the new base of the list
+         */
+        public void Acknowledged()
+        {
+            synchronized (ListDeltaSync.this)
+            {
+                Base current = ListDeltaSync.this._acked.get(this._uuid);
+                if (current == null || current.Revision < this._base.Revision)
+                {
+                    ListDeltaSync.this._acked.put(this._uuid, this._base);
+                }
+            }
+        }
+
+        /**
+         * wraps a send listener, to track the acknowledgement of the message
+         *
+         * @param listener original listener
+         * @return wrapped listener
+         */
+        @NonNull
+        public DeviceInfo.IMessageSendListener Wrap(@Nullable DeviceInfo.IMessageSendListener listener)
+        {
+            return result ->
+            {
+                if (result.Success())
+                {
+                    this.Acknowledged();
+                }
+                if (listener != null)
+                {
+                    listener.onMessageSendResult(result);
+                }
+            };
+        }
+    }
+
+    private final HashMap<String, Base> _acked = new HashMap<>();
+    /**
+     * last revision sent of each list, revisions only grow, so sends queued before an ack never share a revision
+     */
+    private final HashMap<String, Integer> _sent = new HashMap<>();
+    private final HashMap<String, ArrayList<String>> _latest = new HashMap<>();
+
+    /**
+     * prepares a list payload for transmission
+     * if the device acknowledged a previous version of the list, only added, changed and removed keys are transmitted
+     *
+     * @param message_type type of the message
+     * @param data         full payload of the list
+     * @return prepared message, or null if the message is no list
+     */
+    @Nullable
+    public synchronized Prepared Prepare(@Nullable String message_type, @NonNull ArrayList<String> data)
+    {
+        if (!MessageTypeList.equals(message_type))
+        {
+            return null;
+        }
+
+        ArrayList<String> flags = new ArrayList<>();
+        LinkedHashMap<String, String> entries = ListDeltaSync.Parse(data, flags);
+        String uuid = entries.get(KeyUuid);
+        if (uuid == null || uuid.isEmpty())
+        {
+            return null;
+        }
+
+        this._latest.put(uuid, data);
+        Base acked = this._acked.get(uuid);
+        Integer sent = this._sent.get(uuid);
+        int revision = Math.max(sent != null ? sent : 0, acked != null ? acked.Revision : 0) + 1;
+        this._sent.put(uuid, revision);
+
+        ArrayList<String> full = new ArrayList<>(data);
+        full.add(KeyRevision + "=" + revision);
+        Base base = new Base(data, entries, revision);
+
+        if (acked != null)
+        {
+            ArrayList<String> delta = new ArrayList<>(flags);
+            delta.add(KeyUuid + "=" + uuid);
+            delta.add(KeyBase + "=" + acked.Revision);
+            delta.add(KeyRevision + "=" + revision);
+            for (Map.Entry<String, String> entry : entries.entrySet())
+            {
+                if (entry.getKey().equals(KeyUuid))
+                {
+                    continue;
+                }
+                String old = acked.Entries.get(entry.getKey());
+                if (old == null || !old.equals(entry.getValue()))
+                {
+                    delta.add(entry.getKey() + "=" + entry.getValue());
+                }
+            }
+            for (String key : acked.Entries.keySet())
+            {
+                if (!entries.containsKey(key))
+                {
+                    delta.add("-" + key);
+                }
+            }
+
+            if (delta.size() < full.size())
+            {
+                return new Prepared(MessageTypeDelta, delta, uuid, base);
+            }
+        }
+
+        return new Prepared(MessageTypeList, full, uuid, base);
+    }
+
+    /**
+     * the device reported, that its revision of a list does not match the base of a delta
+     *
+     * @param uuid list uuid
+     * @return latest full payload of the list, to be resent as full list, or null if unknown
+     */
+    @Nullable
+    public synchronized ArrayList<String> Mismatch(@Nullable String uuid)
+    {
+        if (uuid == null)
+        {
+            return null;
+        }
+        Base base = this._acked.remove(uuid);
+        ArrayList<String> latest = this._latest.get(uuid);
+        if (latest != null)
+        {
+            return latest;
+        }
+        return base != null ? base.Payload : null;
+    }
+
+    /**
+     * forgets the acknowledged payload of a list, the next transmission will be a full one
+     * the sent revision is kept, so a late acknowledgement of an older send can't become the base again
+     *
+     * @param uuid list uuid
+     */
+    public synchronized void Forget(@Nullable String uuid)
+    {
+        if (uuid != null)
+        {
+            this._acked.remove(uuid);
+            this._latest.remove(uuid);
+        }
+    }
+
+    public synchronized void Clear()
+    {
+        this._acked.clear();
+        this._latest.clear();
+    }
+
+    /**
+     * splits a payload in key-value entries and flags without value
+     *
+     * @param data  payload
+     * @param flags list to add the flags to
+     * @return key-value entries in payload order
+     */
+    @NonNull
+    private static LinkedHashMap<String, String> Parse(@NonNull ArrayList<String> data, @NonNull ArrayList<String> flags)
+    {
+        LinkedHashMap<String, String> ret = new LinkedHashMap<>();
+        for (String line : data)
+        {
+            int split = line.indexOf('=');
+            if (split < 0)
+            {
+                flags.add(line);
+            }
+            else
+            {
+                ret.put(line.substring(0, split), line.substring(split + 1));
+            }
+        }
+        return ret;
+    }
+}
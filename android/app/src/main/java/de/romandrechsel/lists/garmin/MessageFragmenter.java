@@ -0,0 +1,292 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.romandrechsel.lists.logging.Logger;
+import de.romandrechsel.lists.utils.DeviceUtils;
+
+/**
+ * splits messages, that exceed the byte budget of a single ConnectIQ message, in numbered fragments
+ * every fragment starts with a fixed header: frag, fid=[message id], fi=[index], fn=[count], ft=[message type], fc=[1 if the first line continues the last line of the previous fragment]
+ */
+public class MessageFragmenter
+{
+    private static final String TAG = "IQFragmenter";
+
+    public static final String MessageType = "frag";
+    public static final int HeaderSize = 6;
+    /**
+     * suggested budget, if fragmentation is enabled, it stays off by default, because older apps on the devices can't reassemble fragments
+     */
+    public static final int DefaultByteBudget = 4096;
+    public static final int MinByteBudget = 256;
+    public static final int MaxRetryRounds = 2;
+
+    private static final AtomicInteger _nextId = new AtomicInteger((int) (System.currentTimeMillis() & 0xFFFF));
+
+    /**
+     * checks, if a message must be fragmented
+     *
+     * @param message_type type of the message
+     * @param data         message payload, without message type
+     * @param budget       byte budget of a single message
+     * @return true, if the message exceeds the budget
+     */
+    public static boolean Exceeds(@Nullable String message_type, @NonNull List<String> data, int budget)
+    {
+        int size = DeviceUtils.EstimateSize(data);
+        if (message_type != null)
+        {
+            size += DeviceUtils.Utf8Length(message_type) + DeviceUtils.StringOverhead;
+        }
+        return size > budget;
+    }
+
+    /**
+     * splits a message in fragments, each of them under the byte budget
+     * lines, that exceed the budget on their own, are split and continued in the next fragment
+     *
+     * @param message_type type of the message
+     * @param data         message payload, without message type
+     * @param budget       byte budget of a single message
+     * @return fragments, including the fragment header
+     */
+    @NonNull
+    public static ArrayList<ArrayList<String>> Split(@Nullable String message_type, @NonNull List<String> data, int budget)
+    {
+        budget = Math.max(budget, MinByteBudget);
+        int id = MessageFragmenter._nextId.getAndIncrement() & 0x7FFFFFFF;
+        String type = message_type != null ? message_type : "";
+        int header = DeviceUtils.EstimateSize(List.of(MessageType, "fid=" + id, "fi=0000", "fn=0000", "ft=" + type, "fc=0"));
+        int capacity = budget - header;
+
+        ArrayList<ArrayList<String>> bodies = new ArrayList<>();
+        ArrayList<Boolean> continued = new ArrayList<>();
+        ArrayList<String> body = new ArrayList<>();
+        int used = 0;
+        bodies.add(body);
+        continued.add(false);
+
+        for (String line : data)
+        {
+            String rest = line;
+            while (true)
+            {
+                int size = DeviceUtils.Utf8Length(rest) + DeviceUtils.StringOverhead;
+                if (used + size <= capacity)
+                {
+                    body.add(rest);
+                    used += size;
+                    break;
+                }
+                else if (!body.isEmpty() && size <= capacity)
+                {
+                    //the line fits in an empty fragment
+                    body = new ArrayList<>();
+                    bodies.add(body);
+                    continued.add(false);
+                    used = 0;
+                }
+                else
+                {
+                    //the line exceeds a whole fragment, split it
+                    int cut = MessageFragmenter.cutIndex(rest, capacity - used - DeviceUtils.StringOverhead);
+                    if (cut > 0)
+                    {
+                        body.add(rest.substring(0, cut));
+                        rest = rest.substring(cut);
+                    }
+                    body = new ArrayList<>();
+                    bodies.add(body);
+                    continued.add(cut > 0);
+                    used = 0;
+                }
+            }
+        }
+
+        ArrayList<ArrayList<String>> ret = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++)
+        {
+            ArrayList<String> fragment = new ArrayList<>(HeaderSize + bodies.get(i).size());
+            fragment.add(MessageType);
+            fragment.add("fid=" + id);
+            fragment.add("fi=" + i);
+            fragment.add("fn=" + bodies.size());
+            fragment.add("ft=" + type);
+            fragment.add(continued.get(i) ? "fc=1" : "fc=0");
+            fragment.addAll(bodies.get(i));
+            ret.add(fragment);
+        }
+        return ret;
+    }
+
+    /**
+     * index to cut a string, so that the first part fits in the given number of utf-8 bytes
+     *
+     * @param str   string to cut
+     * @param bytes maximum size of the first part
+     * @return index to cut at, 0 if nothing fits
+     */
+    private static int cutIndex(@NonNull String str, int bytes)
+    {
+        int len = 0;
+        int i = 0;
+        while (i < str.length())
+        {
+            char c = str.charAt(i);
+            int char_len = 1;
+            int size;
+            if (c < 0x80)
+            {
+                size = 1;
+            }
+            else if (c < 0x800)
+            {
+                size = 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < str.length())
+            {
+                size = 4;
+                char_len = 2;
+            }
+            else
+            {
+                size = 3;
+            }
+            if (len + size > bytes)
+            {
+                break;
+            }
+            len += size;
+            i += char_len;
+        }
+        return i;
+    }
+
+    /**
+     * transmission of a fragmented message
+     * all fragments are queued back to back, fragments, that were not acknowledged, are retried
+     */
+    public static class Transfer
+    {
+        @NonNull
+        private final SendQueue _queue;
+        @NonNull
+        private final ArrayList<ArrayList<String>> _fragments;
+        @NonNull
+        private final DeviceInfo.ESendPriority _priority;
+        private final long _timeout;
+        @Nullable
+        private final DeviceInfo.IMessageSendListener _listener;
+
+        private final boolean[] _acked;
+        private int _pending = 0;
+        private int _round = 0;
+        @Nullable
+        private MessageSendResult _first = null;
+        @Nullable
+        private MessageSendResult _failed = null;
+
+        public Transfer(@NonNull SendQueue queue, @NonNull ArrayList<ArrayList<String>> fragments, @NonNull DeviceInfo.ESendPriority priority, long timeout, @Nullable DeviceInfo.IMessageSendListener listener)
+        {
+            this._queue = queue;
+            this._fragments = fragments;
+            this._priority = priority;
+            this._timeout = timeout;
+            this._listener = listener;
+            this._acked = new boolean[fragments.size()];
+        }
+
+        public void Start()
+        {
+            ArrayList<Integer> all = new ArrayList<>(this._fragments.size());
+            for (int i = 0; i < this._fragments.size(); i++)
+            {
+                all.add(i);
+            }
+            this.send(all);
+        }
+
+        private void send(@NonNull ArrayList<Integer> indices)
+        {
+            synchronized (this)
+            {
+                this._pending = indices.size();
+                this._failed = null;
+            }
+            for (int index : indices)
+            {
+                this._queue.Enqueue(new SendQueue.Entry(this._fragments.get(index), MessageType, this._priority, this._timeout, result -> this.fragmentResult(index, result)));
+            }
+        }
+
+        private void fragmentResult(int index, @NonNull MessageSendResult result)
+        {
+            ArrayList<Integer> missing = new ArrayList<>();
+            MessageSendResult report = null;
+            synchronized (this)
+            {
+                if (this._first == null)
+                {
+                    this._first = result;
+                }
+                if (result.Success())
+                {
+                    this._acked[index] = true;
+                }
+                else
+                {
+                    this._failed = result;
+                }
+
+                if (--this._pending > 0)
+                {
+                    return;
+                }
+
+                for (int i = 0; i < this._acked.length; i++)
+                {
+                    if (!this._acked[i])
+                    {
+                        missing.add(i);
+                    }
+                }
+
+                if (missing.isEmpty())
+                {
+                    report = new MessageSendResult(DeviceInfo.EMessageSendResult.Success, result.IQStatus);
+                }
+                else if (this._round >= MaxRetryRounds || this._failed == null || this._failed.Result == DeviceInfo.EMessageSendResult.NotSend)
+                {
+                    report = new MessageSendResult(this._failed != null ? this._failed.Result : DeviceInfo.EMessageSendResult.Failed, this._failed != null ? this._failed.IQStatus : null);
+                }
+                else
+                {
+                    this._round++;
+                }
+            }
+
+            if (report != null)
+            {
+                report.QueueDepth = this._first.QueueDepth;
+                report.WaitTime = this._first.WaitTime;
+                report.Fragments = this._fragments.size();
+                report.FragmentsMissing = missing.size();
+                if (this._listener != null)
+                {
+                    this._listener.onMessageSendResult(report);
+                }
+            }
+            else
+            {
+                Logger.Debug(TAG, () -> "Retrying " + missing.size() + " of " + this._fragments.size() + " fragment(s), round " + this._round);
+                this.send(missing);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package de.romandrechsel.lists.garmin;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import de.romandrechsel.lists.logging.Logger;
+
+/**
+ * reassembles inbound messages of a single device, that were split by the sender in fragments (see MessageFragmenter)
+ */
+public class MessageReassembler
+{
+    private static final String TAG = "IQReassembler";
+
+    /**
+     * incomplete messages are dropped, if no fragment was received for this time
+     */
+    public static final long StaleAfter = 60 * 1000;
+
+    private static class Partial
+    {
+        final String Type;
+        final Object[][] Bodies;
+        final boolean[] Continued;
+        int Received = 0;
+        long LastReceived = SystemClock.elapsedRealtime();
+
+        Partial(String type, int count)
+        {
+            this.Type = type;
+            this.Bodies = new Object[count][];
+            this.Continued = new boolean[count];
+        }
+    }
+
+    private final HashMap<Integer, Partial> _partials = new HashMap<>();
+
+    /**
+     * checks, if an inbound payload is a fragment
+     *
+     * @param payload inbound payload
+     * @return true, if the payload is a fragment
+     */
+    public static boolean IsFragment(@Nullable Object payload)
+    {
+        return payload instanceof List<?> list && list.size() >= MessageFragmenter.HeaderSize && MessageFragmenter.MessageType.equals(String.valueOf(list.get(0)));
+    }
+
+    /**
+     * adds a fragment
+     *
+     * @param payload fragment payload, including the header
+     * @return the complete message, if this was the last missing fragment, else null
+     */
+    @Nullable
+    public synchronized ArrayList<Object> Add(@NonNull List<?> payload)
+    {
+        this.evictStale();
+
+        Integer id = null;
+        int index = -1;
+        int count = -1;
+        String type = "";
+        boolean continued = false;
+        for (int i = 1; i < MessageFragmenter.HeaderSize; i++)
+        {
+            String line = String.valueOf(payload.get(i));
+            int split = line.indexOf('=');
+            if (split < 0)
+            {
+                continue;
+            }
+            String key = line.substring(0, split);
+            String val = line.substring(split + 1);
+            try
+            {
+                switch (key)
+                {
+                    case "fid" -> id = Integer.parseInt(val);
+                    case "fi" -> index = Integer.parseInt(val);
+                    case "fn" -> count = Integer.parseInt(val);
+                    case "ft" -> type = val;
+                    case "fc" -> continued = val.equals("1");
+                }
+            }
+            catch (NumberFormatException ignored)
+            {
+            }
+        }
+
+        if (id == null || count <= 0 || index < 0 || index >= count)
+        {
+            Logger.Error(TAG, "Received invalid fragment header");
+            return null;
+        }
+
+        Partial partial = this._partials.get(id);
+        if (partial == null || partial.Bodies.length != count)
+        {
+            partial = new Partial(type, count);
+            this._partials.put(id, partial);
+        }
+
+        if (partial.Bodies[index] == null)
+        {
+            partial.Bodies[index] = payload.subList(MessageFragmenter.HeaderSize, payload.size()).toArray();
+            partial.Continued[index] = continued;
+            partial.Received++;
+        }
+        partial.LastReceived = SystemClock.elapsedRealtime();
+
+        if (partial.Received < count)
+        {
+            return null;
+        }
+
+        this._partials.remove(id);
+        ArrayList<Object> ret = new ArrayList<>();
+        if (!partial.Type.isEmpty())
+        {
+            ret.add(partial.Type);
+        }
+        for (int i = 0; i < count; i++)
+        {
+            Object[] body = partial.Bodies[i];
+            for (int j = 0; j < body.length; j++)
+            {
+                if (j == 0 && partial.Continued[i] && !ret.isEmpty())
+                {
+                    ret.set(ret.size() - 1, String.valueOf(ret.get(ret.size() - 1)) + body[j]);
+                }
+                else
+                {
+                    ret.add(body[j]);
+                }
+            }
+        }
+        return ret;
+    }
+
+    public synchronized void Clear()
+    {
+        this._partials.clear();
+    }
+
+    private void evictStale()
+    {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Map.Entry<Integer, Partial>> it = this._partials.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<Integer, Partial> entry = it.next();
+            if (now - entry.getValue().LastReceived > StaleAfter)
+            {
+                Logger.Error(TAG, "Dropped incomplete message " + entry.getKey() + " with " + entry.getValue().Received + " of " + entry.getValue().Bodies.length + " fragment(s)");
+                it.remove();
+            }
+        }
+    }
+}
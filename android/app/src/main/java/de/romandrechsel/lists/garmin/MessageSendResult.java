@@ -0,0 +1,79 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.garmin.android.connectiq.ConnectIQ;
+import com.getcapacitor.JSObject;
+
+public class MessageSendResult
+{
+    @NonNull
+    public final DeviceInfo.EMessageSendResult Result;
+    @Nullable
+    public final ConnectIQ.IQMessageStatus IQStatus;
+
+    /**
+     * number of messages queued for the device (including in-flight ones) when this message was enqueued
+     */
+    public int QueueDepth = 0;
+    /**
+     * milliseconds the message waited in the send queue before it was handed to the sdk
+     */
+    public long WaitTime = 0;
+    /**
+     * number of fragments, if the message was too large for a single message
+     */
+    public int Fragments = 0;
+    /**
+     * number of fragments, that were not acknowledged after all retries
+     */
+    public int FragmentsMissing = 0;
+    /**
+     * number of transmissions of the message, more than 1 if transient failures were retried
+     */
+    public int Attempts = 0;
+    /**
+     * state of the circuit breaker of the device after the transmission
+     */
+    @Nullable
+    public CircuitBreaker.EState Breaker = null;
+
+    public MessageSendResult(@NonNull DeviceInfo.EMessageSendResult result, @Nullable ConnectIQ.IQMessageStatus iq_status)
+    {
+        this.Result = result;
+        this.IQStatus = iq_status;
+    }
+
+    public boolean Success()
+    {
+        return this.Result == DeviceInfo.EMessageSendResult.Success || this.Result == DeviceInfo.EMessageSendResult.Unchanged || this.Result == DeviceInfo.EMessageSendResult.Queued;
+    }
+
+    public JSObject toJSObject()
+    {
+        JSObject ret = new JSObject();
+        ret.put("success", this.Success());
+        ret.put("result", this.Result.name());
+        if (this.IQStatus != null)
+        {
+            ret.put("iq_status", this.IQStatus.name());
+        }
+        ret.put("queue_depth", this.QueueDepth);
+        ret.put("wait_ms", this.WaitTime);
+        if (this.Attempts > 0)
+        {
+            ret.put("attempts", this.Attempts);
+        }
+        if (this.Breaker != null)
+        {
+            ret.put("breaker", this.Breaker.name());
+        }
+        if (this.Fragments > 0)
+        {
+            ret.put("fragments", this.Fragments);
+            ret.put("fragments_missing", this.FragmentsMissing);
+        }
+        return ret;
+    }
+}
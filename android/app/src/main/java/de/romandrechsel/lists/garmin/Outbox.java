@@ -0,0 +1,457 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+import de.romandrechsel.lists.logging.Logger;
+import de.romandrechsel.lists.utils.DeviceUtils;
+
+/**
+ * file backed, append-only outbox of a single device
+ * holds the list transfers to a device, that is not ready, until it becomes ready again
+ * a newer transfer (or the deletion) of a list supersedes the older ones, so only the latest version is transmitted
+ * <p>
+ * record: length (4), crc32 (4), operation (1), sequence (8), for added messages: type (utf), priority (1), line count (4), lines (length (4) + utf-8)
+ * a torn record at the end of the file (process died while writing) is dropped on open
+ */
+public class Outbox
+{
+    private static final String TAG = "IQOutbox";
+
+    public static final String DirectoryName = "outbox";
+
+    private static final byte OpAdd = 1;
+    private static final byte OpRemove = 2;
+    private static final int MaxRecordLength = 16 * 1024 * 1024;
+    /**
+     * the file is rewritten, as soon as it holds this many superseded or removed records more than live ones
+     */
+    private static final int CompactThreshold = 32;
+
+    public static class Entry
+    {
+        public final long Seq;
+        @Nullable
+        public final String MessageType;
+        @NonNull
+        public final ArrayList<String> Data;
+        @NonNull
+        public final DeviceInfo.ESendPriority Priority;
+        @Nullable
+        final String Key;
+
+        Entry(long seq, @Nullable String message_type, @NonNull ArrayList<String> data, @NonNull DeviceInfo.ESendPriority priority)
+        {
+            this.Seq = seq;
+            this.MessageType = message_type;
+            this.Data = data;
+            this.Priority = priority;
+            this.Key = Outbox.KeyOf(message_type, data);
+        }
+    }
+
+    @NonNull
+    private final File _file;
+    private final LinkedHashMap<Long, Entry> _live = new LinkedHashMap<>();
+    private final HashMap<String, Long> _keys = new HashMap<>();
+    private final HashSet<Long> _inFlight = new HashSet<>();
+    private long _nextSeq = 1;
+    private int _dead = 0;
+    @Nullable
+    private DataOutputStream _out = null;
+
+    private Outbox(@NonNull File file)
+    {
+        this._file = file;
+    }
+
+    /**
+     * checks, if messages of a type are kept for a device, that is not ready
+     * live requests (e.g. for the watch logs) make no sense after a reconnect and are not kept
+     *
+     * @param message_type type of the message
+     * @return true, if the message is kept
+     */
+    public static boolean Persistable(@Nullable String message_type)
+    {
+        return ListDeltaSync.MessageTypeList.equals(message_type) || "dellist".equals(message_type);
+    }
+
+    /**
+     * opens the outbox of a device and replays its file
+     *
+     * @param directory directory of the outboxes
+     * @param device_id device identifier
+     * @return outbox, or null if the file could not be opened
+     */
+    @Nullable
+    public static Outbox Open(@NonNull File directory, long device_id)
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            Logger.Error(TAG, "Could not create outbox directory " + directory);
+            return null;
+        }
+        Outbox outbox = new Outbox(Outbox.FileOf(directory, device_id));
+        try
+        {
+            outbox.replay();
+            if (outbox._dead > outbox._live.size() + CompactThreshold)
+            {
+                outbox.compact();
+            }
+            else
+            {
+                outbox.openAppend();
+            }
+            return outbox;
+        }
+        catch (IOException ex)
+        {
+            Logger.Error(TAG, "Could not open outbox of device " + device_id + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * deletes the outbox of a device, that is no longer known
+     *
+     * @param directory directory of the outboxes
+     * @param device_id device identifier
+     */
+    public static void Delete(@NonNull File directory, long device_id)
+    {
+        File file = Outbox.FileOf(directory, device_id);
+        if (file.exists() && !file.delete())
+        {
+            Logger.Error(TAG, "Could not delete outbox " + file);
+        }
+    }
+
+    /**
+     * appends a message, older messages for the same list are superseded
+     *
+     * @param message_type type of the message
+     * @param data         message lines without the type
+     * @param priority     priority lane of the message
+     * @return true, if the message was persisted
+     */
+    public synchronized boolean Add(@Nullable String message_type, @NonNull ArrayList<String> data, @NonNull DeviceInfo.ESendPriority priority)
+    {
+        Entry entry = new Entry(this._nextSeq, message_type, new ArrayList<>(data), priority);
+        try
+        {
+            this.write(this.encode(OpAdd, entry));
+        }
+        catch (IOException ex)
+        {
+            Logger.Error(TAG, "Could not persist message in outbox " + this._file + ": " + ex.getMessage());
+            return false;
+        }
+        this._nextSeq++;
+        this.apply(entry);
+        this.compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * gets the messages to transmit, in the order they were added
+     * the messages are marked as in flight, until Done is called for them
+     *
+     * @return messages, that are not in flight
+     */
+    @NonNull
+    public synchronized ArrayList<Entry> Take()
+    {
+        ArrayList<Entry> ret = new ArrayList<>();
+        for (Entry entry : this._live.values())
+        {
+            if (this._inFlight.add(entry.Seq))
+            {
+                ret.add(entry);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * a message was transmitted or failed
+     *
+     * @param seq     sequence number of the message
+     * @param success true, if the device received the message, it is removed from the outbox
+     */
+    public synchronized void Done(long seq, boolean success)
+    {
+        this._inFlight.remove(seq);
+        if (!success || !this._live.containsKey(seq))
+        {
+            return;
+        }
+        try
+        {
+            this.write(this.encode(OpRemove, seq));
+        }
+        catch (IOException ex)
+        {
+            Logger.Error(TAG, "Could not remove message from outbox " + this._file + ": " + ex.getMessage());
+        }
+        this.remove(seq);
+        this.compactIfNeeded();
+    }
+
+    public synchronized int Size()
+    {
+        return this._live.size();
+    }
+
+    public synchronized void Close()
+    {
+        if (this._out != null)
+        {
+            try
+            {
+                this._out.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+            this._out = null;
+        }
+    }
+
+    @NonNull
+    private static File FileOf(@NonNull File directory, long device_id)
+    {
+        return new File(directory, device_id + ".outbox");
+    }
+
+    @Nullable
+    private static String KeyOf(@Nullable String message_type, @NonNull ArrayList<String> data)
+    {
+        if (ListDeltaSync.MessageTypeList.equals(message_type))
+        {
+            String uuid = DeviceUtils.GetValue(data, "uuid");
+            return uuid != null ? "list:" + uuid : null;
+        }
+        else if ("dellist".equals(message_type) && !data.isEmpty())
+        {
+            return "list:" + data.get(0);
+        }
+        return null;
+    }
+
+    private void apply(@NonNull Entry entry)
+    {
+        if (entry.Key != null)
+        {
+            Long superseded = this._keys.put(entry.Key, entry.Seq);
+            if (superseded != null && this._live.remove(superseded) != null)
+            {
+                this._dead++;
+            }
+        }
+        this._live.put(entry.Seq, entry);
+    }
+
+    private void remove(long seq)
+    {
+        Entry entry = this._live.remove(seq);
+        if (entry != null)
+        {
+            if (entry.Key != null)
+            {
+                this._keys.remove(entry.Key, seq);
+            }
+            this._dead += 2;
+        }
+    }
+
+    private void replay() throws IOException
+    {
+        if (!this._file.exists())
+        {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(this._file, "rw"))
+        {
+            long length = raf.length();
+            long position = 0;
+            CRC32 crc = new CRC32();
+            while (position + 8 <= length)
+            {
+                raf.seek(position);
+                int len = raf.readInt();
+                int checksum = raf.readInt();
+                if (len <= 0 || len > MaxRecordLength || position + 8 + len > length)
+                {
+                    break;
+                }
+                byte[] body = new byte[len];
+                raf.readFully(body);
+                crc.reset();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum || !this.decode(body))
+                {
+                    break;
+                }
+                position += 8 + len;
+            }
+            if (position < length)
+            {
+                Logger.Notice(TAG, "Dropping " + (length - position) + " byte(s) of a torn record in outbox " + this._file);
+                raf.setLength(position);
+            }
+        }
+    }
+
+    private boolean decode(@NonNull byte[] body)
+    {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body)))
+        {
+            byte op = in.readByte();
+            long seq = in.readLong();
+            this._nextSeq = Math.max(this._nextSeq, seq + 1);
+            if (op == OpRemove)
+            {
+                this.remove(seq);
+                return true;
+            }
+            else if (op != OpAdd)
+            {
+                return false;
+            }
+            String type = in.readUTF();
+            int priority = in.readByte();
+            int count = in.readInt();
+            ArrayList<String> data = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+            {
+                byte[] line = new byte[in.readInt()];
+                in.readFully(line);
+                data.add(new String(line, StandardCharsets.UTF_8));
+            }
+            DeviceInfo.ESendPriority[] priorities = DeviceInfo.ESendPriority.values();
+            this.apply(new Entry(seq, type.isEmpty() ? null : type, data, priorities[Math.max(0, Math.min(priorities.length - 1, priority))]));
+            return true;
+        }
+        catch (IOException ex)
+        {
+            return false;
+        }
+    }
+
+    @NonNull
+    private byte[] encode(byte op, long seq) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeLong(seq);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @NonNull
+    private byte[] encode(byte op, @NonNull Entry entry) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeLong(entry.Seq);
+        out.writeUTF(entry.MessageType != null ? entry.MessageType : "");
+        out.writeByte(entry.Priority.ordinal());
+        out.writeInt(entry.Data.size());
+        for (String line : entry.Data)
+        {
+            byte[] utf8 = (line != null ? line : "").getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void write(@NonNull byte[] body) throws IOException
+    {
+        if (this._out == null)
+        {
+            this.openAppend();
+        }
+        Outbox.writeRecord(this._out, body);
+        //flushed to the os with every record, so it survives the death of the process
+        this._out.flush();
+    }
+
+    private static void writeRecord(@NonNull DataOutputStream out, @NonNull byte[] body) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        out.writeInt(body.length);
+        out.writeInt((int) crc.getValue());
+        out.write(body);
+    }
+
+    private void openAppend() throws IOException
+    {
+        this._out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this._file, true)));
+    }
+
+    private void compactIfNeeded()
+    {
+        if (this._dead > this._live.size() + CompactThreshold)
+        {
+            try
+            {
+                this.compact();
+            }
+            catch (IOException ex)
+            {
+                Logger.Error(TAG, "Could not compact outbox " + this._file + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * rewrites the file with the live messages only
+     */
+    private void compact() throws IOException
+    {
+        this.Close();
+        File tmp = new File(this._file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp, false))))
+        {
+            for (Entry entry : this._live.values())
+            {
+                Outbox.writeRecord(out, this.encode(OpAdd, entry));
+            }
+            //keep the sequence numbers increasing, even if all messages were removed
+            if (this._live.isEmpty() && this._nextSeq > 1)
+            {
+                Outbox.writeRecord(out, this.encode(OpRemove, this._nextSeq - 1));
+            }
+            out.flush();
+        }
+        if (!tmp.renameTo(this._file))
+        {
+            throw new IOException("could not replace " + this._file);
+        }
+        this._dead = 0;
+        this.openAppend();
+    }
+}
@@ -0,0 +1,173 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * lru cache of the payload hashes, that were acknowledged by the devices, keyed by device identifier and list uuid
+ */
+public class PayloadCache
+{
+    public static final int DefaultCapacity = 256;
+
+    private static final long FnvOffset = 0xcbf29ce484222325L;
+    private static final long FnvPrime = 0x100000001b3L;
+
+    private static class Key
+    {
+        final long DeviceId;
+        @NonNull
+        final String Uuid;
+
+        Key(long device_id, @NonNull String uuid)
+        {
+            this.DeviceId = device_id;
+            this.Uuid = uuid;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof Key other && other.DeviceId == this.DeviceId && other.Uuid.equals(this.Uuid);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode(this.DeviceId) * 31 + this.Uuid.hashCode();
+        }
+    }
+
+    private final LinkedHashMap<Key, Long> _hashes;
+    private final HashMap<Long, Integer> _appVersions = new HashMap<>();
+
+    public PayloadCache(int capacity)
+    {
+        this._hashes = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest)
+            {
+                return this.size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * checks, if a payload was already acknowledged by the device
+     *
+     * @param device_id device identifier
+     * @param uuid      list uuid
+     * @param hash      payload hash
+     * @return true, if the device acknowledged the same payload for the list
+     */
+    public synchronized boolean IsUnchanged(long device_id, @NonNull String uuid, long hash)
+    {
+        Long cached = this._hashes.get(new Key(device_id, uuid));
+        return cached != null && cached == hash;
+    }
+
+    /**
+     * stores the hash of a payload, that was acknowledged by the device
+     *
+     * @param device_id device identifier
+     * @param uuid      list uuid
+     * @param hash      payload hash
+     */
+    public synchronized void Acknowledged(long device_id, @NonNull String uuid, long hash)
+    {
+        this._hashes.put(new Key(device_id, uuid), hash);
+    }
+
+    public synchronized void Invalidate(long device_id, @Nullable String uuid)
+    {
+        if (uuid != null)
+        {
+            this._hashes.remove(new Key(device_id, uuid));
+        }
+    }
+
+    /**
+     * removes all payloads of a device
+     *
+     * @param device_id device identifier
+     */
+    public synchronized void InvalidateDevice(long device_id)
+    {
+        Iterator<Key> it = this._hashes.keySet().iterator();
+        while (it.hasNext())
+        {
+            if (it.next().DeviceId == device_id)
+            {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * the device reported the version of the app, payloads of other app versions are removed
+     *
+     * @param device_id device identifier
+     * @param version   app version on the device
+     */
+    public synchronized void AppVersion(long device_id, int version)
+    {
+        Integer old = this._appVersions.put(device_id, version);
+        if (old != null && old != version)
+        {
+            this.InvalidateDevice(device_id);
+        }
+    }
+
+    public synchronized void Clear()
+    {
+        this._hashes.clear();
+        this._appVersions.clear();
+    }
+
+    /**
+     * 64 bit fnv-1a hash of a message, lines without value (flags) are ignored
+     *
+     * @param message_type type of the message
+     * @param data         payload
+     * @return hash
+     */
+    public static long Hash(@Nullable String message_type, @NonNull List<String> data)
+    {
+        long hash = FnvOffset;
+        if (message_type != null)
+        {
+            hash = PayloadCache.hash(hash, message_type);
+        }
+        for (String line : data)
+        {
+            if (line.indexOf('=') >= 0)
+            {
+                hash = PayloadCache.hash(hash, line);
+            }
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, @NonNull String str)
+    {
+        for (int i = 0; i < str.length(); i++)
+        {
+            char c = str.charAt(i);
+            hash ^= c & 0xFF;
+            hash *= FnvPrime;
+            hash ^= c >>> 8;
+            hash *= FnvPrime;
+        }
+        //line separator
+        hash ^= 0x0A;
+        hash *= FnvPrime;
+        return hash;
+    }
+}
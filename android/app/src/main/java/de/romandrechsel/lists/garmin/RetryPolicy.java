@@ -0,0 +1,81 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.Nullable;
+
+import com.garmin.android.connectiq.ConnectIQ;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * bounded exponential backoff with jitter for sends, that failed with a transient sdk status
+ */
+public class RetryPolicy
+{
+    public static final int DefaultMaxAttempts = 3;
+    public static final long DefaultBaseDelay = 250;
+    public static final long DefaultMaxDelay = 4000;
+
+    /**
+     * maximum number of transmissions of a message, including the first one
+     */
+    public final int MaxAttempts;
+    /**
+     * delay in milliseconds before the first retry, doubled for every further retry
+     */
+    public final long BaseDelay;
+    /**
+     * upper bound of the delay in milliseconds
+     */
+    public final long MaxDelay;
+
+    public RetryPolicy(int max_attempts, long base_delay, long max_delay)
+    {
+        this.MaxAttempts = Math.max(1, max_attempts);
+        this.BaseDelay = Math.max(0, base_delay);
+        this.MaxDelay = Math.max(this.BaseDelay, max_delay);
+    }
+
+    public RetryPolicy()
+    {
+        this(DefaultMaxAttempts, DefaultBaseDelay, DefaultMaxDelay);
+    }
+
+    /**
+     * checks, if a failed transmission is worth another attempt
+     * failures, that will fail again with the same payload or device (too large, invalid format, not connected), are not retried
+     *
+     * @param status status reported by the sdk
+     * @return true, if the status is transient
+     */
+    public static boolean IsTransient(@Nullable ConnectIQ.IQMessageStatus status)
+    {
+        return status == ConnectIQ.IQMessageStatus.FAILURE_DURING_TRANSFER || status == ConnectIQ.IQMessageStatus.FAILURE_UNKNOWN;
+    }
+
+    /**
+     * checks, if a message should be sent again
+     *
+     * @param attempts number of transmissions so far
+     * @param status   status of the last transmission
+     * @return true, if the message should be sent again
+     */
+    public boolean ShouldRetry(int attempts, @Nullable ConnectIQ.IQMessageStatus status)
+    {
+        return attempts < this.MaxAttempts && RetryPolicy.IsTransient(status);
+    }
+
+    /**
+     * gets the delay before the next attempt, the upper half of the delay is randomized,
+     * so that several devices failing at once don't retry in lockstep
+     *
+     * @param attempts number of transmissions so far
+     * @return delay in milliseconds
+     */
+    public long Delay(int attempts)
+    {
+        int shift = Math.min(30, Math.max(0, attempts - 1));
+        long delay = Math.min(this.MaxDelay, this.BaseDelay << shift);
+        long half = delay / 2;
+        return half + (half > 0 ? ThreadLocalRandom.current().nextLong(half + 1) : 0);
+    }
+}
@@ -0,0 +1,375 @@
+package de.romandrechsel.lists.garmin;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * outbound message queue of a single device
+ * messages are handed to the sdk by priority lane, with a bounded number of messages in flight
+ * every hand-off to the transmitter has a deadline, so a lost acknowledgement can't hold a slot forever
+ */
+public class SendQueue
+{
+    public interface ITransmitter
+    {
+        /**
+         * transmits a message, Completed has to be called, once it is acknowledged or failed
+         *
+         * @param entry message
+         */
+        void transmit(@NonNull Entry entry);
+
+        /**
+         * the message was not acknowledged within its timeout, called on the thread of the handler of the queue
+         * Completed has to be called, like for any other result
+         *
+         * @param entry message
+         */
+        void timedOut(@NonNull Entry entry);
+    }
+
+    public static class Entry
+    {
+        @NonNull
+        public final ArrayList<String> Data;
+        /**
+         * type of the message, line 0 of Data
+         */
+        @Nullable
+        public final String MessageType;
+        @NonNull
+        public final DeviceInfo.ESendPriority Priority;
+        @Nullable
+        public final DeviceInfo.IMessageSendListener Listener;
+        /**
+         * milliseconds to wait for the acknowledgement of the sdk
+         */
+        public final long Timeout;
+
+        private final long _enqueued = SystemClock.elapsedRealtime();
+        private long _started = 0;
+        private int _queueDepth = 0;
+        private boolean _completed = false;
+        private boolean _cancelled = false;
+        private int _attempts = 0;
+        @Nullable
+        private TimeoutWheel.Timeout _deadline = null;
+
+        public Entry(@NonNull ArrayList<String> data, @Nullable String message_type, @NonNull DeviceInfo.ESendPriority priority, long timeout, @Nullable DeviceInfo.IMessageSendListener listener)
+        {
+            this.Data = data;
+            this.MessageType = message_type;
+            this.Priority = priority;
+            this.Timeout = timeout > 0 ? timeout : DefaultTimeout;
+            this.Listener = listener;
+        }
+
+        /**
+         * starts tracking the deadline of a transmission of the entry on the shared timing wheel
+         * the wheel thread only marks the entry as completed, the timeout is handled on the thread of the handler
+         *
+         * @param handler    handler of the thread, that owns the entry
+         * @param on_timeout posted to the handler, if the entry was not completed in time
+         */
+        private void startDeadline(@NonNull Handler handler, @NonNull Runnable on_timeout)
+        {
+            synchronized (this)
+            {
+                this._completed = false;
+            }
+            TimeoutWheel.Timeout deadline = TimeoutWheel.Shared().Schedule(this.Timeout, () ->
+            {
+                if (this.TryComplete())
+                {
+                    handler.post(on_timeout);
+                }
+            });
+            synchronized (this)
+            {
+                if (this._completed)
+                {
+                    deadline.Cancel();
+                }
+                else
+                {
+                    this._deadline = deadline;
+                }
+            }
+        }
+
+        /**
+         * marks the entry as completed, only the first caller (acknowledgement, failure or timeout) wins
+         *
+         * @return true, if the entry was not completed before
+         */
+        public boolean TryComplete()
+        {
+            TimeoutWheel.Timeout deadline;
+            synchronized (this)
+            {
+                if (this._completed)
+                {
+                    return false;
+                }
+                this._completed = true;
+                deadline = this._deadline;
+                this._deadline = null;
+            }
+            if (deadline != null)
+            {
+                deadline.Cancel();
+            }
+            return true;
+        }
+
+        /**
+         * counts a transmission of the entry
+         *
+         * @return number of transmissions including this one
+         */
+        public synchronized int Attempt()
+        {
+            return ++this._attempts;
+        }
+
+        public synchronized int Attempts()
+        {
+            return this._attempts;
+        }
+
+        /**
+         * true, if the entry was removed from the queue while it was in flight
+         * late acknowledgements and retries of a cancelled entry are ignored
+         */
+        public synchronized boolean Cancelled()
+        {
+            return this._cancelled;
+        }
+
+        private void cancel()
+        {
+            this.TryComplete();
+            synchronized (this)
+            {
+                this._cancelled = true;
+            }
+        }
+
+        /**
+         * milliseconds since the entry was enqueued
+         */
+        public long Elapsed()
+        {
+            return SystemClock.elapsedRealtime() - this._enqueued;
+        }
+
+        /**
+         * adds the queue statistics of this entry to the result
+         *
+         * @param result result of the transmission
+         * @return the result
+         */
+        @NonNull
+        public MessageSendResult Stats(@NonNull MessageSendResult result)
+        {
+            result.QueueDepth = this._queueDepth;
+            result.WaitTime = this._started > 0 ? this._started - this._enqueued : SystemClock.elapsedRealtime() - this._enqueued;
+            result.Attempts = this.Attempts();
+            return result;
+        }
+    }
+
+    public static final int DefaultMaxInFlight = 1;
+    /**
+     * default milliseconds to wait for the acknowledgement of a message
+     */
+    public static final long DefaultTimeout = 30 * 1000;
+
+    private final ArrayDeque<Entry>[] _lanes;
+    private final int _maxInFlight;
+    /**
+     * entries handed to the transmitter, until they are completed
+     */
+    private final ArrayList<Entry> _inFlight = new ArrayList<>();
+
+    @NonNull
+    private final ITransmitter _transmitter;
+    @NonNull
+    private final Handler _handler;
+
+    /**
+     * @param transmitter   transmitter of the messages
+     * @param handler       handler of the thread, that owns the queue, timeouts and retries run on it
+     * @param max_in_flight maximum number of messages, that are transmitted at the same time
+     */
+    @SuppressWarnings("unchecked")
+    public SendQueue(@NonNull ITransmitter transmitter, @NonNull Handler handler, int max_in_flight)
+    {
+        this._transmitter = transmitter;
+        this._handler = handler;
+        this._maxInFlight = Math.max(1, max_in_flight);
+        DeviceInfo.ESendPriority[] priorities = DeviceInfo.ESendPriority.values();
+        this._lanes = new ArrayDeque[priorities.length];
+        for (int i = 0; i < priorities.length; i++)
+        {
+            this._lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * adds a message to the queue and starts transmitting, if there is a free slot
+     *
+     * @param entry message to send
+     */
+    public void Enqueue(@NonNull Entry entry)
+    {
+        synchronized (this)
+        {
+            entry._queueDepth = this.size() + this._inFlight.size();
+            this._lanes[entry.Priority.ordinal()].add(entry);
+        }
+        this.pump();
+    }
+
+    /**
+     * a message in flight was acknowledged or failed, the next one can be sent
+     *
+     * @param entry the message
+     */
+    public void Completed(@NonNull Entry entry)
+    {
+        synchronized (this)
+        {
+            if (!this._inFlight.remove(entry))
+            {
+                //cancelled by Clear, the slot is already free
+                return;
+            }
+        }
+        this.pump();
+    }
+
+    /**
+     * transmits a message in flight again after a delay, it keeps its slot, so it is not overtaken by the following ones
+     * the retry gets a new deadline, a message, that was cancelled in the meantime, is dropped
+     *
+     * @param entry message in flight
+     * @param delay milliseconds to wait
+     */
+    public void Retry(@NonNull Entry entry, long delay)
+    {
+        this._handler.postDelayed(() ->
+        {
+            if (!entry.Cancelled())
+            {
+                this.transmit(entry);
+            }
+        }, delay);
+    }
+
+    /**
+     * removes all queued messages and cancels the messages in flight
+     * the acknowledgements of cancelled messages are ignored, so every message is reported exactly once by the caller
+     *
+     * @return removed messages, in flight messages first
+     */
+    @NonNull
+    public ArrayList<Entry> Clear()
+    {
+        ArrayList<Entry> ret = new ArrayList<>();
+        synchronized (this)
+        {
+            ret.addAll(this._inFlight);
+            this._inFlight.clear();
+            for (ArrayDeque<Entry> lane : this._lanes)
+            {
+                ret.addAll(lane);
+                lane.clear();
+            }
+        }
+        for (Entry entry : ret)
+        {
+            entry.cancel();
+        }
+        return ret;
+    }
+
+    public synchronized int Depth()
+    {
+        return this.size() + this._inFlight.size();
+    }
+
+    /**
+     * gets the default priority lane for a message type
+     * user initiated list transfers go first, background log requests last
+     *
+     * @param message_type type of the message
+     * @return priority lane
+     */
+    @NonNull
+    public static DeviceInfo.ESendPriority PriorityFor(@Nullable String message_type)
+    {
+        if (message_type == null)
+        {
+            return DeviceInfo.ESendPriority.Normal;
+        }
+        return switch (message_type)
+        {
+            case "list", "dellist" -> DeviceInfo.ESendPriority.High;
+            case "req_logs" -> DeviceInfo.ESendPriority.Low;
+            default -> DeviceInfo.ESendPriority.Normal;
+        };
+    }
+
+    private void pump()
+    {
+        while (true)
+        {
+            Entry next = null;
+            synchronized (this)
+            {
+                if (this._inFlight.size() >= this._maxInFlight)
+                {
+                    return;
+                }
+                for (ArrayDeque<Entry> lane : this._lanes)
+                {
+                    next = lane.poll();
+                    if (next != null)
+                    {
+                        break;
+                    }
+                }
+                if (next == null)
+                {
+                    return;
+                }
+                this._inFlight.add(next);
+            }
+            next._started = SystemClock.elapsedRealtime();
+            this.transmit(next);
+        }
+    }
+
+    private void transmit(@NonNull Entry entry)
+    {
+        entry.startDeadline(this._handler, () -> this._transmitter.timedOut(entry));
+        this._transmitter.transmit(entry);
+    }
+
+    private int size()
+    {
+        int size = 0;
+        for (ArrayDeque<Entry> lane : this._lanes)
+        {
+            size += lane.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,791 @@
+package de.romandrechsel.lists.garmin;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.garmin.android.connectiq.ConnectIQ;
+import com.garmin.android.connectiq.IQApp;
+import com.garmin.android.connectiq.IQDevice;
+import com.garmin.android.connectiq.exception.InvalidStateException;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import de.romandrechsel.lists.logging.Logger;
+import de.romandrechsel.lists.metrics.Metrics;
+import de.romandrechsel.lists.utils.CompactCodec;
+import de.romandrechsel.lists.utils.DeviceUtils;
+
+/**
+ * in-process simulator of paired devices with the lists app installed, replaces the sdk for offline tests and benchmarks
+ * <p>
+ * models per message latency, bandwidth, loss, silently dropped messages and acknowledgements, acknowledgement delay and connect/disconnect churn
+ * the link of a device transfers one message at a time in either direction, like the bluetooth link
+ * the simulated app keeps the received lists, applies deltas, reassembles fragments and answers log requests
+ * all randomness comes from a seeded generator, so the same profile and the same sends give the same run
+ */
+public class SimulatedTransport implements IDeviceTransport
+{
+    private static final String TAG = "IQSimulator";
+
+    /**
+     * identifier of the first simulated device, the following devices count up
+     */
+    public static final long FirstDeviceId = 900000001L;
+
+    public static class Profile
+    {
+        /**
+         * number of simulated devices
+         */
+        public int Devices = 2;
+        /**
+         * one way latency of a message in milliseconds
+         */
+        public long Latency = 40;
+        /**
+         * random additional latency in milliseconds, up to this value
+         */
+        public long Jitter = 20;
+        /**
+         * bytes per second of the link, 0 for unlimited
+         */
+        public long Bandwidth = 2000;
+        /**
+         * probability of a message to fail with FAILURE_DURING_TRANSFER, 0..1
+         */
+        public double Loss = 0;
+        /**
+         * probability of a message to vanish on the link without any acknowledgement, 0..1
+         */
+        public double Drop = 0;
+        /**
+         * probability of the acknowledgement of a delivered message to vanish, 0..1
+         */
+        public double AckDrop = 0;
+        /**
+         * milliseconds between the arrival of a message and the acknowledgement on the phone
+         */
+        public long AckDelay = 30;
+        /**
+         * mean milliseconds between disconnects of a device, 0 for devices, that never disconnect
+         */
+        public long ChurnInterval = 0;
+        /**
+         * milliseconds, a disconnected device stays away
+         */
+        public long ChurnDowntime = 5000;
+        /**
+         * milliseconds until the sdk reports to be ready
+         */
+        public long InitDelay = 100;
+        /**
+         * wire format revision, the simulated app announces
+         */
+        public int WireRevision = CompactCodec.LegacyRevision;
+        /**
+         * version of the simulated app, 0 for devices without the app
+         */
+        public int AppVersion = 1;
+        /**
+         * number of log lines, the simulated app answers a log request with
+         */
+        public int LogLines = 20;
+        /**
+         * seed of the random generator
+         */
+        public long Seed = 1;
+
+        /**
+         * reads a profile from the plugin options, missing values keep their defaults
+         *
+         * @param options options, may be null
+         * @return profile
+         */
+        @NonNull
+        public static Profile FromJson(@Nullable JSONObject options)
+        {
+            Profile ret = new Profile();
+            if (options != null)
+            {
+                ret.Devices = Math.max(0, options.optInt("devices", ret.Devices));
+                ret.Latency = Math.max(0, options.optLong("latency", ret.Latency));
+                ret.Jitter = Math.max(0, options.optLong("jitter", ret.Jitter));
+                ret.Bandwidth = Math.max(0, options.optLong("bandwidth", ret.Bandwidth));
+                ret.Loss = Math.max(0, Math.min(1, options.optDouble("loss", ret.Loss)));
+                ret.Drop = Math.max(0, Math.min(1, options.optDouble("drop", ret.Drop)));
+                ret.AckDrop = Math.max(0, Math.min(1, options.optDouble("ack_drop", ret.AckDrop)));
+                ret.AckDelay = Math.max(0, options.optLong("ack_delay", ret.AckDelay));
+                ret.ChurnInterval = Math.max(0, options.optLong("churn_interval", ret.ChurnInterval));
+                ret.ChurnDowntime = Math.max(0, options.optLong("churn_downtime", ret.ChurnDowntime));
+                ret.InitDelay = Math.max(0, options.optLong("init_delay", ret.InitDelay));
+                ret.WireRevision = options.optInt("wire_revision", ret.WireRevision);
+                ret.AppVersion = Math.max(0, options.optInt("app_version", ret.AppVersion));
+                ret.LogLines = Math.max(0, options.optInt("log_lines", ret.LogLines));
+                ret.Seed = options.optLong("seed", ret.Seed);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * state of a simulated device and the app on it, only accessed on the simulator thread
+     */
+    private static class Device
+    {
+        @NonNull
+        final IQDevice Device;
+        volatile boolean Connected = true;
+        /**
+         * uptime, when the link is free for the next message
+         */
+        long LinkFreeAt = 0;
+        @Nullable
+        ConnectIQ.IQDeviceEventListener DeviceListener = null;
+        @Nullable
+        ConnectIQ.IQApplicationEventListener AppListener = null;
+        @Nullable
+        IQApp App = null;
+        /**
+         * lists on the device, keyed by uuid
+         */
+        final HashMap<String, HashMap<String, String>> Lists = new HashMap<>();
+        final MessageReassembler Reassembler = new MessageReassembler();
+        int Received = 0;
+
+        Device(@NonNull IQDevice device)
+        {
+            this.Device = device;
+        }
+    }
+
+    @NonNull
+    private final Profile _profile;
+    @NonNull
+    private final Random _random;
+    @NonNull
+    private final ArrayList<Device> _devices = new ArrayList<>();
+    @Nullable
+    private final Looper _looper;
+    @Nullable
+    private HandlerThread _thread = null;
+    @Nullable
+    private Handler _handler = null;
+    private volatile boolean _ready = false;
+
+    /**
+     * @param profile link and device model
+     * @param looper  looper to run the simulation on, null to start an own thread
+     */
+    public SimulatedTransport(@NonNull Profile profile, @Nullable Looper looper)
+    {
+        this._profile = profile;
+        this._random = new Random(profile.Seed);
+        this._looper = looper;
+        for (int i = 0; i < profile.Devices; i++)
+        {
+            this._devices.add(new Device(new IQDevice(FirstDeviceId + i, "Simulated device " + (i + 1))));
+        }
+    }
+
+    public SimulatedTransport(@NonNull Profile profile)
+    {
+        this(profile, null);
+    }
+
+    @Override
+    public boolean isSimulator()
+    {
+        return true;
+    }
+
+    @Override
+    public void initialize(@NonNull Context context, @NonNull ConnectIQ.ConnectIQListener listener)
+    {
+        if (this._handler == null)
+        {
+            if (this._looper != null)
+            {
+                this._handler = new Handler(this._looper);
+            }
+            else
+            {
+                this._thread = new HandlerThread(TAG);
+                this._thread.start();
+                this._handler = new Handler(this._thread.getLooper());
+            }
+        }
+        Logger.Notice(TAG, "Simulating " + this._devices.size() + " device(s), latency " + this._profile.Latency + " ms, bandwidth " + this._profile.Bandwidth + " B/s, loss " + this._profile.Loss + ", drop " + this._profile.Drop + ", ack drop " + this._profile.AckDrop);
+        this._handler.postDelayed(() ->
+        {
+            this._ready = true;
+            for (Device device : this._devices)
+            {
+                this.scheduleChurn(device);
+            }
+            listener.onSdkReady();
+        }, this._profile.InitDelay);
+    }
+
+    @Override
+    public void shutdown(@NonNull Context context)
+    {
+        this._ready = false;
+        if (this._handler != null)
+        {
+            this._handler.removeCallbacksAndMessages(null);
+        }
+        if (this._thread != null)
+        {
+            this._thread.quitSafely();
+            this._thread = null;
+        }
+        this._handler = null;
+    }
+
+    @Override
+    public void unregisterAllForEvents() throws InvalidStateException
+    {
+        this.checkReady();
+        this.post(() ->
+        {
+            for (Device device : this._devices)
+            {
+                device.DeviceListener = null;
+                device.AppListener = null;
+            }
+        });
+    }
+
+    @Override
+    public void unregisterForEvents(@NonNull IQDevice device) throws InvalidStateException
+    {
+        this.checkReady();
+        Device sim = this.find(device);
+        if (sim != null)
+        {
+            this.post(() ->
+            {
+                sim.DeviceListener = null;
+                sim.AppListener = null;
+            });
+        }
+    }
+
+    @Nullable
+    @Override
+    public List<IQDevice> getKnownDevices() throws InvalidStateException
+    {
+        this.checkReady();
+        List<IQDevice> ret = new ArrayList<>(this._devices.size());
+        for (Device device : this._devices)
+        {
+            ret.add(device.Device);
+        }
+        return ret;
+    }
+
+    @Nullable
+    @Override
+    public IQDevice.IQDeviceStatus getDeviceStatus(@NonNull IQDevice device) throws InvalidStateException
+    {
+        this.checkReady();
+        Device sim = this.find(device);
+        if (sim == null)
+        {
+            return IQDevice.IQDeviceStatus.NOT_PAIRED;
+        }
+        return sim.Connected ? IQDevice.IQDeviceStatus.CONNECTED : IQDevice.IQDeviceStatus.NOT_CONNECTED;
+    }
+
+    @Override
+    public void registerForDeviceEvents(@NonNull IQDevice device, @NonNull ConnectIQ.IQDeviceEventListener listener) throws InvalidStateException
+    {
+        this.checkReady();
+        Device sim = this.find(device);
+        if (sim != null)
+        {
+            this.post(() -> sim.DeviceListener = listener);
+        }
+    }
+
+    @Override
+    public void registerForAppEvents(@NonNull IQDevice device, @NonNull IQApp app, @NonNull ConnectIQ.IQApplicationEventListener listener) throws InvalidStateException
+    {
+        this.checkReady();
+        Device sim = this.find(device);
+        if (sim != null)
+        {
+            this.post(() ->
+            {
+                sim.AppListener = listener;
+                sim.App = app;
+                if (this._profile.WireRevision > CompactCodec.LegacyRevision)
+                {
+                    //the app announces its wire format revision, as soon as the phone listens
+                    ArrayList<String> hello = new ArrayList<>();
+                    hello.add("type=hello");
+                    hello.add("rev=" + this._profile.WireRevision);
+                    this.reply(sim, hello);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void getApplicationInfo(@NonNull String app_id, @NonNull IQDevice device, @NonNull ConnectIQ.IQApplicationInfoListener listener) throws InvalidStateException
+    {
+        this.checkReady();
+        Device sim = this.find(device);
+        this.postRoundTrip(() ->
+        {
+            if (sim == null || !sim.Connected || this._profile.AppVersion <= 0)
+            {
+                listener.onApplicationNotInstalled(app_id);
+                return;
+            }
+            listener.onApplicationInfoReceived(new IQApp(app_id, "Lists", this._profile.AppVersion));
+        });
+    }
+
+    @Override
+    public void openApplication(@NonNull IQDevice device, @NonNull IQApp app, @NonNull ConnectIQ.IQOpenApplicationListener listener) throws InvalidStateException
+    {
+        this.checkReady();
+        Device sim = this.find(device);
+        this.postRoundTrip(() ->
+        {
+            ConnectIQ.IQOpenApplicationStatus status;
+            if (sim == null || !sim.Connected)
+            {
+                status = ConnectIQ.IQOpenApplicationStatus.UNKNOWN_FAILURE;
+            }
+            else if (this._profile.AppVersion <= 0)
+            {
+                status = ConnectIQ.IQOpenApplicationStatus.APP_IS_NOT_INSTALLED;
+            }
+            else
+            {
+                status = ConnectIQ.IQOpenApplicationStatus.APP_IS_ALREADY_RUNNING;
+            }
+            listener.onOpenApplicationResponse(device, app, status);
+        });
+    }
+
+    @Override
+    public void sendMessage(@NonNull IQDevice device, @NonNull IQApp app, @NonNull Object message, @NonNull ConnectIQ.IQSendMessageListener listener) throws InvalidStateException
+    {
+        this.checkReady();
+        Device sim = this.find(device);
+        final ArrayList<String> lines = SimulatedTransport.Lines(message);
+        this.post(() ->
+        {
+            if (sim == null)
+            {
+                listener.onMessageStatus(device, app, ConnectIQ.IQMessageStatus.FAILURE_INVALID_DEVICE);
+                return;
+            }
+            if (!sim.Connected)
+            {
+                listener.onMessageStatus(device, app, ConnectIQ.IQMessageStatus.FAILURE_DEVICE_NOT_CONNECTED);
+                return;
+            }
+
+            int size = DeviceUtils.EstimateSize(lines);
+            long now = SystemClock.uptimeMillis();
+            long arrival = this.transfer(sim, size) + this.latency();
+            boolean lost = this._profile.Loss > 0 && this._random.nextDouble() < this._profile.Loss;
+            boolean dropped = !lost && this._profile.Drop > 0 && this._random.nextDouble() < this._profile.Drop;
+            Metrics.Increment("sim.sent");
+
+            this.postAt(() ->
+            {
+                if (dropped)
+                {
+                    //the message vanishes, the sdk never calls back
+                    Metrics.Increment("sim.dropped");
+                    return;
+                }
+                ConnectIQ.IQMessageStatus status;
+                if (lost || !sim.Connected)
+                {
+                    Metrics.Increment("sim.lost");
+                    status = ConnectIQ.IQMessageStatus.FAILURE_DURING_TRANSFER;
+                }
+                else
+                {
+                    Metrics.Add("sim.bytes", size);
+                    Metrics.Record("sim.transfer", SystemClock.uptimeMillis() - now);
+                    sim.Received++;
+                    this.receive(sim, lines);
+                    status = ConnectIQ.IQMessageStatus.SUCCESS;
+                    if (this._profile.AckDrop > 0 && this._random.nextDouble() < this._profile.AckDrop)
+                    {
+                        //delivered, but the acknowledgement vanishes
+                        Metrics.Increment("sim.ack_dropped");
+                        return;
+                    }
+                }
+                this.post(() -> listener.onMessageStatus(device, app, status), this._profile.AckDelay);
+            }, arrival);
+        }, 0);
+    }
+
+    @Override
+    public void openStore(@NonNull String app_id)
+    {
+        Logger.Notice(TAG, "No app store for simulated devices");
+    }
+
+    /**
+     * disconnects a simulated device, e.g. to test reconnects
+     *
+     * @param device_id device identifier
+     */
+    public void Disconnect(long device_id)
+    {
+        Device sim = this.find(device_id);
+        if (sim != null)
+        {
+            this.post(() -> this.setConnected(sim, false), 0);
+        }
+    }
+
+    /**
+     * connects a simulated device again
+     *
+     * @param device_id device identifier
+     */
+    public void Connect(long device_id)
+    {
+        Device sim = this.find(device_id);
+        if (sim != null)
+        {
+            this.post(() -> this.setConnected(sim, true), 0);
+        }
+    }
+
+    /**
+     * number of lists on a simulated device, for tests
+     *
+     * @param device_id device identifier
+     * @return number of lists, or -1 if the device is unknown
+     */
+    public int ListCount(long device_id)
+    {
+        Device sim = this.find(device_id);
+        return sim != null ? sim.Lists.size() : -1;
+    }
+
+    /**
+     * a value of a list on a simulated device, for tests
+     *
+     * @param device_id device identifier
+     * @param uuid      list uuid
+     * @param key       key of the value
+     * @return value, or null if the device, the list or the value is unknown
+     */
+    @Nullable
+    public String ListValue(long device_id, @NonNull String uuid, @NonNull String key)
+    {
+        Device sim = this.find(device_id);
+        HashMap<String, String> list = sim != null ? sim.Lists.get(uuid) : null;
+        return list != null ? list.get(key) : null;
+    }
+
+    /**
+     * the app on a simulated device loses a list, e.g. to test the recovery of a delta mismatch
+     *
+     * @param device_id device identifier
+     * @param uuid      list uuid
+     */
+    public void ForgetList(long device_id, @NonNull String uuid)
+    {
+        Device sim = this.find(device_id);
+        if (sim != null)
+        {
+            this.post(() -> sim.Lists.remove(uuid), 0);
+        }
+    }
+
+    /**
+     * the app on the device received a message
+     *
+     * @param sim   device
+     * @param lines message lines, line 0 is the message type
+     */
+    private void receive(@NonNull Device sim, @NonNull List<?> lines)
+    {
+        if (lines.isEmpty())
+        {
+            return;
+        }
+        if (MessageReassembler.IsFragment(lines))
+        {
+            ArrayList<Object> complete = sim.Reassembler.Add(lines);
+            if (complete != null)
+            {
+                this.receive(sim, complete);
+            }
+            return;
+        }
+
+        String type = String.valueOf(lines.get(0));
+        List<?> body = lines.subList(1, lines.size());
+        if (CompactCodec.IsCompact(body))
+        {
+            body = CompactCodec.Decode(body);
+            if (body == null)
+            {
+                Logger.Error(TAG, "Simulated device " + sim.Device.getDeviceIdentifier() + " received a malformed compact message");
+                return;
+            }
+        }
+        HashMap<String, String> values = SimulatedTransport.Parse(body);
+
+        switch (type)
+        {
+            case ListDeltaSync.MessageTypeList ->
+            {
+                String uuid = values.get("uuid");
+                if (uuid != null)
+                {
+                    sim.Lists.put(uuid, values);
+                }
+            }
+            case ListDeltaSync.MessageTypeDelta ->
+            {
+                String uuid = values.get("uuid");
+                HashMap<String, String> list = uuid != null ? sim.Lists.get(uuid) : null;
+                if (list == null || !String.valueOf(list.get("drev")).equals(values.get("base")))
+                {
+                    ArrayList<String> mismatch = new ArrayList<>();
+                    mismatch.add("type=" + ListDeltaSync.MessageTypeMismatch);
+                    mismatch.add("uuid=" + uuid);
+                    this.reply(sim, mismatch);
+                }
+                else
+                {
+                    for (Object line : body)
+                    {
+                        String str = String.valueOf(line);
+                        if (str.startsWith("-"))
+                        {
+                            list.remove(str.substring(1));
+                        }
+                    }
+                    values.remove("base");
+                    list.putAll(values);
+                }
+            }
+            case "dellist" ->
+            {
+                if (!body.isEmpty())
+                {
+                    sim.Lists.remove(String.valueOf(body.get(0)));
+                }
+            }
+            case "req_logs" ->
+            {
+                ArrayList<String> logs = new ArrayList<>();
+                String tid = values.get("tid");
+                if (tid != null)
+                {
+                    logs.add("tid=" + tid);
+                }
+                else
+                {
+                    logs.add("type=logs");
+                }
+                for (int i = 0; i < this._profile.LogLines; i++)
+                {
+                    logs.add(i + "=Simulated log " + i + ": " + sim.Received + " message(s) received, " + sim.Lists.size() + " list(s) stored");
+                }
+                this.reply(sim, logs);
+            }
+            default ->
+            {
+                String tid = values.get("tid");
+                if (tid != null)
+                {
+                    ArrayList<String> ack = new ArrayList<>();
+                    ack.add("tid=" + tid);
+                    ack.add("type=" + type);
+                    this.reply(sim, ack);
+                }
+            }
+        }
+    }
+
+    /**
+     * the app on the device sends a message to the phone, over the same link
+     *
+     * @param sim   device
+     * @param lines message lines
+     */
+    private void reply(@NonNull Device sim, @NonNull ArrayList<String> lines)
+    {
+        int size = DeviceUtils.EstimateSize(lines);
+        long arrival = this.transfer(sim, size) + this.latency();
+        List<Object> message = new ArrayList<>(1);
+        message.add(lines);
+        this.postAt(() ->
+        {
+            ConnectIQ.IQApplicationEventListener listener = sim.AppListener;
+            if (sim.Connected && listener != null && sim.App != null)
+            {
+                listener.onMessageReceived(sim.Device, sim.App, message, ConnectIQ.IQMessageStatus.SUCCESS);
+            }
+        }, arrival);
+    }
+
+    /**
+     * reserves the link of a device for a message
+     *
+     * @param sim  device
+     * @param size message size in bytes
+     * @return uptime, when the last byte left the sender
+     */
+    private long transfer(@NonNull Device sim, int size)
+    {
+        long start = Math.max(SystemClock.uptimeMillis(), sim.LinkFreeAt);
+        long duration = this._profile.Bandwidth > 0 ? (size * 1000L + this._profile.Bandwidth - 1) / this._profile.Bandwidth : 0;
+        sim.LinkFreeAt = start + duration;
+        return sim.LinkFreeAt;
+    }
+
+    private long latency()
+    {
+        return this._profile.Latency + (this._profile.Jitter > 0 ? (long) (this._random.nextDouble() * this._profile.Jitter) : 0);
+    }
+
+    private void scheduleChurn(@NonNull Device sim)
+    {
+        if (this._profile.ChurnInterval <= 0)
+        {
+            return;
+        }
+        long delay = this._profile.ChurnInterval / 2 + (long) (this._random.nextDouble() * this._profile.ChurnInterval);
+        this.post(() ->
+        {
+            this.setConnected(sim, false);
+            this.post(() ->
+            {
+                this.setConnected(sim, true);
+                this.scheduleChurn(sim);
+            }, this._profile.ChurnDowntime);
+        }, delay);
+    }
+
+    private void setConnected(@NonNull Device sim, boolean connected)
+    {
+        if (sim.Connected == connected)
+        {
+            return;
+        }
+        sim.Connected = connected;
+        Metrics.Increment(connected ? "sim.connects" : "sim.disconnects");
+        if (!connected)
+        {
+            sim.LinkFreeAt = 0;
+            sim.Reassembler.Clear();
+        }
+        ConnectIQ.IQDeviceEventListener listener = sim.DeviceListener;
+        if (listener != null)
+        {
+            listener.onDeviceStatusChanged(sim.Device, connected ? IQDevice.IQDeviceStatus.CONNECTED : IQDevice.IQDeviceStatus.NOT_CONNECTED);
+        }
+    }
+
+    private void post(@NonNull Runnable task)
+    {
+        this.post(task, 0);
+    }
+
+    private void post(@NonNull Runnable task, long delay)
+    {
+        Handler handler = this._handler;
+        if (handler != null)
+        {
+            handler.postDelayed(task, delay);
+        }
+    }
+
+    /**
+     * runs a task after a request to the device and its answer, the latency is drawn on the simulator thread
+     */
+    private void postRoundTrip(@NonNull Runnable task)
+    {
+        this.post(() -> this.post(task, this.latency() + this.latency()));
+    }
+
+    private void postAt(@NonNull Runnable task, long uptime)
+    {
+        this.post(task, Math.max(0, uptime - SystemClock.uptimeMillis()));
+    }
+
+    private void checkReady() throws InvalidStateException
+    {
+        if (!this._ready)
+        {
+            throw new InvalidStateException("Simulator is not initialized");
+        }
+    }
+
+    @Nullable
+    private Device find(@NonNull IQDevice device)
+    {
+        return this.find(device.getDeviceIdentifier());
+    }
+
+    @Nullable
+    private Device find(long device_id)
+    {
+        long index = device_id - FirstDeviceId;
+        return index >= 0 && index < this._devices.size() ? this._devices.get((int) index) : null;
+    }
+
+    @NonNull
+    private static ArrayList<String> Lines(@NonNull Object message)
+    {
+        ArrayList<String> ret = new ArrayList<>();
+        if (message instanceof List<?> list)
+        {
+            for (Object line : list)
+            {
+                ret.add(String.valueOf(line));
+            }
+        }
+        else
+        {
+            ret.add(String.valueOf(message));
+        }
+        return ret;
+    }
+
+    @NonNull
+    private static HashMap<String, String> Parse(@NonNull List<?> lines)
+    {
+        HashMap<String, String> ret = new HashMap<>();
+        for (Object line : lines)
+        {
+            String str = String.valueOf(line);
+            int split = str.indexOf('=');
+            if (split > 0)
+            {
+                ret.put(str.substring(0, split), str.substring(split + 1));
+            }
+        }
+        return ret;
+    }
+}
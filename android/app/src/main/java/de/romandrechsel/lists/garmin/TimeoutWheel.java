@@ -0,0 +1,358 @@
+package de.romandrechsel.lists.garmin;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * hashed timing wheel, that tracks the deadlines of all in-flight sends and transactions on a single background thread
+ * scheduling and cancelling are O(1), expired timeouts are run on the wheel thread, that sleeps while no timeout is scheduled
+ * a manual wheel has no thread, its owner expires the timeouts with Poll, e.g. to run it on a simulated clock in tests
+ */
+public class TimeoutWheel
+{
+    private static final String TAG = "IQTimeoutWheel";
+
+    /**
+     * resolution of the wheel in milliseconds
+     */
+    public static final long TickDuration = 100;
+    /**
+     * number of buckets, one revolution covers TickDuration * WheelSize milliseconds
+     */
+    public static final int WheelSize = 512;
+
+    /**
+     * time source of the wheel
+     */
+    public interface IClock
+    {
+        long nanoTime();
+    }
+
+    public static class Timeout
+    {
+        @Nullable
+        private Runnable _task;
+        private long _rounds;
+        private int _bucket = -1;
+        @Nullable
+        private Timeout _prev;
+        @Nullable
+        private Timeout _next;
+        @NonNull
+        private final TimeoutWheel _wheel;
+
+        private Timeout(@NonNull TimeoutWheel wheel, @NonNull Runnable task)
+        {
+            this._wheel = wheel;
+            this._task = task;
+        }
+
+        /**
+         * cancels the timeout, does nothing if it already expired
+         *
+         * @return true, if the timeout was cancelled before it expired
+         */
+        public boolean Cancel()
+        {
+            return this._wheel.cancel(this);
+        }
+    }
+
+    @Nullable
+    private static TimeoutWheel _shared = null;
+
+    private final Timeout[] _buckets = new Timeout[WheelSize];
+    private final long _tickNanos;
+    @NonNull
+    private final IClock _clock;
+    private final boolean _manual;
+    private long _tick = 0;
+    private long _startNanos = 0;
+    private boolean _started = false;
+    private int _count = 0;
+    @Nullable
+    private Thread _thread = null;
+
+    public TimeoutWheel(long tick_duration)
+    {
+        this(tick_duration, System::nanoTime, false);
+    }
+
+    /**
+     * @param tick_duration resolution in milliseconds
+     * @param clock         time source
+     * @param manual        true for a wheel without a thread, that only expires timeouts on Poll
+     */
+    public TimeoutWheel(long tick_duration, @NonNull IClock clock, boolean manual)
+    {
+        this._tickNanos = Math.max(1, tick_duration) * 1000000L;
+        this._clock = clock;
+        this._manual = manual;
+    }
+
+    /**
+     * gets the wheel, that is shared by all devices
+     */
+    @NonNull
+    public static synchronized TimeoutWheel Shared()
+    {
+        if (TimeoutWheel._shared == null)
+        {
+            TimeoutWheel._shared = new TimeoutWheel(TickDuration);
+        }
+        return TimeoutWheel._shared;
+    }
+
+    /**
+     * replaces the shared wheel, e.g. by a manual wheel on a simulated clock
+     *
+     * @param wheel new shared wheel, null to create a new one on the next use
+     */
+    public static synchronized void SetShared(@Nullable TimeoutWheel wheel)
+    {
+        TimeoutWheel._shared = wheel;
+    }
+
+    /**
+     * schedules a task
+     *
+     * @param delay delay in milliseconds, rounded up to the next tick
+     * @param task  task, that is run on the wheel thread when the timeout expires
+     * @return timeout, that can be cancelled
+     */
+    @NonNull
+    public Timeout Schedule(long delay, @NonNull Runnable task)
+    {
+        Timeout timeout = new Timeout(this, task);
+        boolean wake;
+        Thread thread;
+        synchronized (this)
+        {
+            this.start();
+            long elapsed = this._clock.nanoTime() - this._startNanos;
+            wake = this._count == 0;
+            if (wake)
+            {
+                //the idle thread didn't move the wheel, the buckets are empty, so the missed ticks are skipped
+                this._tick = Math.max(this._tick, elapsed / this._tickNanos);
+            }
+            long deadline_tick = (elapsed + Math.max(0, delay) * 1000000L + this._tickNanos - 1) / this._tickNanos;
+            long ticks = Math.max(1, deadline_tick - this._tick);
+            timeout._rounds = (ticks - 1) / WheelSize;
+            timeout._bucket = (int) ((this._tick + ticks) % WheelSize);
+            this.link(timeout);
+            this._count++;
+            thread = this._thread;
+        }
+        if (wake && thread != null)
+        {
+            LockSupport.unpark(thread);
+        }
+        return timeout;
+    }
+
+    /**
+     * number of scheduled timeouts
+     */
+    public synchronized int Pending()
+    {
+        return this._count;
+    }
+
+    /**
+     * expires the due timeouts on the calling thread
+     *
+     * @return number of expired timeouts
+     */
+    public int Poll()
+    {
+        ArrayList<Runnable> expired = new ArrayList<>();
+        synchronized (this)
+        {
+            if (!this._started)
+            {
+                return 0;
+            }
+            this.advance(expired);
+        }
+        TimeoutWheel.runAll(expired);
+        return expired.size();
+    }
+
+    /**
+     * gets the time of the tick, that expires the next timeout
+     *
+     * @return time of the clock in nanoseconds, Long.MAX_VALUE if no timeout is scheduled
+     */
+    public synchronized long NextExpiry()
+    {
+        long ticks = Long.MAX_VALUE;
+        for (int bucket = 0; bucket < WheelSize; bucket++)
+        {
+            for (Timeout timeout = this._buckets[bucket]; timeout != null; timeout = timeout._next)
+            {
+                //the bucket is visited after distance ticks, the timeout expires after its remaining rounds
+                long distance = Math.floorMod(bucket - this._tick, (long) WheelSize);
+                if (distance == 0)
+                {
+                    distance = WheelSize;
+                }
+                ticks = Math.min(ticks, distance + timeout._rounds * WheelSize);
+            }
+        }
+        if (ticks == Long.MAX_VALUE)
+        {
+            return Long.MAX_VALUE;
+        }
+        return this._startNanos + (this._tick + ticks) * this._tickNanos;
+    }
+
+    private synchronized boolean cancel(@NonNull Timeout timeout)
+    {
+        if (timeout._bucket < 0)
+        {
+            return false;
+        }
+        this.unlink(timeout);
+        timeout._task = null;
+        this._count--;
+        return true;
+    }
+
+    private void start()
+    {
+        if (!this._started)
+        {
+            this._startNanos = this._clock.nanoTime();
+            this._started = true;
+        }
+        if (this._thread == null && !this._manual)
+        {
+            Thread thread = new Thread(this::run, "IQTimeouts");
+            thread.setDaemon(true);
+            thread.start();
+            this._thread = thread;
+        }
+    }
+
+    private void run()
+    {
+        ArrayList<Runnable> expired = new ArrayList<>();
+        while (true)
+        {
+            long sleep;
+            boolean idle;
+            synchronized (this)
+            {
+                sleep = this.advance(expired);
+                idle = this._count == 0;
+            }
+            TimeoutWheel.runAll(expired);
+            expired.clear();
+
+            if (idle)
+            {
+                //nothing to expire, Schedule wakes the thread
+                LockSupport.park(this);
+            }
+            else
+            {
+                LockSupport.parkNanos(Math.max(1, sleep));
+            }
+        }
+    }
+
+    /**
+     * moves the wheel to the current time and collects the expired tasks
+     *
+     * @param expired receives the expired tasks
+     * @return nanoseconds until the next tick
+     */
+    private long advance(@NonNull ArrayList<Runnable> expired)
+    {
+        long elapsed = this._clock.nanoTime() - this._startNanos;
+        long target = elapsed / this._tickNanos;
+        while (this._tick < target)
+        {
+            this._tick++;
+            this.expire((int) (this._tick % WheelSize), expired);
+        }
+        return (this._tick + 1) * this._tickNanos - elapsed;
+    }
+
+    private static void runAll(@NonNull ArrayList<Runnable> tasks)
+    {
+        for (Runnable task : tasks)
+        {
+            try
+            {
+                task.run();
+            }
+            catch (Exception ex)
+            {
+                Log.e(TAG, "Timeout task failed: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void expire(int bucket, @NonNull ArrayList<Runnable> expired)
+    {
+        Timeout timeout = this._buckets[bucket];
+        while (timeout != null)
+        {
+            Timeout next = timeout._next;
+            if (timeout._rounds <= 0)
+            {
+                this.unlink(timeout);
+                this._count--;
+                if (timeout._task != null)
+                {
+                    expired.add(timeout._task);
+                    timeout._task = null;
+                }
+            }
+            else
+            {
+                timeout._rounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    private void link(@NonNull Timeout timeout)
+    {
+        Timeout head = this._buckets[timeout._bucket];
+        timeout._prev = null;
+        timeout._next = head;
+        if (head != null)
+        {
+            head._prev = timeout;
+        }
+        this._buckets[timeout._bucket] = timeout;
+    }
+
+    private void unlink(@NonNull Timeout timeout)
+    {
+        if (timeout._prev != null)
+        {
+            timeout._prev._next = timeout._next;
+        }
+        else
+        {
+            this._buckets[timeout._bucket] = timeout._next;
+        }
+        if (timeout._next != null)
+        {
+            timeout._next._prev = timeout._prev;
+        }
+        timeout._prev = null;
+        timeout._next = null;
+        timeout._bucket = -1;
+    }
+}
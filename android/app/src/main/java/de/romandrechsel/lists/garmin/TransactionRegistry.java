@@ -0,0 +1,145 @@
+package de.romandrechsel.lists.garmin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.romandrechsel.lists.metrics.Metrics;
+import de.romandrechsel.lists.utils.HelperUtils;
+
+/**
+ * pending request/response transactions, the response of the device is matched by the tid, that is assigned natively
+ */
+public class TransactionRegistry
+{
+    public interface ITransactionListener
+    {
+        /**
+         * the transaction is completed
+         *
+         * @param tid      transaction id
+         * @param result   Success, if the device responded, Timeout or the reason, why the request could not be sent
+         * @param device   responding device
+         * @param response response of the device, null if the device didn't respond
+         */
+        void onTransactionResult(long tid, @NonNull MessageSendResult result, @Nullable DeviceInfo device, @Nullable DeviceMessage response);
+    }
+
+    /**
+     * default milliseconds to wait for the response, including the transmission of the request
+     */
+    public static final long DefaultTimeout = 10 * 1000;
+
+    private static class Pending
+    {
+        final long DeviceId;
+        @NonNull
+        final ITransactionListener Listener;
+        @Nullable
+        TimeoutWheel.Timeout Deadline = null;
+
+        Pending(long device_id, @NonNull ITransactionListener listener)
+        {
+            this.DeviceId = device_id;
+            this.Listener = listener;
+        }
+    }
+
+    private final AtomicLong _nextTid = new AtomicLong(1);
+    private final ConcurrentHashMap<Long, Pending> _pending = new ConcurrentHashMap<>();
+
+    /**
+     * starts a transaction
+     *
+     * @param device_id device, the request is sent to
+     * @param timeout   milliseconds to wait for the response, 0 for the default timeout
+     * @param listener  listener for the response
+     * @return transaction id, that has to be sent with the request
+     */
+    public long Begin(long device_id, long timeout, @NonNull ITransactionListener listener)
+    {
+        long tid = this._nextTid.getAndIncrement();
+        Pending pending = new Pending(device_id, listener);
+        this._pending.put(tid, pending);
+        pending.Deadline = TimeoutWheel.Shared().Schedule(timeout > 0 ? timeout : DefaultTimeout, () ->
+        {
+            if (this._pending.remove(tid, pending))
+            {
+                Metrics.Increment(Metrics.Key("transaction.timeout", device_id));
+                pending.Listener.onTransactionResult(tid, new MessageSendResult(DeviceInfo.EMessageSendResult.Timeout, null), null, null);
+            }
+        });
+        return tid;
+    }
+
+    /**
+     * matches an inbound message against the pending transactions
+     *
+     * @param device  device, that sent the message
+     * @param message inbound message
+     * @return true, if the message was the response of a pending transaction and must not be broadcast
+     */
+    public boolean Complete(@NonNull DeviceInfo device, @NonNull DeviceMessage message)
+    {
+        if (this._pending.isEmpty())
+        {
+            return false;
+        }
+        Long tid = HelperUtils.toLong(message.Get("tid"));
+        if (tid == null)
+        {
+            return false;
+        }
+        Pending pending = this._pending.get(tid);
+        if (pending == null || pending.DeviceId != device.getDeviceIdentifier() || !this._pending.remove(tid, pending))
+        {
+            return false;
+        }
+        this.cancelDeadline(pending);
+        pending.Listener.onTransactionResult(tid, new MessageSendResult(DeviceInfo.EMessageSendResult.Success, null), device, message);
+        return true;
+    }
+
+    /**
+     * the request of a transaction could not be sent
+     *
+     * @param tid    transaction id
+     * @param result send result
+     */
+    public void Fail(long tid, @NonNull MessageSendResult result)
+    {
+        Pending pending = this._pending.remove(tid);
+        if (pending != null)
+        {
+            this.cancelDeadline(pending);
+            pending.Listener.onTransactionResult(tid, result, null, null);
+        }
+    }
+
+    /**
+     * cancels all pending transactions
+     */
+    public void Clear()
+    {
+        for (Long tid : this._pending.keySet())
+        {
+            this.Fail(tid, new MessageSendResult(DeviceInfo.EMessageSendResult.NotSend, null));
+        }
+    }
+
+    public int Pending()
+    {
+        return this._pending.size();
+    }
+
+    private void cancelDeadline(@NonNull Pending pending)
+    {
+        TimeoutWheel.Timeout deadline = pending.Deadline;
+        if (deadline != null)
+        {
+            deadline.Cancel();
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package de.romandrechsel.lists.logging;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * fixed-size, memory-mapped ring file for native log records, survives app crashes and restarts
+ * records are only appended by the log drain thread, the oldest records are overwritten if the file is full
+ * <p>
+ * layout: header (magic, version, size, tag count, tag table), followed by the records
+ * record: magic, length, seq, time, level, tag id, message length, message (utf-8), crc32, padded to 8 bytes
+ */
+public class LogFile
+{
+    private static final String TAG = "LogFile";
+
+    public static final String DefaultName = "native.log";
+    /**
+     * default size of the file in bytes
+     */
+    public static final int DefaultSize = 1024 * 1024;
+    /**
+     * longer messages are truncated to this number of characters
+     */
+    public static final int MaxMessageLength = 1024;
+
+    private static final int FileMagic = 0x4C4F4746;
+    private static final int RecordMagic = 0x4C524543;
+    private static final int Version = 1;
+    private static final int MaxTags = 128;
+    private static final int TagSize = 32;
+    private static final int TagTableOffset = 16;
+    private static final int HeaderSize = TagTableOffset + MaxTags * TagSize;
+    private static final int RecordHeaderSize = 32;
+    private static final int UnknownTag = 0xFFFF;
+
+    public static class Entry
+    {
+        public final long Seq;
+        public final long Time;
+        @NonNull
+        public final Logger.ELevel Level;
+        @NonNull
+        public final String Tag;
+        @NonNull
+        public final String Message;
+
+        Entry(long seq, long time, @NonNull Logger.ELevel level, @NonNull String tag, @NonNull String message)
+        {
+            this.Seq = seq;
+            this.Time = time;
+            this.Level = level;
+            this.Tag = tag;
+            this.Message = message;
+        }
+    }
+
+    public static class Filter
+    {
+        /**
+         * only records at or after this timestamp (ms)
+         */
+        public long Since = 0;
+        /**
+         * only records before this timestamp (ms), 0 for no limit
+         */
+        public long Until = 0;
+        @NonNull
+        public Logger.ELevel MinLevel = Logger.ELevel.Debug;
+        /**
+         * only records of this tag, null for all
+         */
+        @Nullable
+        public String Tag = null;
+        /**
+         * only records, which message contains this text (case insensitive), null for all
+         */
+        @Nullable
+        public String Contains = null;
+        /**
+         * maximum number of records, the newest ones are kept, 0 for no limit
+         */
+        public int Limit = 0;
+
+        boolean Matches(@NonNull Entry entry)
+        {
+            if (entry.Time < this.Since || (this.Until > 0 && entry.Time >= this.Until))
+            {
+                return false;
+            }
+            if (entry.Level.ordinal() < this.MinLevel.ordinal())
+            {
+                return false;
+            }
+            if (this.Tag != null && !this.Tag.equals(entry.Tag))
+            {
+                return false;
+            }
+            return this.Contains == null || entry.Message.toLowerCase(Locale.ROOT).contains(this.Contains.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private interface IRecordVisitor
+    {
+        void visit(int pos, int length, long seq);
+    }
+
+    @NonNull
+    private final RandomAccessFile _file;
+    @NonNull
+    private final MappedByteBuffer _buffer;
+    /**
+     * view of the mapping for relative bulk writes and checksums
+     */
+    @NonNull
+    private final ByteBuffer _view;
+    private final int _size;
+    private final HashMap<String, Integer> _tagIds = new HashMap<>();
+    private final ArrayList<String> _tags = new ArrayList<>();
+    private final CRC32 _crc = new CRC32();
+    private int _position = HeaderSize;
+    private long _seq = 0;
+
+    private LogFile(@NonNull RandomAccessFile file, @NonNull MappedByteBuffer buffer, int size)
+    {
+        this._file = file;
+        this._buffer = buffer;
+        this._view = buffer.duplicate();
+        this._size = size;
+    }
+
+    /**
+     * opens the ring file, creates it if it doesn't exist or has an other size or version
+     *
+     * @param file path of the file
+     * @param size size of the file in bytes
+     * @return ring file, or null if the file could not be mapped
+     */
+    @Nullable
+    public static LogFile Open(@NonNull File file, int size)
+    {
+        size = Math.max(HeaderSize * 2, size) & ~7;
+        RandomAccessFile raf = null;
+        try
+        {
+            raf = new RandomAccessFile(file, "rw");
+            boolean reset = raf.length() != size;
+            if (reset)
+            {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            LogFile log = new LogFile(raf, buffer, size);
+            if (reset || buffer.getInt(0) != FileMagic || buffer.getInt(4) != Version || buffer.getInt(8) != size)
+            {
+                log.reset();
+            }
+            else
+            {
+                log.load();
+            }
+            return log;
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            //the logger itself must not be used here, records are written by the drain thread
+            Log.e(TAG, "Could not open log file " + file + ": " + ex.getMessage());
+            if (raf != null)
+            {
+                try
+                {
+                    raf.close();
+                }
+                catch (IOException ignored)
+                {
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * appends a record, the oldest records are overwritten if needed
+     *
+     * @param time    timestamp (ms)
+     * @param level   log level
+     * @param tag     tag
+     * @param message message, is truncated to MaxMessageLength characters
+     */
+    public synchronized void Append(long time, @NonNull Logger.ELevel level, @NonNull String tag, @NonNull String message)
+    {
+        int tag_id = this.tagId(tag);
+        if (tag_id == UnknownTag)
+        {
+            message = tag + ": " + message;
+        }
+        if (message.length() > MaxMessageLength)
+        {
+            message = message.substring(0, MaxMessageLength);
+        }
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int length = (RecordHeaderSize + bytes.length + 4 + 7) & ~7;
+
+        if (this._position + length > this._size)
+        {
+            this._position = HeaderSize;
+        }
+
+        int pos = this._position;
+        long seq = this._seq++;
+        ByteBuffer buffer = this._buffer;
+        buffer.putInt(pos + 4, length);
+        buffer.putLong(pos + 8, seq);
+        buffer.putLong(pos + 16, time);
+        buffer.put(pos + 24, (byte) level.ordinal());
+        buffer.put(pos + 25, (byte) 0);
+        buffer.putShort(pos + 26, (short) tag_id);
+        buffer.putInt(pos + 28, bytes.length);
+        this._view.clear();
+        this._view.position(pos + RecordHeaderSize);
+        this._view.put(bytes);
+        buffer.putInt(pos + RecordHeaderSize + bytes.length, this.crc(pos, bytes.length));
+        //the magic is written last, so a record, that was interrupted by a crash, is never valid
+        buffer.putInt(pos, RecordMagic);
+
+        this._position = pos + length;
+    }
+
+    /**
+     * reads all records matching a filter
+     *
+     * @param filter filter
+     * @return records, sorted from oldest to newest
+     */
+    @NonNull
+    public ArrayList<Entry> Read(@NonNull Filter filter)
+    {
+        ByteBuffer copy = ByteBuffer.allocate(this._size).order(ByteOrder.LITTLE_ENDIAN);
+        String[] tags;
+        synchronized (this)
+        {
+            ByteBuffer src = this._buffer.duplicate();
+            src.clear();
+            copy.put(src);
+            tags = this._tags.toArray(new String[0]);
+        }
+
+        ArrayList<Entry> entries = new ArrayList<>();
+        Logger.ELevel[] levels = Logger.ELevel.values();
+        CRC32 crc = new CRC32();
+        LogFile.scan(copy, copy.duplicate(), this._size, crc, (pos, length, seq) ->
+        {
+            int level = copy.get(pos + 24);
+            int tag_id = copy.getShort(pos + 26) & 0xFFFF;
+            int msg_length = copy.getInt(pos + 28);
+            String tag = tag_id < tags.length ? tags[tag_id] : "";
+            String message = new String(copy.array(), pos + RecordHeaderSize, msg_length, StandardCharsets.UTF_8);
+            Entry entry = new Entry(seq, copy.getLong(pos + 16), levels[Math.max(0, Math.min(levels.length - 1, level))], tag, message);
+            if (filter.Matches(entry))
+            {
+                entries.add(entry);
+            }
+        });
+
+        entries.sort(Comparator.comparingLong(e -> e.Seq));
+        if (filter.Limit > 0 && entries.size() > filter.Limit)
+        {
+            return new ArrayList<>(entries.subList(entries.size() - filter.Limit, entries.size()));
+        }
+        return entries;
+    }
+
+    public synchronized void Close()
+    {
+        try
+        {
+            this._buffer.force();
+            this._file.close();
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            Log.e(TAG, "Could not close log file: " + ex.getMessage());
+        }
+    }
+
+    private void reset()
+    {
+        for (int i = 0; i < this._size; i += 8)
+        {
+            this._buffer.putLong(i, 0);
+        }
+        this._buffer.putInt(4, Version);
+        this._buffer.putInt(8, this._size);
+        this._buffer.putInt(12, 0);
+        this._buffer.putInt(0, FileMagic);
+        this._position = HeaderSize;
+        this._seq = 0;
+    }
+
+    private void load()
+    {
+        int count = Math.min(MaxTags, this._buffer.getInt(12));
+        for (int i = 0; i < count; i++)
+        {
+            int offset = TagTableOffset + i * TagSize;
+            int length = Math.min(TagSize - 1, this._buffer.get(offset) & 0xFF);
+            byte[] bytes = new byte[length];
+            for (int j = 0; j < length; j++)
+            {
+                bytes[j] = this._buffer.get(offset + 1 + j);
+            }
+            String tag = new String(bytes, StandardCharsets.UTF_8);
+            this._tagIds.put(tag, i);
+            this._tags.add(tag);
+        }
+
+        //continue after the newest valid record
+        final long[] newest = {-1, HeaderSize};
+        LogFile.scan(this._buffer, this._view, this._size, this._crc, (pos, length, seq) ->
+        {
+            if (seq > newest[0])
+            {
+                newest[0] = seq;
+                newest[1] = pos + length;
+            }
+        });
+        this._seq = newest[0] + 1;
+        this._position = (int) newest[1];
+    }
+
+    private int tagId(@NonNull String tag)
+    {
+        Integer id = this._tagIds.get(tag);
+        if (id != null)
+        {
+            return id;
+        }
+        int count = this._tags.size();
+        byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+        if (count >= MaxTags || bytes.length >= TagSize)
+        {
+            return UnknownTag;
+        }
+
+        int offset = TagTableOffset + count * TagSize;
+        this._buffer.put(offset, (byte) bytes.length);
+        for (int i = 0; i < bytes.length; i++)
+        {
+            this._buffer.put(offset + 1 + i, bytes[i]);
+        }
+        this._buffer.putInt(12, count + 1);
+        this._tagIds.put(tag, count);
+        this._tags.add(tag);
+        return count;
+    }
+
+    private int crc(int pos, int msg_length)
+    {
+        this._crc.reset();
+        LogFile.update(this._crc, this._view, pos + 4, RecordHeaderSize - 4 + msg_length);
+        return (int) this._crc.getValue();
+    }
+
+    /**
+     * checksum over a range of the buffer, changes position and limit of the buffer
+     */
+    private static void update(@NonNull CRC32 crc, @NonNull ByteBuffer buffer, int offset, int length)
+    {
+        buffer.clear();
+        buffer.position(offset);
+        buffer.limit(offset + length);
+        crc.update(buffer);
+    }
+
+    /**
+     * visits all valid records, invalid or partly overwritten areas are skipped
+     */
+    private static void scan(@NonNull ByteBuffer buffer, @NonNull ByteBuffer view, int size, @NonNull CRC32 crc, @NonNull IRecordVisitor visitor)
+    {
+        int pos = HeaderSize;
+        while (pos + RecordHeaderSize + 4 <= size)
+        {
+            if (buffer.getInt(pos) == RecordMagic)
+            {
+                int length = buffer.getInt(pos + 4);
+                int msg_length = buffer.getInt(pos + 28);
+                if (length >= RecordHeaderSize + 8 && (length & 7) == 0 && pos + length <= size && msg_length >= 0 && RecordHeaderSize + msg_length + 4 <= length)
+                {
+                    crc.reset();
+                    LogFile.update(crc, view, pos + 4, RecordHeaderSize - 4 + msg_length);
+                    if ((int) crc.getValue() == buffer.getInt(pos + RecordHeaderSize + msg_length))
+                    {
+                        visitor.visit(pos, length, buffer.getLong(pos + 8));
+                        pos += length;
+                        continue;
+                    }
+                }
+            }
+            pos += 8;
+        }
+    }
+}
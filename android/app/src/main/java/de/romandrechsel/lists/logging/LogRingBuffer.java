@@ -0,0 +1,118 @@
+package de.romandrechsel.lists.logging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * lock-free multi-producer, single-consumer ring buffer for log records
+ * producers never block, if the consumer falls behind, the oldest records are overwritten and counted as dropped
+ */
+public class LogRingBuffer
+{
+    public static class Record
+    {
+        public final long Seq;
+        public final long Time;
+        @NonNull
+        public final Logger.ELevel Level;
+        @NonNull
+        public final String Tag;
+        @NonNull
+        public final String Message;
+        @Nullable
+        public final Object Obj;
+
+        Record(long seq, @NonNull Logger.ELevel level, @NonNull String tag, @NonNull String message, @Nullable Object obj)
+        {
+            this.Seq = seq;
+            this.Time = System.currentTimeMillis();
+            this.Level = level;
+            this.Tag = tag;
+            this.Message = message;
+            this.Obj = obj;
+        }
+    }
+
+    private final AtomicReferenceArray<Record> _slots;
+    private final int _capacity;
+    private final int _mask;
+    private final AtomicLong _head = new AtomicLong(0);
+    private volatile long _tail = 0;
+
+    /**
+     * @param capacity number of records, rounded up to the next power of two
+     */
+    public LogRingBuffer(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this._capacity = size;
+        this._mask = size - 1;
+        this._slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * adds a record, may be called from any thread
+     *
+     * @return number of records, that are waiting to be drained
+     */
+    public long Add(@NonNull Logger.ELevel level, @NonNull String tag, @NonNull String message, @Nullable Object obj)
+    {
+        long seq = this._head.getAndIncrement();
+        this._slots.set((int) (seq & this._mask), new Record(seq, level, tag, message, obj));
+        return seq + 1 - this._tail;
+    }
+
+    /**
+     * drains records, must only be called from a single consumer thread
+     *
+     * @param out records are added to this list
+     * @param max maximum number of records to drain
+     * @return number of records, that were overwritten before they could be drained
+     */
+    public long Drain(@NonNull List<Record> out, int max)
+    {
+        long dropped = 0;
+        long tail = this._tail;
+        long head = this._head.get();
+
+        if (head - tail > this._capacity)
+        {
+            dropped += head - this._capacity - tail;
+            tail = head - this._capacity;
+        }
+
+        int drained = 0;
+        while (tail < head && drained < max)
+        {
+            Record record = this._slots.get((int) (tail & this._mask));
+            if (record == null || record.Seq < tail)
+            {
+                //the producer of this record did not publish it yet
+                break;
+            }
+            if (record.Seq == tail)
+            {
+                out.add(record);
+                drained++;
+            }
+            else
+            {
+                //overwritten by a producer, that lapped the consumer
+                dropped++;
+            }
+            tail++;
+        }
+
+        this._tail = tail;
+        return dropped;
+    }
+
+    public long Pending()
+    {
+        return Math.max(0, this._head.get() - this._tail);
+    }
+}
@@ -5,18 +5,96 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 
-import de.romandrechsel.lists.garmin.ConnectIQPlugin;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import de.romandrechsel.lists.metrics.Metrics;
 
 public class Logger
 {
-    public static ConnectIQPlugin Plugin = null
-        ;
+    public enum ELevel
+    {Debug, Notice, Important, Error}
+
+    public interface ILogListener
+    {
+        /**
+         * a batch of log records is ready
+         *
+         * @param batch object with the records in "logs" and the number of dropped records in "dropped"
+         */
+        void onLogs(@NonNull JSObject batch);
+    }
+
+    private static final String TAG = "Logger";
+
+    /**
+     * number of records, the ring buffer holds until the oldest records are dropped
+     */
+    public static final int BufferCapacity = 1024;
+    /**
+     * pending records are flushed after this number of milliseconds...
+     */
+    public static final long FlushInterval = 250;
+    /**
+     * ...or as soon as this number of records is pending
+     */
+    public static final int FlushRecords = 50;
+    /**
+     * maximum number of records in a single batch
+     */
+    public static final int MaxBatchSize = 200;
+
+    private static final LogRingBuffer _buffer = new LogRingBuffer(BufferCapacity);
+    /**
+     * counters of the records per level, resolved once so logging doesn't build metric names
+     */
+    private static final LongAdder[] _records = new LongAdder[ELevel.values().length];
+
+    static
+    {
+        for (ELevel level : ELevel.values())
+        {
+            Logger._records[level.ordinal()] = Metrics.Counter("log.records{level=" + level.name() + "}");
+        }
+    }
+
+    @Nullable
+    private static volatile ILogListener _listener = null;
+    @NonNull
+    private static volatile ELevel _minLevel = ELevel.Debug;
+    @Nullable
+    private static volatile LogFile _file = null;
+    @Nullable
+    private static volatile File _filePath = null;
+    private static int _fileSize = 0;
+    @Nullable
+    private static Thread _drainer = null;
+
+    @FunctionalInterface
+    public interface IMessage
+    {
+        /**
+         * builds the log message, only called if the level of the record is enabled
+         *
+         * @return log message
+         */
+        @NonNull
+        String build();
+    }
+
     public static void Debug(@NonNull String tag, @NonNull String message, Object obj)
     {
-        Logger.SendLog("debug", tag, message, obj);
-        Log.d(tag, message);
+        if (Logger.IsEnabled(ELevel.Debug))
+        {
+            Logger.SendLog(ELevel.Debug, tag, message, obj);
+            Log.d(tag, message);
+        }
     }
 
     public static void Debug(@NonNull String tag, @NonNull String message)
@@ -24,10 +102,26 @@ public class Logger
         Logger.Debug(tag, message, null);
     }
 
+    public static void Debug(@NonNull String tag, @NonNull IMessage message, Object obj)
+    {
+        if (Logger.IsEnabled(ELevel.Debug))
+        {
+            Logger.Debug(tag, message.build(), obj);
+        }
+    }
+
+    public static void Debug(@NonNull String tag, @NonNull IMessage message)
+    {
+        Logger.Debug(tag, message, null);
+    }
+
     public static void Notice(@NonNull String tag, @NonNull String message, Object obj)
     {
-        Logger.SendLog("notice", tag, message, obj);
-        Log.i(tag, message);
+        if (Logger.IsEnabled(ELevel.Notice))
+        {
+            Logger.SendLog(ELevel.Notice, tag, message, obj);
+            Log.i(tag, message);
+        }
     }
 
     public static void Notice(@NonNull String tag, @NonNull String message)
@@ -35,10 +129,26 @@ public class Logger
         Logger.Notice(tag, message, null);
     }
 
+    public static void Notice(@NonNull String tag, @NonNull IMessage message, Object obj)
+    {
+        if (Logger.IsEnabled(ELevel.Notice))
+        {
+            Logger.Notice(tag, message.build(), obj);
+        }
+    }
+
+    public static void Notice(@NonNull String tag, @NonNull IMessage message)
+    {
+        Logger.Notice(tag, message, null);
+    }
+
     public static void Important(@NonNull String tag, @NonNull String message, Object obj)
     {
-        Logger.SendLog("important", tag, message, obj);
-        Log.w(tag, message);
+        if (Logger.IsEnabled(ELevel.Important))
+        {
+            Logger.SendLog(ELevel.Important, tag, message, obj);
+            Log.w(tag, message);
+        }
     }
 
     public static void Important(@NonNull String tag, @NonNull String message)
@@ -46,11 +156,23 @@ public class Logger
         Logger.Important(tag, message, null);
     }
 
+    public static void Important(@NonNull String tag, @NonNull IMessage message, Object obj)
+    {
+        if (Logger.IsEnabled(ELevel.Important))
+        {
+            Logger.Important(tag, message.build(), obj);
+        }
+    }
+
+    public static void Important(@NonNull String tag, @NonNull IMessage message)
+    {
+        Logger.Important(tag, message, null);
+    }
+
     public static void Error(@NonNull String tag, @NonNull String message, Object obj)
     {
-        Logger.SendLog("error", tag, message, obj);
+        Logger.SendLog(ELevel.Error, tag, message, obj);
         Log.e(tag, message);
-
     }
 
     public static void Error(@NonNull String tag, @NonNull String message)
@@ -58,20 +180,246 @@ public class Logger
         Logger.Error(tag, message, null);
     }
 
-    private static void SendLog(@NonNull String level, @NonNull String tag, @NonNull String message, @Nullable Object obj)
+    public static void Error(@NonNull String tag, @NonNull IMessage message, Object obj)
+    {
+        Logger.Error(tag, message.build(), obj);
+    }
+
+    public static void Error(@NonNull String tag, @NonNull IMessage message)
+    {
+        Logger.Error(tag, message.build(), null);
+    }
+
+    /**
+     * checks, if records of a level are emitted at all, call sites can skip building messages and payloads if not
+     *
+     * @param level log level
+     * @return true, if the level is at or above the minimum level
+     */
+    public static boolean IsEnabled(@NonNull ELevel level)
+    {
+        return level.ordinal() >= Logger._minLevel.ordinal();
+    }
+
+    /**
+     * sets the listener for batched log records, starts the background drain thread if needed
+     *
+     * @param listener listener, null to stop emitting logs
+     */
+    public static synchronized void SetListener(@Nullable ILogListener listener)
     {
-        JSObject log = new JSObject();
-        log.put("level", level);
-        log.put("tag", tag);
-        log.put("message", message);
-        if (obj != null)
+        Logger._listener = listener;
+        if (listener != null)
         {
-            log.put("obj", obj);
+            Logger.startDrainer();
         }
+    }
+
+    /**
+     * sets the ring file, the drained log records are persisted to
+     * the file is opened by the drain thread on the first records, so the caller doesn't pay for mapping and scanning it
+     *
+     * @param path path of the ring file, null to stop persisting logs
+     * @param size size of the ring file in bytes
+     */
+    public static synchronized void SetFile(@Nullable File path, int size)
+    {
+        LogFile old = Logger._file;
+        Logger._file = null;
+        Logger._filePath = path;
+        Logger._fileSize = size;
+        if (old != null)
+        {
+            old.Close();
+        }
+        if (path != null)
+        {
+            Logger.startDrainer();
+        }
+    }
+
+    /**
+     * checks, if a ring file is set, without opening it
+     */
+    public static boolean HasFile()
+    {
+        return Logger._file != null || Logger._filePath != null;
+    }
+
+    /**
+     * gets the ring file, opens it if that didn't happen yet
+     *
+     * @return ring file, or null if none is set or it could not be opened
+     */
+    @Nullable
+    public static LogFile GetFile()
+    {
+        LogFile file = Logger._file;
+        if (file == null && Logger._filePath != null)
+        {
+            file = Logger.openFile();
+        }
+        return file;
+    }
+
+    @Nullable
+    private static synchronized LogFile openFile()
+    {
+        File path = Logger._filePath;
+        if (Logger._file == null && path != null)
+        {
+            //a failed open is not retried on every drain
+            Logger._filePath = null;
+            Logger._file = LogFile.Open(path, Logger._fileSize);
+        }
+        return Logger._file;
+    }
+
+    /**
+     * sets the minimum level of log records, that are emitted
+     *
+     * @param level minimum level
+     */
+    public static void SetMinLevel(@NonNull ELevel level)
+    {
+        if (Logger._minLevel != level)
+        {
+            Logger._minLevel = level;
+            Log.i(TAG, "Minimum log level set to " + level.name());
+        }
+    }
+
+    @NonNull
+    public static ELevel GetMinLevel()
+    {
+        return Logger._minLevel;
+    }
+
+    /**
+     * parses a log level name
+     *
+     * @param level level name (debug, notice, important, error)
+     * @return log level, or null if unknown
+     */
+    @Nullable
+    public static ELevel ParseLevel(@Nullable String level)
+    {
+        if (level != null)
+        {
+            for (ELevel l : ELevel.values())
+            {
+                if (l.name().equalsIgnoreCase(level))
+                {
+                    return l;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void SendLog(@NonNull ELevel level, @NonNull String tag, @NonNull String message, @Nullable Object obj)
+    {
+        Logger._records[level.ordinal()].increment();
+        long pending = Logger._buffer.Add(level, tag, message, obj);
+        if (pending >= FlushRecords)
+        {
+            Thread drainer = Logger._drainer;
+            if (drainer != null)
+            {
+                LockSupport.unpark(drainer);
+            }
+        }
+    }
+
+    private static void startDrainer()
+    {
+        if (Logger._drainer == null)
+        {
+            Thread drainer = new Thread(Logger::drainLoop, "LogDrainer");
+            drainer.setDaemon(true);
+            drainer.setPriority(Thread.MIN_PRIORITY);
+            drainer.start();
+            Logger._drainer = drainer;
+        }
+    }
+
+    private static void drainLoop()
+    {
+        ArrayList<LogRingBuffer.Record> records = new ArrayList<>(MaxBatchSize);
+        while (true)
+        {
+            LockSupport.parkNanos(FlushInterval * 1000000L);
+            try
+            {
+                ILogListener listener = Logger._listener;
+                LogFile file = Logger.GetFile();
+                while ((listener != null || file != null) && Logger._buffer.Pending() > 0)
+                {
+                    records.clear();
+                    long dropped = Logger._buffer.Drain(records, MaxBatchSize);
+                    if (records.isEmpty() && dropped == 0)
+                    {
+                        break;
+                    }
+                    if (file != null)
+                    {
+                        Logger.persist(file, records, dropped);
+                    }
+                    if (listener != null)
+                    {
+                        listener.onLogs(Logger.toBatch(records, dropped));
+                    }
+                }
+            }
+            catch (Exception ex)
+            {
+                Log.e(TAG, "Could not emit logs: " + ex.getMessage());
+            }
+        }
+    }
 
-        if (Logger.Plugin != null)
+    private static void persist(@NonNull LogFile file, @NonNull ArrayList<LogRingBuffer.Record> records, long dropped)
+    {
+        if (dropped > 0)
+        {
+            file.Append(System.currentTimeMillis(), ELevel.Important, TAG, dropped + " log message(s) dropped");
+        }
+        for (LogRingBuffer.Record record : records)
         {
-            Logger.Plugin.emitJsEvent("LOG", log);
+            file.Append(record.Time, record.Level, record.Tag, record.Message);
         }
     }
+
+    @NonNull
+    private static JSObject toBatch(@NonNull ArrayList<LogRingBuffer.Record> records, long dropped)
+    {
+        JSArray logs = new JSArray();
+        if (dropped > 0)
+        {
+            JSObject marker = new JSObject();
+            marker.put("level", "important");
+            marker.put("tag", TAG);
+            marker.put("message", dropped + " log message(s) dropped");
+            marker.put("dropped", dropped);
+            logs.put(marker);
+        }
+        for (LogRingBuffer.Record record : records)
+        {
+            JSObject log = new JSObject();
+            log.put("level", record.Level.name().toLowerCase(Locale.ROOT));
+            log.put("tag", record.Tag);
+            log.put("message", record.Message);
+            log.put("time", record.Time);
+            if (record.Obj != null)
+            {
+                log.put("obj", record.Obj);
+            }
+            logs.put(log);
+        }
+
+        JSObject batch = new JSObject();
+        batch.put("logs", logs);
+        batch.put("dropped", dropped);
+        return batch;
+    }
 }
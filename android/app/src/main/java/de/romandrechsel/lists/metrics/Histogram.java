@@ -0,0 +1,98 @@
+package de.romandrechsel.lists.metrics;
+
+import androidx.annotation.NonNull;
+
+import com.getcapacitor.JSObject;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * latency histogram with fixed buckets, recording is lock-free and doesn't allocate
+ * percentiles are estimated by the upper bound of the bucket, they fall in
+ */
+public class Histogram
+{
+    /**
+     * upper bounds of the buckets in milliseconds, larger values go to the overflow bucket
+     */
+    public static final long[] Bounds = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    private final LongAdder[] _buckets = new LongAdder[Bounds.length + 1];
+    private final LongAdder _sum = new LongAdder();
+    private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+
+    public Histogram()
+    {
+        for (int i = 0; i < this._buckets.length; i++)
+        {
+            this._buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * records a value
+     *
+     * @param value value in milliseconds
+     */
+    public void Record(long value)
+    {
+        value = Math.max(0, value);
+        int bucket = 0;
+        while (bucket < Bounds.length && value > Bounds[bucket])
+        {
+            bucket++;
+        }
+        this._buckets[bucket].increment();
+        this._sum.add(value);
+        this._max.accumulate(value);
+    }
+
+    /**
+     * gets count, sum, max and the estimated percentiles
+     *
+     * @param reset reset the histogram after reading it
+     * @return snapshot of the histogram
+     */
+    @NonNull
+    public JSObject Snapshot(boolean reset)
+    {
+        long[] counts = new long[this._buckets.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = reset ? this._buckets[i].sumThenReset() : this._buckets[i].sum();
+            count += counts[i];
+        }
+        long sum = reset ? this._sum.sumThenReset() : this._sum.sum();
+        long max = reset ? this._max.getThenReset() : this._max.get();
+
+        JSObject ret = new JSObject();
+        ret.put("count", count);
+        ret.put("sum", sum);
+        ret.put("max", max);
+        ret.put("p50", Histogram.percentile(counts, count, max, 0.5));
+        ret.put("p90", Histogram.percentile(counts, count, max, 0.9));
+        ret.put("p99", Histogram.percentile(counts, count, max, 0.99));
+        return ret;
+    }
+
+    private static long percentile(@NonNull long[] counts, long count, long max, double percentile)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                return i < Bounds.length ? Math.min(Bounds[i], max) : max;
+            }
+        }
+        return max;
+    }
+}
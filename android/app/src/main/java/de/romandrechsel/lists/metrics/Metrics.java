@@ -0,0 +1,125 @@
+package de.romandrechsel.lists.metrics;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * process wide registry of counters and latency histograms of the native layer
+ * metrics are created on first use, names carry the device and message type like "send.latency{device=1,type=list}"
+ */
+public class Metrics
+{
+    private static final ConcurrentHashMap<String, LongAdder> _counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> _histograms = new ConcurrentHashMap<>();
+    private static volatile long _since = SystemClock.elapsedRealtime();
+
+    @NonNull
+    public static LongAdder Counter(@NonNull String name)
+    {
+        LongAdder counter = Metrics._counters.get(name);
+        if (counter == null)
+        {
+            counter = Metrics._counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+        return counter;
+    }
+
+    @NonNull
+    public static Histogram Histogram(@NonNull String name)
+    {
+        Histogram histogram = Metrics._histograms.get(name);
+        if (histogram == null)
+        {
+            histogram = Metrics._histograms.computeIfAbsent(name, k -> new Histogram());
+        }
+        return histogram;
+    }
+
+    public static void Increment(@NonNull String name)
+    {
+        Metrics.Counter(name).increment();
+    }
+
+    public static void Add(@NonNull String name, long value)
+    {
+        Metrics.Counter(name).add(value);
+    }
+
+    /**
+     * records a value in milliseconds in a histogram
+     *
+     * @param name  name of the histogram
+     * @param value value in milliseconds
+     */
+    public static void Record(@NonNull String name, long value)
+    {
+        Metrics.Histogram(name).Record(value);
+    }
+
+    /**
+     * name of a metric of a device
+     *
+     * @param name      name of the metric
+     * @param device_id device identifier
+     * @return name with the device label
+     */
+    @NonNull
+    public static String Key(@NonNull String name, long device_id)
+    {
+        return name + "{device=" + device_id + "}";
+    }
+
+    /**
+     * name of a metric of a device and a message type
+     *
+     * @param name      name of the metric
+     * @param device_id device identifier
+     * @param type      message type, null for messages without type
+     * @return name with the device and type labels
+     */
+    @NonNull
+    public static String Key(@NonNull String name, long device_id, @Nullable String type)
+    {
+        return name + "{device=" + device_id + ",type=" + (type != null ? type : "") + "}";
+    }
+
+    /**
+     * gets all metrics
+     *
+     * @param reset reset all metrics after reading them, so the next snapshot covers the time since this one
+     * @return object with "since_ms", "counters" and "histograms"
+     */
+    @NonNull
+    public static JSObject Snapshot(boolean reset)
+    {
+        long now = SystemClock.elapsedRealtime();
+        JSObject counters = new JSObject();
+        for (Map.Entry<String, LongAdder> entry : Metrics._counters.entrySet())
+        {
+            counters.put(entry.getKey(), reset ? entry.getValue().sumThenReset() : entry.getValue().sum());
+        }
+        JSObject histograms = new JSObject();
+        for (Map.Entry<String, Histogram> entry : Metrics._histograms.entrySet())
+        {
+            histograms.put(entry.getKey(), entry.getValue().Snapshot(reset));
+        }
+
+        JSObject ret = new JSObject();
+        ret.put("since_ms", now - Metrics._since);
+        ret.put("counters", counters);
+        ret.put("histograms", histograms);
+        if (reset)
+        {
+            Metrics._since = now;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,353 @@
+package de.romandrechsel.lists.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * compact wire format (revision 2) of list messages, for devices that announced support for it
+ * <p>
+ * line 0 is always "rev=2", so the revision can be read by a device, that only knows revision 1
+ * list keys are replaced by short integer codes ("1=name" instead of "t=name"), uuids are packed to 22 base64 chars
+ * items are positional records "order:uuid text", followed by "\u001F note", if the item has a note
+ * lines, that are not part of the dictionary, are kept as they are
+ */
+public class CompactCodec
+{
+    public static final int Revision = 2;
+    public static final int LegacyRevision = 1;
+
+    private static final String KeyRevision = "rev";
+    private static final String KeyUuid = "uuid";
+    private static final String ItemPrefix = "it";
+    private static final String ItemUuid = "uuid";
+    private static final String ItemText = "i";
+    private static final String ItemNote = "n";
+    private static final char NoteSeparator = '\u001F';
+    private static final int PackedUuidLength = 22;
+
+    /**
+     * key dictionary of the list header, the index is the code on the wire
+     */
+    private static final String[] HeaderKeys = {"uuid", "t", "d", "o", "r_a", "r_i", "r_h", "r_m", "r_w", "r_d"};
+    private static final HashMap<String, Integer> HeaderCodes = new HashMap<>();
+
+    static
+    {
+        for (int i = 0; i < HeaderKeys.length; i++)
+        {
+            HeaderCodes.put(HeaderKeys[i], i);
+        }
+    }
+
+    private static class Item
+    {
+        @Nullable
+        String Uuid = null;
+        @Nullable
+        String Text = null;
+        @Nullable
+        String Note = null;
+    }
+
+    /**
+     * checks, if a message is in the compact format
+     *
+     * @param lines message lines
+     * @return true, if the first line announces revision 2
+     */
+    public static boolean IsCompact(@NonNull List<?> lines)
+    {
+        return !lines.isEmpty() && (KeyRevision + "=" + Revision).equals(lines.get(0));
+    }
+
+    /**
+     * encodes a list message
+     *
+     * @param lines key=value lines of the list, as produced by DeviceUtils.SerializeToStringArray
+     * @return compact lines, or null if the message can't be encoded and has to be sent as it is
+     */
+    @Nullable
+    public static ArrayList<String> Encode(@NonNull List<String> lines)
+    {
+        ArrayList<String> header = new ArrayList<>();
+        LinkedHashMap<Integer, Item> items = new LinkedHashMap<>();
+        header.add(KeyRevision + "=" + Revision);
+
+        for (String line : lines)
+        {
+            int split = line.indexOf('=');
+            if (split <= 0)
+            {
+                if (!line.isEmpty() && Character.isDigit(line.charAt(0)))
+                {
+                    return null;
+                }
+                header.add(line);
+                continue;
+            }
+
+            String key = line.substring(0, split);
+            String value = line.substring(split + 1);
+            if (KeyRevision.equals(key))
+            {
+                continue;
+            }
+
+            Integer code = HeaderCodes.get(key);
+            if (code != null)
+            {
+                if (KeyUuid.equals(key))
+                {
+                    value = CompactCodec.PackUuid(value);
+                    if (value == null)
+                    {
+                        return null;
+                    }
+                }
+                header.add(code + "=" + value);
+                continue;
+            }
+
+            int order = CompactCodec.ItemOrder(key);
+            String field = order >= 0 ? key.substring(key.indexOf('_') + 1) : null;
+            if (field != null && (field.equals(ItemUuid) || field.equals(ItemText) || field.equals(ItemNote)))
+            {
+                Item item = items.get(order);
+                if (item == null)
+                {
+                    item = new Item();
+                    items.put(order, item);
+                }
+                switch (field)
+                {
+                    case ItemUuid -> item.Uuid = value;
+                    case ItemText -> item.Text = value;
+                    default -> item.Note = value;
+                }
+            }
+            else if (Character.isDigit(key.charAt(0)))
+            {
+                //would be read as a key code
+                return null;
+            }
+            else
+            {
+                header.add(line);
+            }
+        }
+
+        for (Map.Entry<Integer, Item> entry : items.entrySet())
+        {
+            Item item = entry.getValue();
+            String uuid = item.Uuid != null ? CompactCodec.PackUuid(item.Uuid) : null;
+            if (uuid == null || item.Text == null || item.Text.indexOf(NoteSeparator) >= 0)
+            {
+                return null;
+            }
+            StringBuilder record = new StringBuilder(entry.getKey().toString().length() + 1 + PackedUuidLength + item.Text.length() + (item.Note != null ? item.Note.length() + 1 : 0));
+            record.append(entry.getKey()).append(':').append(uuid).append(item.Text);
+            if (item.Note != null)
+            {
+                record.append(NoteSeparator).append(item.Note);
+            }
+            header.add(record.toString());
+        }
+
+        return header;
+    }
+
+    /**
+     * decodes a compact list message back to key=value lines
+     *
+     * @param lines compact lines
+     * @return key=value lines with "rev=1", or null if the message is malformed
+     */
+    @Nullable
+    public static ArrayList<String> Decode(@NonNull List<?> lines)
+    {
+        if (!CompactCodec.IsCompact(lines))
+        {
+            return null;
+        }
+
+        ArrayList<String> ret = new ArrayList<>(lines.size() * 2);
+        ArrayList<String> items = new ArrayList<>(lines.size() * 2);
+        for (int i = 1; i < lines.size(); i++)
+        {
+            String line = String.valueOf(lines.get(i));
+            int digits = 0;
+            while (digits < line.length() && Character.isDigit(line.charAt(digits)))
+            {
+                digits++;
+            }
+
+            if (digits == 0 || digits == line.length())
+            {
+                ret.add(line);
+            }
+            else if (line.charAt(digits) == '=')
+            {
+                int code = Integer.parseInt(line.substring(0, digits));
+                if (code >= HeaderKeys.length)
+                {
+                    return null;
+                }
+                String value = line.substring(digits + 1);
+                if (KeyUuid.equals(HeaderKeys[code]))
+                {
+                    value = CompactCodec.UnpackUuid(value);
+                    if (value == null)
+                    {
+                        return null;
+                    }
+                }
+                ret.add(HeaderKeys[code] + "=" + value);
+                if (code == HeaderCodes.get("o"))
+                {
+                    ret.add(KeyRevision + "=" + LegacyRevision);
+                }
+            }
+            else if (line.charAt(digits) == ':' && line.length() >= digits + 1 + PackedUuidLength)
+            {
+                String order = line.substring(0, digits);
+                int start = digits + 1;
+                String uuid = CompactCodec.UnpackUuid(line.substring(start, start + PackedUuidLength));
+                if (uuid == null)
+                {
+                    return null;
+                }
+                String rest = line.substring(start + PackedUuidLength);
+                int note = rest.indexOf(NoteSeparator);
+                String prefix = ItemPrefix + order + "_";
+                items.add(prefix + ItemUuid + "=" + uuid);
+                items.add(prefix + ItemText + "=" + (note >= 0 ? rest.substring(0, note) : rest));
+                if (note >= 0)
+                {
+                    items.add(prefix + ItemNote + "=" + rest.substring(note + 1));
+                }
+            }
+            else
+            {
+                return null;
+            }
+        }
+
+        if (!ret.contains(KeyRevision + "=" + LegacyRevision))
+        {
+            ret.add(KeyRevision + "=" + LegacyRevision);
+        }
+        //items are placed before trailing header keys (reset settings), like in revision 1
+        int insert = ret.size();
+        for (int i = 0; i < ret.size(); i++)
+        {
+            if (ret.get(i).startsWith("r_"))
+            {
+                insert = i;
+                break;
+            }
+        }
+        ret.addAll(insert, items);
+        return ret;
+    }
+
+    /**
+     * packs a uuid string to 22 chars of url safe base64
+     *
+     * @param uuid uuid in the 8-4-4-4-12 format
+     * @return packed uuid, or null if the string is no uuid
+     */
+    @Nullable
+    public static String PackUuid(@NonNull String uuid)
+    {
+        if (uuid.length() != 36 || uuid.charAt(8) != '-' || uuid.charAt(13) != '-' || uuid.charAt(18) != '-' || uuid.charAt(23) != '-')
+        {
+            return null;
+        }
+        byte[] bytes = new byte[16];
+        int b = 0;
+        for (int i = 0; i < 36; )
+        {
+            if (uuid.charAt(i) == '-')
+            {
+                i++;
+                continue;
+            }
+            int hi = Character.digit(uuid.charAt(i), 16);
+            int lo = Character.digit(uuid.charAt(i + 1), 16);
+            if (hi < 0 || lo < 0)
+            {
+                return null;
+            }
+            bytes[b++] = (byte) ((hi << 4) | lo);
+            i += 2;
+        }
+        //the packed form is always lower case, mixed case uuids would not survive the round trip
+        if (!uuid.equals(uuid.toLowerCase()))
+        {
+            return null;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * unpacks a uuid, that was packed by PackUuid
+     *
+     * @param packed 22 chars of url safe base64
+     * @return uuid in the 8-4-4-4-12 format, or null if the string is malformed
+     */
+    @Nullable
+    public static String UnpackUuid(@NonNull String packed)
+    {
+        if (packed.length() != PackedUuidLength)
+        {
+            return null;
+        }
+        byte[] bytes;
+        try
+        {
+            bytes = Base64.getUrlDecoder().decode(packed);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong()).toString();
+    }
+
+    /**
+     * gets the order of an item key like "it12_uuid"
+     *
+     * @param key key
+     * @return order, or -1 if the key is no item key
+     */
+    private static int ItemOrder(@NonNull String key)
+    {
+        if (!key.startsWith(ItemPrefix))
+        {
+            return -1;
+        }
+        int underscore = key.indexOf('_', ItemPrefix.length());
+        if (underscore <= ItemPrefix.length() || underscore - ItemPrefix.length() > 9)
+        {
+            return -1;
+        }
+        for (int i = ItemPrefix.length(); i < underscore; i++)
+        {
+            if (!Character.isDigit(key.charAt(i)))
+            {
+                return -1;
+            }
+        }
+        return Integer.parseInt(key.substring(ItemPrefix.length(), underscore));
+    }
+}
@@ -7,10 +7,17 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import org.jetbrains.annotations.NotNull;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +29,13 @@ public class DeviceUtils
 {
     private static final String TAG = "DeviceUtil";
 
+    /**
+     * estimated serialization overhead of a single string in a message
+     */
+    public static final int StringOverhead = 4;
+
+    private static final KeyInterner _keys = new KeyInterner();
+
     @NonNull
     public static ArrayList<String> SerializeToStringArray(@NonNull Object obj)
     {
@@ -59,6 +73,42 @@ public class DeviceUtils
         {
             ret.add(prim.getAsString());
         }
+        else if (obj instanceof JSONArray array)
+        {
+            for (int i = 0; i < array.length(); i++)
+            {
+                try
+                {
+                    ret.add(DeviceUtils.MakeString(array.opt(i)));
+                }
+                catch (DeviceMessageSerializeException ex)
+                {
+                    error_occured = true;
+                    Logger.Error(TAG, ex.getMessage());
+                }
+            }
+        }
+        else if (obj instanceof JSONObject json)
+        {
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext())
+            {
+                String key = keys.next();
+                try
+                {
+                    var val = DeviceUtils.MakeString(json.opt(key));
+                    if (!key.isEmpty())
+                    {
+                        ret.add(key + "=" + val);
+                    }
+                }
+                catch (DeviceMessageSerializeException ex)
+                {
+                    Logger.Error(TAG, ex.getMessage());
+                    error_occured = true;
+                }
+            }
+        }
         else if (obj.getClass().isPrimitive())
         {
             ret.add(obj.toString());
@@ -91,48 +141,219 @@ public class DeviceUtils
         return ret;
     }
 
+    /**
+     * flattens a json string to a string array message, without building a json tree
+     * arrays are flattened to their values, objects to key=value lines
+     *
+     * @param json json string
+     * @return message lines
+     * @throws IOException if the json is malformed
+     */
+    @NonNull
+    public static ArrayList<String> FlattenJson(@NonNull String json) throws IOException
+    {
+        ArrayList<String> ret = new ArrayList<>();
+        boolean error_occured = false;
+
+        try (JsonReader reader = new JsonReader(new StringReader(json)))
+        {
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_ARRAY)
+            {
+                reader.beginArray();
+                while (reader.hasNext())
+                {
+                    String val = DeviceUtils.NextString(reader);
+                    if (val != null)
+                    {
+                        ret.add(val);
+                    }
+                    else
+                    {
+                        error_occured = true;
+                    }
+                }
+                reader.endArray();
+            }
+            else if (token == JsonToken.BEGIN_OBJECT)
+            {
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    String key = reader.nextName();
+                    String val = DeviceUtils.NextString(reader);
+                    if (val == null)
+                    {
+                        error_occured = true;
+                    }
+                    else if (!key.isEmpty())
+                    {
+                        ret.add(key + "=" + val);
+                    }
+                }
+                reader.endObject();
+            }
+            else
+            {
+                String val = DeviceUtils.NextString(reader);
+                if (val != null)
+                {
+                    ret.add(val);
+                }
+            }
+        }
+
+        if (error_occured)
+        {
+            ret.add(0, "error=true");
+        }
+
+        return ret;
+    }
+
+    /**
+     * decodes an inbound string array message in a single pass
+     * lines are split at the first '=' in key and value, keys are interned
+     *
+     * @param obj inbound payload
+     * @return decoded message, or null if the payload could not be decoded
+     */
     @Nullable
     public static DeviceMessage DeserializeStringArray(Object obj)
     {
         DeviceMessage msg = new DeviceMessage();
-        if (obj instanceof ArrayList<?> arr)
+        if (obj instanceof List<?> arr)
         {
-            for (Object arr_obj : arr)
+            for (int i = 0; i < arr.size(); i++)
             {
+                Object arr_obj = arr.get(i);
                 try
                 {
-                    String item = String.valueOf(arr_obj);
-                    msg.Size += item.length() * 2;
+                    String item = arr_obj instanceof String str ? str : String.valueOf(arr_obj);
+                    msg.Size += DeviceUtils.Utf8Length(item);
 
-                    String[] split = item.split("=", 2);
-                    if (split.length == 1)
+                    int split = item.indexOf('=');
+                    if (split >= 0)
                     {
-                        msg.Message.put(split[0], null);
+                        msg.Message.put(DeviceUtils._keys.Intern(item, 0, split), item.substring(split + 1));
                     }
                     else
                     {
-                        msg.Message.put(split[0], split[1]);
+                        //lines without value (e.g. bare log lines) are kept as key without value
+                        msg.Message.put(item, JSONObject.NULL);
                     }
                 }
                 catch (Exception ex)
                 {
-                    Logger.Error(TAG, "Could not deserialize " + arr_obj.getClass(), arr_obj);
+                    Logger.Error(TAG, "Could not deserialize " + (arr_obj != null ? arr_obj.getClass() : "null"), arr_obj);
                     return null;
                 }
             }
         }
-        else
+
+        return msg;
+    }
+
+    /**
+     * gets the value of a key in a string array message
+     *
+     * @param data message
+     * @param key  key to look for
+     * @return value of the first line with the key, or null if not found
+     */
+    @Nullable
+    public static String GetValue(@NonNull List<String> data, @NonNull String key)
+    {
+        for (String line : data)
         {
+            if (line.length() > key.length() && line.charAt(key.length()) == '=' && line.startsWith(key))
+            {
+                return line.substring(key.length() + 1);
+            }
+        }
+        return null;
+    }
 
+    /**
+     * estimated size of a string array message on the wire
+     *
+     * @param data message
+     * @return size in bytes
+     */
+    public static int EstimateSize(@NonNull List<String> data)
+    {
+        int size = 0;
+        for (String line : data)
+        {
+            size += DeviceUtils.Utf8Length(line) + DeviceUtils.StringOverhead;
         }
+        return size;
+    }
 
-        return msg;
+    /**
+     * length of a string in utf-8 encoding, without encoding it
+     *
+     * @param str string
+     * @return length in bytes
+     */
+    public static int Utf8Length(@NonNull CharSequence str)
+    {
+        int len = 0;
+        for (int i = 0; i < str.length(); i++)
+        {
+            char c = str.charAt(i);
+            if (c < 0x80)
+            {
+                len++;
+            }
+            else if (c < 0x800)
+            {
+                len += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1)))
+            {
+                len += 4;
+                i++;
+            }
+            else
+            {
+                len += 3;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * reads the next scalar value of a json reader as string
+     * nested arrays or objects are skipped
+     *
+     * @param reader json reader
+     * @return value, or null if the value could not be serialized
+     */
+    @Nullable
+    private static String NextString(@NonNull JsonReader reader) throws IOException
+    {
+        switch (reader.peek())
+        {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return reader.nextBoolean() ? "true" : "false";
+            case NULL:
+                reader.nextNull();
+                return "";
+            default:
+                Logger.Error(TAG, "Could not serialize nested json value at " + reader.getPath());
+                reader.skipValue();
+                return null;
+        }
     }
 
     @NotNull
     private static String MakeString(@Nullable Object obj) throws DeviceMessageSerializeException
     {
-        if (obj == null)
+        if (obj == null || obj == JSONObject.NULL)
         {
             return "";
         }
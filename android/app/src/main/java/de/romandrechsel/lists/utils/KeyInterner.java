@@ -0,0 +1,50 @@
+package de.romandrechsel.lists.utils;
+
+import androidx.annotation.NonNull;
+
+/**
+ * lock-free cache of recurring message keys, to avoid allocating a new key string for every inbound line
+ * collisions simply replace the cached key, races between threads only cost an additional allocation
+ */
+public class KeyInterner
+{
+    private static final int Size = 512;
+    private static final int MaxKeyLength = 32;
+
+    private final String[] _keys = new String[Size];
+
+    /**
+     * gets the key of a line, without allocating a new string, if the key is already known
+     *
+     * @param line  line to get the key from
+     * @param start first char of the key
+     * @param end   end of the key (exclusive)
+     * @return key string
+     */
+    @NonNull
+    public String Intern(@NonNull String line, int start, int end)
+    {
+        int len = end - start;
+        if (len > MaxKeyLength)
+        {
+            return line.substring(start, end);
+        }
+
+        int hash = 0;
+        for (int i = start; i < end; i++)
+        {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (Size - 1);
+
+        String cached = this._keys[slot];
+        if (cached != null && cached.length() == len && line.regionMatches(start, cached, 0, len))
+        {
+            return cached;
+        }
+
+        String key = line.substring(start, end);
+        this._keys[slot] = key;
+        return key;
+    }
+}
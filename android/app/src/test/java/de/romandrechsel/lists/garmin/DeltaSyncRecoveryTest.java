@@ -0,0 +1,77 @@
+package de.romandrechsel.lists.garmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * recovery of the delta sync, when a device reports, that its revision of a list doesn't match the base of a delta
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 35)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class DeltaSyncRecoveryTest
+{
+    private static final int Items = 10;
+
+    private SoakHarness _harness;
+
+    @Before
+    public void setUp()
+    {
+        this._harness = new SoakHarness();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this._harness.Close();
+    }
+
+    /**
+     * the device lost a list, the next delta is answered with a mismatch
+     * the full list must be sent again, although the payload of the delta was acknowledged
+     */
+    @Test
+    public void deltaMismatchResendsFullList()
+    {
+        SimulatedTransport.Profile profile = new SimulatedTransport.Profile();
+        profile.Devices = 1;
+        this._harness.Start(profile, null, false);
+        long device_id = this._harness.Manager.Devices().Devices.get(0).Id;
+        String uuid = new UUID(1, 2).toString();
+
+        assertEquals("full list", DeviceInfo.EMessageSendResult.Success, this.send(device_id, SoakHarness.ListJson(uuid, Items, 0)));
+        assertEquals("delta", DeviceInfo.EMessageSendResult.Success, this.send(device_id, SoakHarness.ListJson(uuid, Items, 1)));
+        assertEquals("item after the delta", "Item 1 (changed 1)", this._harness.Transport.ListValue(device_id, uuid, "it1_i"));
+
+        this._harness.Transport.ForgetList(device_id, uuid);
+        this._harness.RunFor(100);
+        assertNull("list on the device after it was lost", this._harness.Transport.ListValue(device_id, uuid, "uuid"));
+
+        assertEquals("delta after the list was lost", DeviceInfo.EMessageSendResult.Success, this.send(device_id, SoakHarness.ListJson(uuid, Items, 2)));
+        this._harness.RunFor(2000);
+        assertEquals("changed item after the resend", "Item 2 (changed 2)", this._harness.Transport.ListValue(device_id, uuid, "it2_i"));
+        assertEquals("reverted item after the resend", "Item 1", this._harness.Transport.ListValue(device_id, uuid, "it1_i"));
+    }
+
+    private DeviceInfo.EMessageSendResult send(long device_id, @NonNull String json)
+    {
+        AtomicReference<DeviceInfo.EMessageSendResult> result = new AtomicReference<>();
+        this._harness.Manager.SendToDevice(device_id, ListDeltaSync.MessageTypeList, json, null, 0, send_result -> result.set(send_result.Result));
+        this._harness.RunFor(2000);
+        return result.get();
+    }
+}
@@ -0,0 +1,146 @@
+package de.romandrechsel.lists.garmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.romandrechsel.lists.logging.Logger;
+import de.romandrechsel.lists.metrics.Metrics;
+
+/**
+ * leak tests of the device layer against the local simulator, short enough to run with every build
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 35)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class DeviceLayerLeakTest
+{
+    /**
+     * growth of the used heap, that is accepted between the warm up and the end of the cycles
+     */
+    private static final long MaxHeapGrowth = 16 * 1024 * 1024;
+
+    private SoakHarness _harness;
+
+    @Before
+    public void setUp()
+    {
+        Metrics.Snapshot(true);
+        this._harness = new SoakHarness();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this._harness.Close();
+    }
+
+    /**
+     * initialize, send and shut down like the plugin does, many times
+     * managers, devices, worker threads and the plugin behind the static log listener must be released
+     */
+    @Test
+    public void initializeShutdownCyclesReleaseEverything()
+    {
+        ArrayList<WeakReference<Object>> released = new ArrayList<>();
+        int worker_threads = DeviceLayerLeakTest.threads("IQWorker");
+        long heap_before = 0;
+        int cycles = 200;
+        for (int i = 0; i < cycles; i++)
+        {
+            SoakHarness.RecordingPlugin plugin = new SoakHarness.RecordingPlugin();
+            Logger.SetListener(batch -> plugin.emitJsEvent("LOG", batch));
+
+            SimulatedTransport.Profile profile = new SimulatedTransport.Profile();
+            profile.Seed = i;
+            this._harness.Start(profile, null, i % 2 == 0);
+            this._harness.StartLoad(500, 0, 2);
+            this._harness.RunFor(5 * 1000);
+
+            List<DeviceSnapshot> snapshots = this._harness.Manager.Devices().Devices;
+            assertEquals("devices in cycle " + i, profile.Devices, snapshots.size());
+            for (DeviceSnapshot device : snapshots)
+            {
+                assertEquals("state of " + device + " in cycle " + i, DeviceInfo.DeviceState.Ready, device.State);
+            }
+            DeviceManager manager = this._harness.Manager;
+            List<DeviceInfo> devices = this._harness.OnLoop(manager::getDevices);
+            for (DeviceInfo device : devices)
+            {
+                released.add(new WeakReference<>(device));
+            }
+            released.add(new WeakReference<>(this._harness.Manager));
+            released.add(new WeakReference<>(this._harness.Transport));
+            released.add(new WeakReference<>(plugin));
+
+            //shut down in the middle of transfers
+            this._harness.Stop();
+            Logger.SetListener(null);
+            this._harness.RunFor(SendQueue.DefaultTimeout + 1000);
+            devices = null;
+            manager = null;
+
+            if (i == 10)
+            {
+                heap_before = SoakHarness.UsedHeap();
+            }
+        }
+        long heap_after = SoakHarness.UsedHeap();
+        this._harness.Drain(60 * 1000);
+
+        assertEquals("outstanding callbacks", 0, this._harness.Outstanding.get());
+        assertEquals("pending timeouts", 0, TimeoutWheel.Shared().Pending());
+        DeviceLayerLeakTest.awaitThreads("IQWorker", worker_threads);
+        for (WeakReference<Object> reference : released)
+        {
+            DeviceLayerLeakTest.awaitReleased(reference);
+        }
+        assertTrue("heap grew from " + heap_before + " to " + heap_after, heap_after - heap_before < MaxHeapGrowth);
+    }
+
+    private static int threads(String name)
+    {
+        int ret = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if (thread.isAlive() && name.equals(thread.getName()) && thread != Looper.getMainLooper().getThread())
+            {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    private static void awaitThreads(String name, int expected)
+    {
+        for (int i = 0; i < 100 && DeviceLayerLeakTest.threads(name) > expected; i++)
+        {
+            SoakHarness.sleep(20);
+        }
+        assertEquals("running " + name + " threads", expected, DeviceLayerLeakTest.threads(name));
+    }
+
+    private static void awaitReleased(WeakReference<Object> reference)
+    {
+        for (int i = 0; i < 50 && reference.get() != null; i++)
+        {
+            System.gc();
+            SoakHarness.sleep(10);
+        }
+        assertNull("not released: " + reference.get(), reference.get());
+    }
+}
@@ -0,0 +1,169 @@
+package de.romandrechsel.lists.garmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.getcapacitor.JSObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.ArrayList;
+
+import de.romandrechsel.lists.metrics.Histogram;
+import de.romandrechsel.lists.metrics.Metrics;
+
+/**
+ * soak tests of the device layer against the local simulator, in simulated time on the jvm
+ * only run on request: ./gradlew test -PsoakHours=n, n is the simulated duration in hours
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 35)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class DeviceLayerSoakTest
+{
+    private static final long Minute = 60 * 1000;
+    private static final long Hour = 60 * Minute;
+    /**
+     * growth of the used heap, that is accepted between the warm up and the end of a soak
+     */
+    private static final long MaxHeapGrowth = 16 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder Folder = new TemporaryFolder();
+
+    private SoakHarness _harness;
+
+    @Before
+    public void setUp()
+    {
+        Metrics.Snapshot(true);
+        this._harness = new SoakHarness();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this._harness.Close();
+    }
+
+    /**
+     * a list to every device every 2 seconds and a log request every minute, on a lossy link
+     * latency percentiles must not drift between the first and the last phase, heap and queues must stay bounded
+     */
+    @Test
+    public void sustainedLoadKeepsLatencyAndMemoryBounded() throws Exception
+    {
+        SimulatedTransport.Profile profile = new SimulatedTransport.Profile();
+        profile.Devices = 3;
+        profile.Loss = 0.02;
+        profile.WireRevision = 2;
+        this._harness.Start(profile, this.Folder.newFolder("outbox"), false);
+        this._harness.StartLoad(2000, Minute, 5);
+
+        long hours = DeviceLayerSoakTest.soakHours();
+        long phase = hours * Hour / 4;
+        ArrayList<JSObject> phases = new ArrayList<>();
+        long heap_after_warm_up = 0;
+        for (int i = 0; i < 4; i++)
+        {
+            this._harness.Latency = new Histogram();
+            this._harness.RunFor(phase);
+            phases.add(this._harness.Latency.Snapshot(false));
+            if (i == 0)
+            {
+                heap_after_warm_up = SoakHarness.UsedHeap();
+            }
+            assertTrue("pending sends " + this._harness.PendingSends(), this._harness.PendingSends() < 3 * 10);
+        }
+        long heap_at_end = SoakHarness.UsedHeap();
+
+        this._harness.StopLoad();
+        this._harness.Drain(Minute);
+
+        long sends = hours * Hour / 2000 * profile.Devices;
+        assertTrue("sends " + this._harness.Result("Success"), this._harness.Result("Success") > sends * 9 / 10);
+        assertTrue("log responses " + this._harness.Result("Response"), this._harness.Result("Response") > hours * 60 * 9 / 10);
+        assertEquals("outstanding callbacks", 0, this._harness.Outstanding.get());
+        assertTrue("max outstanding callbacks " + this._harness.MaxOutstanding.get(), this._harness.MaxOutstanding.get() < 10 * profile.Devices);
+        assertEquals("pending transactions", 0, this._harness.Manager.Transactions.Pending());
+        assertEquals("pending timeouts", 0, TimeoutWheel.Shared().Pending());
+        assertEquals("pending sends", 0, this._harness.PendingSends());
+
+        long first_p99 = phases.get(0).optLong("p99", 0);
+        for (JSObject snapshot : phases)
+        {
+            //percentiles are bucket bounds, a drift shows as a jump of more than one bucket
+            assertTrue("p99 drifted from " + first_p99 + " to " + snapshot.optLong("p99", 0), snapshot.optLong("p99", 0) <= DeviceLayerSoakTest.nextBucket(DeviceLayerSoakTest.nextBucket(first_p99)));
+            assertTrue("p50 " + snapshot.optLong("p50", 0), snapshot.optLong("p50", 0) <= phases.get(0).optLong("p90", 0));
+        }
+        assertTrue("heap grew from " + heap_after_warm_up + " to " + heap_at_end, heap_at_end - heap_after_warm_up < MaxHeapGrowth);
+    }
+
+    /**
+     * devices drop the connection every 20 seconds on average for 3 seconds, while lists and log requests keep coming
+     * some messages vanish without an acknowledgement and must time out
+     * every send must be answered exactly once, lists sent while a device was away must arrive via the outbox
+     */
+    @Test
+    public void reconnectStormsDeliverEveryCallback() throws Exception
+    {
+        SimulatedTransport.Profile profile = new SimulatedTransport.Profile();
+        profile.Devices = 4;
+        profile.ChurnInterval = 20 * 1000;
+        profile.ChurnDowntime = 3 * 1000;
+        profile.Loss = 0.01;
+        profile.Drop = 0.001;
+        this._harness.Start(profile, this.Folder.newFolder("outbox"), false);
+        this._harness.StartLoad(1000, 15 * 1000, 8);
+
+        long hours = DeviceLayerSoakTest.soakHours();
+        this._harness.RunFor(10 * Minute);
+        long heap_after_warm_up = SoakHarness.UsedHeap();
+        this._harness.RunFor(hours * Hour - 10 * Minute);
+        long heap_at_end = SoakHarness.UsedHeap();
+
+        this._harness.StopLoad();
+        this._harness.Drain(2 * Minute);
+
+        JSObject metrics = Metrics.Snapshot(false);
+        long disconnects = metrics.getJSONObject("counters").optLong("sim.disconnects", 0);
+        assertTrue("disconnects " + disconnects, disconnects > hours * Hour / profile.ChurnInterval * profile.Devices / 2);
+        assertTrue("queued " + this._harness.Result("Queued"), this._harness.Result("Queued") > 0);
+        assertTrue("timeouts " + this._harness.Result("Timeout"), this._harness.Result("Timeout") > 0);
+        assertEquals("outstanding callbacks", 0, this._harness.Outstanding.get());
+        assertTrue("max outstanding callbacks " + this._harness.MaxOutstanding.get(), this._harness.MaxOutstanding.get() < 20 * profile.Devices);
+        assertEquals("pending transactions", 0, this._harness.Manager.Transactions.Pending());
+        assertEquals("pending timeouts", 0, TimeoutWheel.Shared().Pending());
+        assertEquals("pending sends", 0, this._harness.PendingSends());
+        for (DeviceSnapshot device : this._harness.Manager.Devices().Devices)
+        {
+            assertEquals("lists on device " + device, 8, this._harness.Transport.ListCount(device.Id));
+        }
+        assertTrue("heap grew from " + heap_after_warm_up + " to " + heap_at_end, heap_at_end - heap_after_warm_up < MaxHeapGrowth);
+    }
+
+    private static long soakHours()
+    {
+        return Math.max(1, Long.getLong("soak.hours", 2));
+    }
+
+    private static long nextBucket(long value)
+    {
+        for (long bound : Histogram.Bounds)
+        {
+            if (bound > value)
+            {
+                return bound;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,464 @@
+package de.romandrechsel.lists.garmin;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.getcapacitor.JSObject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.romandrechsel.lists.metrics.Histogram;
+
+/**
+ * drives a device manager against the local simulator in simulated time
+ * the simulator and the load run on the main looper, the clock only moves, when the harness advances it
+ * the shared timing wheel runs on the simulated clock too, the harness expires its timeouts
+ * time jumps from task to task, so hours of simulated time take seconds
+ */
+public class SoakHarness
+{
+    /**
+     * plugin, that counts the events instead of sending them to the web view
+     */
+    public static class RecordingPlugin extends ConnectIQPlugin
+    {
+        public final ConcurrentHashMap<String, LongAdder> Events = new ConcurrentHashMap<>();
+
+        @Override
+        public void emitJsEvent(String event, JSObject data)
+        {
+            this.Events.computeIfAbsent(event, k -> new LongAdder()).increment();
+        }
+
+        public long Count(@NonNull String event)
+        {
+            LongAdder count = this.Events.get(event);
+            return count != null ? count.sum() : 0;
+        }
+    }
+
+    /**
+     * rounds of idling the loopers, until the tasks, that post each other, have settled
+     */
+    private static final int MaxSettleRounds = 64;
+
+    @NonNull
+    public final Activity HostActivity = Robolectric.buildActivity(Activity.class).setup().get();
+    @NonNull
+    public final RecordingPlugin Plugin = new RecordingPlugin();
+    @NonNull
+    public final Handler Main = new Handler(Looper.getMainLooper());
+    /**
+     * shared timing wheel of the send and transaction deadlines, on the simulated clock
+     */
+    @NonNull
+    public final TimeoutWheel Wheel = new TimeoutWheel(TimeoutWheel.TickDuration, () -> SystemClock.uptimeMillis() * 1000000L, true);
+
+    /**
+     * callbacks of sends and transactions, that were not delivered yet
+     */
+    public final AtomicInteger Outstanding = new AtomicInteger();
+    /**
+     * highest number of outstanding callbacks
+     */
+    public final AtomicInteger MaxOutstanding = new AtomicInteger();
+    public final ConcurrentHashMap<String, LongAdder> Results = new ConcurrentHashMap<>();
+    /**
+     * milliseconds (simulated) from the send call to the callback
+     */
+    @NonNull
+    public Histogram Latency = new Histogram();
+
+    @Nullable
+    public DeviceManager Manager = null;
+    @Nullable
+    public SimulatedTransport Transport = null;
+
+    private final Random _random = new Random(42);
+    private boolean _loadRunning = false;
+
+    public SoakHarness()
+    {
+        TimeoutWheel.SetShared(this.Wheel);
+    }
+
+    /**
+     * creates a device manager, initializes it with the simulator and waits for the devices to become ready
+     *
+     * @param profile   simulator profile
+     * @param outbox    outbox directory, null for no outbox
+     * @param debug_app use the debug app id
+     */
+    public void Start(@NonNull SimulatedTransport.Profile profile, @Nullable File outbox, boolean debug_app)
+    {
+        AtomicInteger initialized = new AtomicInteger();
+        this.Manager = new DeviceManager(this.Plugin);
+        this.Manager.OutboxDirectory = outbox;
+        this.Manager.DeltaSync = true;
+        this.Manager.CompactWire = true;
+        this.Transport = new SimulatedTransport(profile, Looper.getMainLooper());
+        this.Manager.Initialize(this.HostActivity, this.Transport, debug_app, new DeviceManager.IInitializeListener()
+        {
+            @Override
+            public void Success()
+            {
+                initialized.incrementAndGet();
+            }
+
+            @Override
+            public void Failed(String message)
+            {
+                initialized.decrementAndGet();
+            }
+        });
+        this.RunFor(profile.InitDelay + 100);
+        if (initialized.get() != 1)
+        {
+            throw new IllegalStateException("Simulator did not initialize");
+        }
+        this.await(this.Manager.GetDevices(true));
+        this.RunFor(2000);
+    }
+
+    /**
+     * shuts the device manager down, like the plugin does
+     */
+    public void Stop()
+    {
+        this._loadRunning = false;
+        if (this.Manager != null)
+        {
+            this.await(this.Manager.Shutdown(this.HostActivity));
+            this.Manager.Worker.Quit();
+            this.Manager = null;
+        }
+        this.Transport = null;
+    }
+
+    /**
+     * sends a changing list to every device and a log request to one device in intervals, until Stop or StopLoad
+     *
+     * @param list_interval milliseconds between list transfers to each device
+     * @param logs_interval milliseconds between log requests, 0 for none
+     * @param lists         number of different lists
+     */
+    public void StartLoad(long list_interval, long logs_interval, int lists)
+    {
+        this._loadRunning = true;
+        String[] uuids = new String[lists];
+        for (int i = 0; i < lists; i++)
+        {
+            uuids[i] = new UUID(this._random.nextLong(), this._random.nextLong()).toString();
+        }
+        AtomicInteger round = new AtomicInteger();
+        this.repeat(list_interval, () ->
+        {
+            int r = round.getAndIncrement();
+            String json = SoakHarness.ListJson(uuids[r % lists], 20 + r % 30, r);
+            for (DeviceSnapshot device : this.Manager.Devices().Devices)
+            {
+                this.send(device.Id, "list", json);
+            }
+        });
+        if (logs_interval > 0)
+        {
+            this.repeat(logs_interval, () ->
+            {
+                List<DeviceSnapshot> devices = this.Manager.Devices().Devices;
+                if (!devices.isEmpty())
+                {
+                    this.transaction(devices.get(this._random.nextInt(devices.size())).Id, "req_logs");
+                }
+            });
+        }
+    }
+
+    public void StopLoad()
+    {
+        this._loadRunning = false;
+    }
+
+    /**
+     * advances the simulated clock and runs all tasks, that are due until then
+     *
+     * @param duration milliseconds
+     */
+    public void RunFor(long duration)
+    {
+        long end = SystemClock.uptimeMillis() + duration;
+        this.settle();
+        while (true)
+        {
+            long next = this.nextTaskTime();
+            if (next > end)
+            {
+                break;
+            }
+            ShadowSystemClock.advanceBy(Duration.ofMillis(Math.max(1, next - SystemClock.uptimeMillis())));
+            this.settle();
+        }
+        long rest = end - SystemClock.uptimeMillis();
+        if (rest > 0)
+        {
+            ShadowSystemClock.advanceBy(Duration.ofMillis(rest));
+            this.settle();
+        }
+    }
+
+    /**
+     * runs until all callbacks were delivered, the remaining deadlines expire in simulated time
+     *
+     * @param max_duration maximum milliseconds (simulated)
+     */
+    public void Drain(long max_duration)
+    {
+        long end = SystemClock.uptimeMillis() + max_duration;
+        while (this.Outstanding.get() > 0 && SystemClock.uptimeMillis() < end)
+        {
+            this.RunFor(TimeoutWheel.TickDuration);
+        }
+    }
+
+    /**
+     * detaches the simulated timing wheel, the next user of the shared wheel gets a real one
+     */
+    public void Close()
+    {
+        this.Stop();
+        TimeoutWheel.SetShared(null);
+    }
+
+    public long Result(@NonNull String result)
+    {
+        LongAdder count = this.Results.get(result);
+        return count != null ? count.sum() : 0;
+    }
+
+    public int PendingSends()
+    {
+        DeviceManager manager = this.Manager;
+        if (manager == null)
+        {
+            return 0;
+        }
+        return this.OnLoop(() ->
+        {
+            int ret = 0;
+            for (DeviceInfo device : manager.getDevices())
+            {
+                ret += device.PendingSends();
+            }
+            return ret;
+        });
+    }
+
+    /**
+     * runs a command on the event loop of the device manager and waits for its result
+     *
+     * @param command command
+     * @return result of the command
+     */
+    public <T> T OnLoop(@NonNull Callable<T> command)
+    {
+        return this.await(this.Manager.Worker.Submit(command));
+    }
+
+    /**
+     * used heap after a full garbage collection
+     */
+    public static long UsedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++)
+        {
+            System.gc();
+            SoakHarness.sleep(20);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    public static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @NonNull
+    public static String ListJson(@NonNull String uuid, int items, int revision)
+    {
+        JSONObject ret = new JSONObject();
+        try
+        {
+            ret.put("uuid", uuid);
+            ret.put("t", "Soak list " + uuid.substring(0, 8));
+            ret.put("d", "1749040000000");
+            ret.put("o", "3");
+            ret.put("rev", "1");
+            for (int i = 0; i < items; i++)
+            {
+                ret.put("it" + i + "_uuid", new UUID(uuid.hashCode(), i).toString());
+                ret.put("it" + i + "_i", "Item " + i + (i == revision % items ? " (changed " + revision + ")" : ""));
+                if (i % 7 == 0)
+                {
+                    ret.put("it" + i + "_n", "Note of item " + i);
+                }
+            }
+        }
+        catch (JSONException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+        return ret.toString();
+    }
+
+    private void send(long device_id, @NonNull String type, @NonNull String json)
+    {
+        long start = SystemClock.uptimeMillis();
+        this.begin();
+        this.Manager.SendToDevice(device_id, type, json, null, 0, result ->
+        {
+            this.Latency.Record(SystemClock.uptimeMillis() - start);
+            this.end(result.Result.name());
+        });
+    }
+
+    private void transaction(long device_id, @NonNull String type)
+    {
+        long start = SystemClock.uptimeMillis();
+        this.begin();
+        this.Manager.SendTransaction(device_id, type, "", null, 0, (tid, result, device, message) ->
+        {
+            this.Latency.Record(SystemClock.uptimeMillis() - start);
+            this.end(message != null ? "Response" : result.Result.name());
+        });
+    }
+
+    private void begin()
+    {
+        int outstanding = this.Outstanding.incrementAndGet();
+        this.MaxOutstanding.accumulateAndGet(outstanding, Math::max);
+    }
+
+    private void end(@NonNull String result)
+    {
+        this.Outstanding.decrementAndGet();
+        this.Results.computeIfAbsent(result, k -> new LongAdder()).increment();
+    }
+
+    private void repeat(long interval, @NonNull Runnable task)
+    {
+        this.Main.postDelayed(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (SoakHarness.this._loadRunning && SoakHarness.this.Manager != null)
+                {
+                    task.run();
+                    SoakHarness.this.Main.postDelayed(this, interval);
+                }
+            }
+        }, interval);
+    }
+
+    /**
+     * settles the loopers, until a future of the event loop is completed
+     */
+    private <T> T await(@NonNull CompletableFuture<T> future)
+    {
+        this.settle();
+        try
+        {
+            return future.get(10, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException | TimeoutException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * expires the due timeouts and runs the due tasks of the main looper and the worker, until nothing is left to do
+     */
+    private void settle()
+    {
+        ShadowLooper main = shadowOf(Looper.getMainLooper());
+        ShadowLooper worker = this.Manager != null ? shadowOf(this.Manager.Worker.Handler().getLooper()) : null;
+        for (int i = 0; i < MaxSettleRounds; i++)
+        {
+            int expired = this.Wheel.Poll();
+            if (worker != null)
+            {
+                worker.idle();
+            }
+            main.idle();
+            if (expired == 0 && main.isIdle() && (worker == null || worker.isIdle()))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * uptime of the next scheduled task of the main looper and the worker or of the next timeout
+     */
+    private long nextTaskTime()
+    {
+        long next = Long.MAX_VALUE;
+        next = SoakHarness.min(next, shadowOf(Looper.getMainLooper()).getNextScheduledTaskTime());
+        if (this.Manager != null)
+        {
+            next = SoakHarness.min(next, shadowOf(this.Manager.Worker.Handler().getLooper()).getNextScheduledTaskTime());
+        }
+        long expiry = this.Wheel.NextExpiry();
+        if (expiry != Long.MAX_VALUE)
+        {
+            next = Math.min(next, (expiry + 999999L) / 1000000L);
+        }
+        return next;
+    }
+
+    private static long min(long current, @NonNull Duration next)
+    {
+        //an empty queue reports zero
+        return next.isZero() ? current : Math.min(current, next.toMillis());
+    }
+}
@@ -0,0 +1,66 @@
+package de.romandrechsel.lists.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.romandrechsel.lists.garmin.DeviceMessage;
+import de.romandrechsel.lists.utils.CompactCodec;
+import de.romandrechsel.lists.utils.DeviceUtils;
+
+/**
+ * inbound path: decoding of the messages, the sdk delivers, and building of the json for the RECEIVE event
+ */
+@State(Scope.Benchmark)
+public class DeserializeBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int Items;
+
+    @Param({"false", "true"})
+    public boolean LongNotes;
+
+    private List<Object> _list;
+    private List<Object> _logs;
+    private ArrayList<String> _compact;
+    private DeviceMessage _message;
+
+    @Setup
+    public void setup()
+    {
+        this._list = new ArrayList<>(Fixtures.List(this.Items, this.LongNotes));
+        //the watch sends about one log line per list item in a log dump
+        this._logs = Fixtures.WatchLogs(this.Items);
+        this._compact = CompactCodec.Encode(Fixtures.List(this.Items, this.LongNotes));
+        this._message = DeviceUtils.DeserializeStringArray(this._list);
+    }
+
+    @Benchmark
+    public DeviceMessage deserializeList()
+    {
+        return DeviceUtils.DeserializeStringArray(this._list);
+    }
+
+    @Benchmark
+    public DeviceMessage deserializeWatchLogs()
+    {
+        return DeviceUtils.DeserializeStringArray(this._logs);
+    }
+
+    @Benchmark
+    public ArrayList<String> compactDecode()
+    {
+        return CompactCodec.Decode(this._compact);
+    }
+
+    @Benchmark
+    public String messageJson()
+    {
+        return this._message.Json();
+    }
+}
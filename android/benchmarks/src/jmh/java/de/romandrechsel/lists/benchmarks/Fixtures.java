@@ -0,0 +1,122 @@
+package de.romandrechsel.lists.benchmarks;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * realistic payloads of the app, generated with a fixed seed so every run measures the same data
+ */
+public class Fixtures
+{
+    private static final String[] Items = {"Milk", "Whole grain bread", "Eggs (free range)", "Butter 250g", "Tomatoes", "Grated cheese", "Apples", "Coffee beans", "Spaghetti", "Olive oil", "Bananas", "Yoghurt natur", "Toilet paper", "Dish soap", "Müsli", "Orangensaft", "Äpfel", "Brötchen"};
+    private static final String[] Words = {"remember", "to", "check", "the", "offer", "at", "the", "market", "only", "if", "it", "is", "fresh", "otherwise", "take", "the", "frozen", "one", "Größe", "L", "für", "Oma"};
+
+    /**
+     * list payload as it is flattened by the app (List.toDeviceObject)
+     *
+     * @param items      number of items
+     * @param long_notes every third item gets a note of several hundred chars, else short notes on every tenth item
+     * @return message lines
+     */
+    @NonNull
+    public static ArrayList<String> List(int items, boolean long_notes)
+    {
+        Random random = new Random(items * 31L + (long_notes ? 1 : 0));
+        ArrayList<String> ret = new ArrayList<>(items * 3 + 10);
+        ret.add("uuid=" + Fixtures.uuid(random));
+        ret.add("t=Weekly groceries " + items);
+        ret.add("d=1749040000000");
+        ret.add("o=3");
+        ret.add("rev=1");
+        for (int i = 0; i < items; i++)
+        {
+            ret.add("it" + i + "_uuid=" + Fixtures.uuid(random));
+            ret.add("it" + i + "_i=" + Items[random.nextInt(Items.length)]);
+            if (long_notes && i % 3 == 0)
+            {
+                ret.add("it" + i + "_n=" + Fixtures.note(random, 60));
+            }
+            else if (i % 10 == 0)
+            {
+                ret.add("it" + i + "_n=" + Fixtures.note(random, 4));
+            }
+        }
+        ret.add("r_a=true");
+        ret.add("r_i=w");
+        ret.add("r_h=6");
+        ret.add("r_m=0");
+        ret.add("r_w=1");
+        return ret;
+    }
+
+    /**
+     * list payload as json object, like it is sent by the app in the json option
+     */
+    @NonNull
+    public static JSONObject ListJson(int items, boolean long_notes)
+    {
+        JSONObject ret = new JSONObject();
+        for (String line : Fixtures.List(items, long_notes))
+        {
+            int split = line.indexOf('=');
+            try
+            {
+                ret.put(line.substring(0, split), line.substring(split + 1));
+            }
+            catch (JSONException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * log dump of the watch app, as it is received after a req_logs request
+     *
+     * @param lines number of log lines
+     * @return message lines, as delivered by the sdk
+     */
+    @NonNull
+    public static List<Object> WatchLogs(int lines)
+    {
+        Random random = new Random(lines);
+        String[] tags = {"ListView", "Storage", "Comm", "ListsApp", "Settings"};
+        String[] levels = {"D", "N", "I", "E"};
+        ArrayList<Object> ret = new ArrayList<>(lines + 1);
+        ret.add("type=logs");
+        for (int i = 0; i < lines; i++)
+        {
+            ret.add("log" + i + "=2025-06-04 12:" + (10 + i % 50) + ":" + (10 + random.nextInt(50)) + " [" + levels[random.nextInt(levels.length)] + "] " + tags[random.nextInt(tags.length)] + ": " + Fixtures.note(random, 8 + random.nextInt(20)));
+        }
+        return ret;
+    }
+
+    @NonNull
+    private static String uuid(@NonNull Random random)
+    {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    @NonNull
+    private static String note(@NonNull Random random, int words)
+    {
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < words; i++)
+        {
+            if (i > 0)
+            {
+                ret.append(' ');
+            }
+            ret.append(Words[random.nextInt(Words.length)]);
+        }
+        return ret.toString();
+    }
+}
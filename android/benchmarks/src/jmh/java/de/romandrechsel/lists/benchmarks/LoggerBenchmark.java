@@ -0,0 +1,70 @@
+package de.romandrechsel.lists.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.List;
+
+import de.romandrechsel.lists.logging.Logger;
+
+/**
+ * logging path: level gating, building of the message and handing the record to the ring buffer
+ * logcat is shimmed and the ring buffer is not drained to a listener, so this measures the cost on the calling thread
+ */
+@State(Scope.Benchmark)
+public class LoggerBenchmark
+{
+    private static final String TAG = "IQBenchmark";
+
+    /**
+     * Debug: records are buffered, Notice: debug records are skipped like in release builds
+     */
+    @Param({"Debug", "Notice"})
+    public String MinLevel;
+
+    private List<Object> _logs;
+    private long _device = 123456789L;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        Logger.SetMinLevel(Logger.ELevel.valueOf(this.MinLevel));
+        this._logs = Fixtures.WatchLogs(10);
+    }
+
+    @Benchmark
+    public void debugConcatenated()
+    {
+        Logger.Debug(TAG, "Transmitted data to device " + this._device + " (fenix 7)");
+    }
+
+    @Benchmark
+    public void debugLazy()
+    {
+        Logger.Debug(TAG, () -> "Transmitted data to device " + this._device + " (fenix 7)");
+    }
+
+    @Benchmark
+    public void debugWithObject()
+    {
+        Logger.Debug(TAG, () -> "Received data from device " + this._device + ": ", this._logs);
+    }
+
+    @Benchmark
+    public void notice()
+    {
+        Logger.Notice(TAG, "3 device(s) found");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void noticeContended()
+    {
+        Logger.Notice(TAG, "3 device(s) found");
+    }
+}
@@ -0,0 +1,71 @@
+package de.romandrechsel.lists.benchmarks;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import de.romandrechsel.lists.utils.CompactCodec;
+import de.romandrechsel.lists.utils.DeviceUtils;
+
+/**
+ * outbound path: flattening of list payloads to the string array messages, that are handed to the sdk
+ */
+@State(Scope.Benchmark)
+public class SerializeBenchmark
+{
+    @Param({"10", "100", "1000"})
+    public int Items;
+
+    @Param({"false", "true"})
+    public boolean LongNotes;
+
+    private JSONObject _json;
+    private String _jsonString;
+    private ArrayList<Object> _lines;
+    private ArrayList<String> _flat;
+
+    @Setup
+    public void setup()
+    {
+        this._json = Fixtures.ListJson(this.Items, this.LongNotes);
+        this._jsonString = this._json.toString();
+        this._flat = Fixtures.List(this.Items, this.LongNotes);
+        this._lines = new ArrayList<>(this._flat);
+    }
+
+    @Benchmark
+    public ArrayList<String> serializeJsonObject()
+    {
+        return DeviceUtils.SerializeToStringArray(this._json);
+    }
+
+    @Benchmark
+    public ArrayList<String> serializeLines()
+    {
+        return DeviceUtils.SerializeToStringArray(this._lines);
+    }
+
+    @Benchmark
+    public ArrayList<String> flattenJson() throws IOException
+    {
+        return DeviceUtils.FlattenJson(this._jsonString);
+    }
+
+    @Benchmark
+    public ArrayList<String> compactEncode()
+    {
+        return CompactCodec.Encode(this._flat);
+    }
+
+    @Benchmark
+    public int estimateSize()
+    {
+        return DeviceUtils.EstimateSize(this._flat);
+    }
+}
@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * jvm shim of the android clock, backed by the monotonic jvm clock
+ */
+public final class SystemClock
+{
+    private SystemClock()
+    {
+    }
+
+    public static long elapsedRealtime()
+    {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long uptimeMillis()
+    {
+        return System.nanoTime() / 1000000L;
+    }
+}
@@ -0,0 +1,52 @@
+package android.util;
+
+/**
+ * jvm shim of the android logcat api, logcat output is discarded so the benchmarks measure the code around it
+ */
+public final class Log
+{
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private Log()
+    {
+    }
+
+    public static int v(String tag, String msg)
+    {
+        return 0;
+    }
+
+    public static int d(String tag, String msg)
+    {
+        return 0;
+    }
+
+    public static int i(String tag, String msg)
+    {
+        return 0;
+    }
+
+    public static int w(String tag, String msg)
+    {
+        return 0;
+    }
+
+    public static int e(String tag, String msg)
+    {
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr)
+    {
+        return 0;
+    }
+
+    public static boolean isLoggable(String tag, int level)
+    {
+        return false;
+    }
+}
@@ -0,0 +1,14 @@
+package com.getcapacitor;
+
+import org.json.JSONArray;
+
+/**
+ * jvm shim of the capacitor json array
+ */
+public class JSArray extends JSONArray
+{
+    public JSArray()
+    {
+        super();
+    }
+}
@@ -0,0 +1,97 @@
+package com.getcapacitor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * jvm shim of the capacitor json object, with the same non-throwing put methods
+ */
+public class JSObject extends JSONObject
+{
+    public JSObject()
+    {
+        super();
+    }
+
+    public JSObject(String json) throws JSONException
+    {
+        super(json);
+    }
+
+    @Override
+    public JSObject put(String key, boolean value)
+    {
+        try
+        {
+            super.put(key, value);
+        }
+        catch (JSONException ignored)
+        {
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, int value)
+    {
+        try
+        {
+            super.put(key, value);
+        }
+        catch (JSONException ignored)
+        {
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, long value)
+    {
+        try
+        {
+            super.put(key, value);
+        }
+        catch (JSONException ignored)
+        {
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, double value)
+    {
+        try
+        {
+            super.put(key, value);
+        }
+        catch (JSONException ignored)
+        {
+        }
+        return this;
+    }
+
+    @Override
+    public JSObject put(String key, Object value)
+    {
+        try
+        {
+            super.put(key, value);
+        }
+        catch (JSONException ignored)
+        {
+        }
+        return this;
+    }
+
+    public JSObject put(String key, String value)
+    {
+        try
+        {
+            super.put(key, value);
+        }
+        catch (JSONException ignored)
+        {
+        }
+        return this;
+    }
+}
@@ -1,4 +1,4 @@
-import { CommonModule } from "@angular/common";
+import { CommonModule, formatDate } from "@angular/common";
 import { ChangeDetectionStrategy, Component, inject, ViewChild } from "@angular/core";
 import { FileOpener } from "@capacitor-community/file-opener";
 import { Directory, Encoding, Filesystem } from "@capacitor/filesystem";
@@ -11,6 +11,7 @@ import { ConfigService } from "../../services/config/config.service";
 import { ConnectIQService } from "../../services/connectiq/connect-iq.service";
 import { LocalizationService } from "../../services/localization/localization.service";
 import { Logger } from "../../services/logging/logger";
+import { LoggingService } from "../../services/logging/logging.service";
 import { WatchLoggingService } from "../../services/logging/watch-logging.service";
 import { PopupsService } from "../../services/popups/popups.service";
 import { AppService } from "./../../services/app/app.service";
@@ -32,12 +33,14 @@ export class StoreLogComponent {
     @ViewChild("attachMetaStorage", { read: IonCheckbox }) attachMetaStorage?: IonCheckbox;
     @ViewChild("attachMetaGarmin", { read: IonCheckbox }) attachMetaGarmin?: IonCheckbox;
     @ViewChild("attachWatchLogs", { read: IonCheckbox }) attachWatchLogs?: IonCheckbox;
+    @ViewChild("attachNativeLogs", { read: IonCheckbox }) attachNativeLogs?: IonCheckbox;
 
     private readonly Locale = inject(LocalizationService);
     private readonly Popups = inject(PopupsService);
     private readonly modalCtrl = inject(ModalController);
     private readonly AppService = inject(AppService);
     private readonly WatchLogs = inject(WatchLoggingService);
+    private readonly Logging = inject(LoggingService);
     private readonly Config = inject(ConfigService);
     private readonly ConnectIQ = inject(ConnectIQService);
 
@@ -70,6 +73,10 @@ export class StoreLogComponent {
                     await this.addToLog(StringUtils.toString(meta));
                 }
 
+                if (this.attachNativeLogs?.checked === true) {
+                    await this.addNativeLogs();
+                }
+
                 if (this.do.value == "store") {
                     try {
                         AppService.AppToolbar?.ToggleProgressbar(true);
@@ -113,6 +120,23 @@ export class StoreLogComponent {
         }
     }
 
+    /**
+     * appends the persisted logs of the native plugin to the logfile
+     */
+    private async addNativeLogs() {
+        const logs = await this.Logging.ExportNativeLogs({ limit: 2000 });
+        if (logs.length == 0) {
+            return;
+        }
+        const prefixes = { debug: "[D]", notice: "[N]", important: "[I]", error: "[E]" };
+        const lines = ["--- native logs ---"];
+        logs.forEach(log => {
+            const date = log.time ? formatDate(new Date(log.time), "yyyy-MM-ddTHH:mm:ss.SSS", "en") : "";
+            lines.push(`${prefixes[log.level] ?? "[D]"}${date}: ${log.tag}: ${log.message}`);
+        });
+        await this.addToLog(lines);
+    }
+
     private async addToLog(add: string | string[]) {
         if (Array.isArray(add)) {
             add = add.join("\n");
@@ -27,6 +27,7 @@ export class DevicesPage extends PageBase {
 
     private initListener?: Subscription;
     private stateListener?: Subscription;
+    private removedListener?: Subscription;
 
     private readonly Route = inject(ActivatedRoute);
 
@@ -81,12 +82,24 @@ export class DevicesPage extends PageBase {
             }
             this.cdr.detectChanges();
         });
+
+        this.removedListener = this.ConnectIQ.onDeviceRemoved$.subscribe(id => {
+            if (id !== undefined) {
+                this.Devices = this.Devices.filter(d => d.Identifier != id);
+                if (this.SelectedDevice?.Identifier == id) {
+                    this.SelectedDevice = undefined;
+                    this.selectDevice();
+                }
+                this.cdr.detectChanges();
+            }
+        });
     }
 
     public override async ionViewDidLeave() {
         super.ionViewDidLeave();
         this.initListener?.unsubscribe();
         this.stateListener?.unsubscribe();
+        this.removedListener?.unsubscribe();
     }
 
     public async loadDevices() {
@@ -1,18 +1,32 @@
-import { Plugin, PluginListenerHandle } from "@capacitor/core";
+import { CallbackID, Plugin, PluginListenerHandle } from "@capacitor/core";
 import { DeviceEventArgs } from "./event-args/device-event-args";
 import { DevicesEventArgs } from "./event-args/devices-event-args";
 import { InitializeEventArgs } from "./event-args/initialize-event-args";
-import { TransmitDataEventArgs } from "./event-args/transmit-data-event-args";
+import { NativeLogsChunk } from "./event-args/log-event-args";
+import { MetricsEventArgs } from "./event-args/metrics-event-args";
+import { TransactionEventArgs } from "./event-args/transaction-event-args";
+import { TransmitBatchEventArgs } from "./event-args/transmit-batch-event-args";
+import { SendPriority, TransmitDataEventArgs } from "./event-args/transmit-data-event-args";
 
 export interface IConnectIQ extends Plugin {
-    Initialize(opts: { simulator: boolean; debug_app: boolean }): Promise<InitializeEventArgs>;
+    Initialize(opts: { simulator: boolean; debug_app: boolean; delta_sync?: boolean; compact_wire?: boolean; fragment_bytes?: number; send_attempts?: number; local_simulator?: LocalSimulatorProfile }): Promise<InitializeEventArgs>;
     Shutdown(): Promise<void>;
 
     GetDevices(opts: { force_reload: boolean }): Promise<DevicesEventArgs>;
 
     GetDevice(opts: { device_id: string }): Promise<DeviceEventArgs>;
 
-    SendToDevice(opts: { device_id: string; type?: string; json: String }): Promise<TransmitDataEventArgs>;
+    SendToDevice(opts: { device_id: string; type?: string; json?: string; data?: string[]; priority?: SendPriority; timeout?: number }): Promise<TransmitDataEventArgs>;
+
+    SendTransaction(opts: { device_id: string; type?: string; json?: string; data?: string[]; priority?: SendPriority; timeout?: number }): Promise<TransactionEventArgs>;
+
+    SendBatch(opts: { device_ids: string[]; entries: { type?: string; payload: any }[]; priority?: SendPriority; timeout?: number }): Promise<TransmitBatchEventArgs>;
+
+    SetLogLevel(opts: { level: "debug" | "notice" | "important" | "error" }): Promise<{ level: string }>;
+
+    ExportLogs(opts: { since?: number; until?: number; level?: "debug" | "notice" | "important" | "error"; tag?: string; contains?: string; limit?: number; chunk?: number }, callback: (chunk: NativeLogsChunk | null, err?: any) => void): Promise<CallbackID>;
+
+    GetMetrics(opts?: { reset?: boolean }): Promise<MetricsEventArgs>;
 
     OpenStore(): Promise<void>;
 
@@ -20,3 +34,24 @@ export interface IConnectIQ extends Plugin {
 
     addListener<T>(eventName: string, listenerFunc: (data: T) => void): Promise<PluginListenerHandle>;
 }
+
+/**
+ * link and device model of the in-process simulator, that replaces the ConnectIQ sdk, missing values use the defaults
+ */
+export type LocalSimulatorProfile = {
+    devices?: number;
+    latency?: number;
+    jitter?: number;
+    bandwidth?: number;
+    loss?: number;
+    drop?: number;
+    ack_drop?: number;
+    ack_delay?: number;
+    churn_interval?: number;
+    churn_downtime?: number;
+    init_delay?: number;
+    wire_revision?: number;
+    app_version?: number;
+    log_lines?: number;
+    seed?: number;
+};
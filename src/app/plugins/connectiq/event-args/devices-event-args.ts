@@ -1,3 +1,7 @@
 export type DevicesEventArgs = {
     devices?: string;
+    /** devices from the device cache of the plugin, the sdk is still initializing */
+    stale?: boolean;
+    /** only in DEVICES_RECONCILED events */
+    sdk_ready?: boolean;
 };
@@ -2,5 +2,18 @@ export type LogEventArgs = {
     level: "debug" | "notice" | "important" | "error";
     tag: string;
     message: string;
+    time?: number;
     obj?: any;
+    dropped?: number;
+};
+
+export type LogsEventArgs = {
+    logs: LogEventArgs[];
+    dropped?: number;
+};
+
+export type NativeLogsChunk = {
+    logs: LogEventArgs[];
+    total: number;
+    done: boolean;
 };
@@ -0,0 +1,16 @@
+export type HistogramEventArgs = {
+    count: number;
+    sum: number;
+    max: number;
+    p50: number;
+    p90: number;
+    p99: number;
+};
+
+export type MetricsEventArgs = {
+    since_ms: number;
+    counters: { [name: string]: number };
+    histograms: { [name: string]: HistogramEventArgs };
+    pending_timeouts?: number;
+    pending_transactions?: number;
+};
@@ -0,0 +1,8 @@
+import { DeviceEventArgs } from "./device-event-args";
+import { TransmitDataEventArgs } from "./transmit-data-event-args";
+
+export type TransactionEventArgs = TransmitDataEventArgs & {
+    tid?: number;
+    device?: DeviceEventArgs;
+    message?: { [key: string]: string };
+};
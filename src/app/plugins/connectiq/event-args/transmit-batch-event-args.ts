@@ -0,0 +1,7 @@
+import { TransmitDataEventArgs } from "./transmit-data-event-args";
+
+export type TransmitBatchEventArgs = {
+    batch: number;
+    success: boolean;
+    results: (TransmitDataEventArgs & { device_id: string; index: number })[];
+};
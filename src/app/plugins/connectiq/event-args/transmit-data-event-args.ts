@@ -1,3 +1,13 @@
+export type SendPriority = "high" | "normal" | "low";
+
 export type TransmitDataEventArgs = {
     success: boolean;
+    result?: string;
+    iq_status?: string;
+    queue_depth?: number;
+    wait_ms?: number;
+    fragments?: number;
+    fragments_missing?: number;
+    attempts?: number;
+    breaker?: "Closed" | "Open" | "HalfOpen";
 };
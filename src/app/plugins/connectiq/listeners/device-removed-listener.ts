@@ -0,0 +1,15 @@
+import { Logger } from "../../../services/logging/logger";
+import { ConnectIQListener } from "./connect-iq-listener";
+
+export class DeviceRemovedListener extends ConnectIQListener<{ id: number }> {
+    public Event(): string {
+        return "DEVICE_REMOVED";
+    }
+
+    protected async Callback(args: { id: number }): Promise<void> {
+        if (args?.id !== undefined) {
+            await this._service.RemoveDevice(args.id);
+            Logger.Debug(`Device ${args.id} removed`);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+import { Logger } from "../../../services/logging/logger";
+import { DevicesEventArgs } from "../event-args/devices-event-args";
+import { ConnectIQListener } from "./connect-iq-listener";
+
+export class DevicesReconciledListener extends ConnectIQListener<DevicesEventArgs> {
+    public Event(): string {
+        return "DEVICES_RECONCILED";
+    }
+
+    protected async Callback(args: DevicesEventArgs): Promise<void> {
+        if (args) {
+            await this._service.ReconcileDevices(args);
+            Logger.Debug("Stale devices reconciled with live states");
+        }
+    }
+}
@@ -25,6 +25,13 @@ export class ConnectIQDevice {
         return ["ConnectionLost", "InvalidState", "ServiceUnavailable"].indexOf(this.State) >= 0;
     }
 
+    /**
+     * device is known but not ready, transfers are kept by the plugin until it becomes ready
+     */
+    public get Queueable(): boolean {
+        return ["Initializing", "CheckingApp", "NotConnected", "ConnectionLost"].indexOf(this.State) >= 0;
+    }
+
     /**
      * update the device state
      * @param arg
@@ -3,17 +3,22 @@ import { Router } from "@angular/router";
 import { Browser } from "@capacitor/browser";
 import { Capacitor } from "@capacitor/core";
 import { NavController } from "@ionic/angular/standalone";
-import { BehaviorSubject, interval, Subscription } from "rxjs";
+import { BehaviorSubject, firstValueFrom, interval, Subject, Subscription, timeout } from "rxjs";
 import { DebugDevices } from "../../../environments/environment";
 import { StringUtils } from "../../classes/utils/string-utils";
 import { SelectGarminDevice } from "../../pages/devices/devices.page";
 import ConnectIQ from "../../plugins/connectiq/connect-iq";
+import { LocalSimulatorProfile } from "../../plugins/connectiq/connect-iq.interface";
 import { ConnectIQDeviceMessage } from "../../plugins/connectiq/event-args/connect-iq-device-message.";
 import { DeviceEventArgs } from "../../plugins/connectiq/event-args/device-event-args";
+import { DevicesEventArgs } from "../../plugins/connectiq/event-args/devices-event-args";
+import { MetricsEventArgs } from "../../plugins/connectiq/event-args/metrics-event-args";
 import { ConnectIQListener } from "../../plugins/connectiq/listeners/connect-iq-listener";
 import { DeviceErrorReportListener } from "../../plugins/connectiq/listeners/device-error-report-listener";
 import { DeviceLogsListener } from "../../plugins/connectiq/listeners/device-logs-listener";
+import { DeviceRemovedListener } from "../../plugins/connectiq/listeners/device-removed-listener";
 import { DeviceStateListener } from "../../plugins/connectiq/listeners/device-state-listener";
+import { DevicesReconciledListener } from "../../plugins/connectiq/listeners/devices-reconciled-listener";
 import { PluginLogsListener } from "../../plugins/connectiq/listeners/plugin-logs-listener";
 import { TimeoutListener } from "../../plugins/connectiq/listeners/timeout-listener";
 import { TransactionListener } from "../../plugins/connectiq/listeners/transaction-listener";
@@ -37,6 +42,7 @@ export class ConnectIQService {
     private _pendingListenersTimeoutCheck?: Subscription;
 
     private _devices: ConnectIQDevice[] = [];
+    private _devicesStale: boolean = false;
     private _watchOutdatedNotice: number[] = [];
 
     public useGarminSimulator = false;
@@ -46,6 +52,9 @@ export class ConnectIQService {
     public onInitialized$ = this.onInitializedSubject.asObservable();
     private onDeviceChangedSubject = new BehaviorSubject<ConnectIQDevice | undefined>(undefined);
     public onDeviceChanged$ = this.onDeviceChangedSubject.asObservable();
+    private onDeviceRemovedSubject = new Subject<number>();
+    public onDeviceRemoved$ = this.onDeviceRemovedSubject.asObservable();
+    private onDevicesLiveSubject = new Subject<void>();
 
     private _onlineDevices: number = 0;
 
@@ -75,11 +84,35 @@ export class ConnectIQService {
         return this._initialized;
     }
 
+    /**
+     * the devices are the last known ones from the plugin cache, their live states follow, once the sdk is ready
+     */
+    public get DevicesStale(): boolean {
+        return this._devicesStale;
+    }
+
+    /**
+     * waits, until the stale devices were replaced by the live ones
+     * @param wait maximum milliseconds to wait
+     * @returns true, if the devices are live
+     */
+    public async WaitForLiveDevices(wait: number = 15000): Promise<boolean> {
+        if (!this._devicesStale) {
+            return true;
+        }
+        try {
+            await firstValueFrom(this.onDevicesLiveSubject.pipe(timeout(wait)));
+            return true;
+        } catch {
+            return !this._devicesStale;
+        }
+    }
+
     /**
      * initialize service
      * @param obj use debug devices or live devices, and use garmin simulator or live phone
      */
-    public async Initialize(obj?: { simulator?: boolean; debug_app?: boolean }): Promise<boolean> {
+    public async Initialize(obj?: { simulator?: boolean; debug_app?: boolean; local_simulator?: LocalSimulatorProfile }): Promise<boolean> {
         Logger.Debug(`Start initializing ConnectIQ service...`);
         const all_listeners = Array.from(this._watchListeners.values());
         for (let i = 0; i < all_listeners.length; i++) {
@@ -93,10 +126,13 @@ export class ConnectIQService {
         if (Capacitor.isNativePlatform()) {
             this.addListener(new PluginLogsListener(this));
             this.addListener(new DeviceStateListener(this));
+            this.addListener(new DeviceRemovedListener(this));
+            this.addListener(new DevicesReconciledListener(this));
             this.addListener(new DeviceErrorReportListener(this, this.NavController, this.Popup));
             this.addListener(new DeviceLogsListener(this, this.NavController, this.Popup));
             this._devices = [];
-            const init = await ConnectIQ.Initialize({ simulator: obj?.simulator ?? this.useGarminSimulator, debug_app: obj?.debug_app ?? this.useGarminDebugApp });
+            this._devicesStale = false;
+            const init = await ConnectIQ.Initialize({ simulator: obj?.simulator ?? this.useGarminSimulator, debug_app: obj?.debug_app ?? this.useGarminDebugApp, local_simulator: obj?.local_simulator });
             if (init.success === true) {
                 this.useGarminDebugApp = init.debug_app ?? false;
                 this.useGarminSimulator = init.simulator ?? false;
@@ -128,6 +164,7 @@ export class ConnectIQService {
         this._watchListeners.clear();
         this._onlineDevices = 0;
         this._devices = [];
+        this._devicesStale = false;
 
         if (this._initialized) {
             if (Capacitor.isNativePlatform()) {
@@ -157,27 +194,14 @@ export class ConnectIQService {
         }
         AppService.AppToolbar?.ToggleProgressbar(true);
 
-        const defaultTransmitDevice = await this.Preferences.Get<number>(EPrefProperty.AlwaysTransmitTo, -1);
         let devices: ConnectIQDevice[] = [];
+        let stale = false;
 
         if (Capacitor.isNativePlatform()) {
             try {
                 const res = await ConnectIQ.GetDevices({ force_reload: force_load });
-                if (res && res.devices) {
-                    const array = JSON.parse(res.devices);
-                    if (Array.isArray(array)) {
-                        array.forEach((d: any) => {
-                            let device = this._devices.find(d2 => d2.Identifier == d.id);
-                            if (device) {
-                                device.Update(d);
-                            } else {
-                                device = ConnectIQDevice.FromEventArgs(d, this);
-                            }
-
-                            devices.push(device);
-                        });
-                    }
-                }
+                devices = this.parseDevices(res);
+                stale = res?.stale === true;
             } catch (error) {
                 Logger.Error("Could not parse device infos");
             }
@@ -187,6 +211,56 @@ export class ConnectIQService {
             devices = DebugDevices(this);
         }
 
+        await this.setDevices(devices, stale);
+        AppService.AppToolbar?.ToggleProgressbar(false);
+        return this._devices;
+    }
+
+    /**
+     * replaces the stale devices, the plugin answered with during the sdk initialization, with the live ones
+     * @param args live devices
+     */
+    public async ReconcileDevices(args: DevicesEventArgs) {
+        let devices: ConnectIQDevice[] = [];
+        try {
+            devices = this.parseDevices(args);
+        } catch (error) {
+            Logger.Error("Could not parse reconciled device infos");
+        }
+        const removed = this._devices.filter(d => !devices.some(d2 => d2.Identifier == d.Identifier));
+        await this.setDevices(devices, false);
+        await this.calcOnlineDevices(devices);
+        removed.forEach(d => this.onDeviceRemovedSubject.next(d.Identifier));
+        devices.forEach(d => this.onDeviceChangedSubject.next(d));
+    }
+
+    /**
+     * parses the device list of the plugin, known devices are updated in place
+     * @param res response or event of the plugin
+     * @returns devices
+     */
+    private parseDevices(res: DevicesEventArgs | undefined): ConnectIQDevice[] {
+        const devices: ConnectIQDevice[] = [];
+        if (res && res.devices) {
+            const array = JSON.parse(res.devices);
+            if (Array.isArray(array)) {
+                array.forEach((d: any) => {
+                    let device = this._devices.find(d2 => d2.Identifier == d.id);
+                    if (device) {
+                        device.Update(d);
+                    } else {
+                        device = ConnectIQDevice.FromEventArgs(d, this);
+                    }
+
+                    devices.push(device);
+                });
+            }
+        }
+        return devices;
+    }
+
+    private async setDevices(devices: ConnectIQDevice[], stale: boolean) {
+        const defaultTransmitDevice = await this.Preferences.Get<number>(EPrefProperty.AlwaysTransmitTo, -1);
         this._alwaysTransmitToDevice = undefined;
         if (defaultTransmitDevice > 0) {
             this._alwaysTransmitToDevice = devices.find(d => d.Identifier == defaultTransmitDevice);
@@ -194,9 +268,29 @@ export class ConnectIQService {
         if (this._alwaysTransmitToDevice) {
             Logger.Debug(`Lists will be transmited to device ${this._alwaysTransmitToDevice.toLog()} by default`);
         }
+        const was_stale = this._devicesStale;
         this._devices = devices;
-        AppService.AppToolbar?.ToggleProgressbar(false);
-        return this._devices;
+        this._devicesStale = stale;
+        if (was_stale && !stale) {
+            this.onDevicesLiveSubject.next();
+        }
+    }
+
+    /**
+     * waits for the live devices, if only the stale ones from the plugin cache are known, the sdk can't send to them yet
+     * @param device device to send to
+     * @returns live device, undefined if it is unknown to the sdk or the sdk did not become ready
+     */
+    private async liveDevice(device: ConnectIQDevice): Promise<ConnectIQDevice | undefined> {
+        if (!this._devicesStale) {
+            return device;
+        }
+        Logger.Debug(`Waiting for the live state of device ${device.toLog()}...`);
+        if (!(await this.WaitForLiveDevices())) {
+            Logger.Notice(`Devices are still not reported by the sdk, could not send to device ${device.toLog()}`);
+            return undefined;
+        }
+        return this._devices.find(d => d.Identifier == device.Identifier);
     }
 
     /**
@@ -262,7 +356,12 @@ export class ConnectIQService {
             return false;
         }
 
-        await ConnectIQ.OpenApp({ device_id: String(device.Identifier) });
+        try {
+            await ConnectIQ.OpenApp({ device_id: String(device.Identifier) });
+        } catch (error) {
+            Logger.Error(`Could not open app on device ${device.toLog()}: `, error);
+            return false;
+        }
         if (show_toast) {
             await this.Popup.Toast.Success("service-connectiq.openapp_success", undefined, true);
         }
@@ -276,6 +375,10 @@ export class ConnectIQService {
             obj.device = await this.GetDefaultDevice();
         }
 
+        if (obj.device) {
+            obj.device = await this.liveDevice(obj.device);
+        }
+
         if (!obj.device) {
             Logger.Debug(`Could not send data to device: no device found`);
             return false;
@@ -293,12 +396,14 @@ export class ConnectIQService {
                 tid = Math.floor(Math.random() * Number.MAX_SAFE_INTEGER);
             } while (this._watchListeners.get(TransactionListener.Event) && this._watchListeners.get(TransactionListener.Event)!.filter(t => t instanceof TransactionListener && t.TId == tid).length > 0);
 
-            listener = new TransactionListener(this, obj.device, tid, obj.response_callback);
+            listener = new TransactionListener(this, obj.device, tid, obj.response_callback, obj.timeout);
             this.addListener(listener);
             obj.data.tid = listener.TId;
         }
 
-        if ((await ConnectIQ.SendToDevice({ device_id: String(obj.device.Identifier), type: obj.messageType, json: JSON.stringify(obj.data) })).success) {
+        //pre-flattened string arrays are passed as they are, no need to serialize them
+        const payload = Array.isArray(obj.data) && obj.data.every(d => typeof d === "string") ? { data: obj.data } : { json: JSON.stringify(obj.data) };
+        if ((await ConnectIQ.SendToDevice({ device_id: String(obj.device.Identifier), type: obj.messageType, timeout: obj.timeout, ...payload })).success) {
             AppService.AppToolbar?.ToggleProgressbar(false);
             return listener?.TId ?? true;
         } else {
@@ -310,18 +415,80 @@ export class ConnectIQService {
         }
     }
 
-    public async SendToDeviceTransaction(obj: { device?: ConnectIQDevice | number; messageType: ConnectIQMessageType; data?: any; timeout?: number }): Promise<ConnectIQDeviceMessage | undefined> {
-        return await new Promise<ConnectIQDeviceMessage | undefined>(async resolve => {
-            this.SendToDevice({
-                device: obj.device,
-                messageType: obj.messageType,
-                data: obj.data,
-                timeout: obj.timeout,
-                response_callback: async resp => {
-                    resolve(resp);
-                },
-            });
+    /**
+     * sends several messages of the same type to a device with a single plugin call
+     * @param obj device: device or device id, if undefined the default device is used
+     *            messageType: type of all messages
+     *            data: payloads, one message per entry
+     * @returns success of each message, or false if no device was found
+     */
+    public async SendBatchToDevice(obj: { device?: ConnectIQDevice | number; messageType: ConnectIQMessageType; data: any[] }): Promise<boolean[] | false> {
+        if (typeof obj.device === "number") {
+            obj.device = await this.GetDevice(obj.device);
+        } else if (!obj.device) {
+            obj.device = await this.GetDefaultDevice();
+        }
+
+        if (obj.device) {
+            obj.device = await this.liveDevice(obj.device);
+        }
+
+        if (!obj.device) {
+            Logger.Debug(`Could not send data to device: no device found`);
+            return false;
+        }
+
+        AppService.AppToolbar?.ToggleProgressbar(true);
+        const ret: boolean[] = obj.data.map(() => false);
+        const resp = await ConnectIQ.SendBatch({ device_ids: [String(obj.device.Identifier)], entries: obj.data.map(payload => ({ type: obj.messageType, payload: payload ?? {} })) });
+        resp?.results?.forEach(r => {
+            if (r.index >= 0 && r.index < ret.length) {
+                ret[r.index] = r.success;
+            }
         });
+        AppService.AppToolbar?.ToggleProgressbar(false);
+        return ret;
+    }
+
+    /**
+     * sends a request to a device and waits for the response
+     * the transaction id is assigned by the plugin, the response is not broadcast to other listeners
+     * @param obj device: device or device id, if undefined the default device is used
+     *            messageType: type of the request
+     *            data: payload of the request
+     *            timeout: seconds to wait for the response
+     * @returns response of the device, or undefined if the device didn't respond in time
+     */
+    public async SendToDeviceTransaction(obj: { device?: ConnectIQDevice | number; messageType: ConnectIQMessageType; data?: any; timeout?: number }): Promise<ConnectIQDeviceMessage | undefined> {
+        if (typeof obj.device === "number") {
+            obj.device = await this.GetDevice(obj.device);
+        } else if (!obj.device) {
+            obj.device = await this.GetDefaultDevice();
+        }
+
+        if (obj.device) {
+            obj.device = await this.liveDevice(obj.device);
+        }
+
+        if (!obj.device || !Capacitor.isNativePlatform()) {
+            Logger.Debug(`Could not send request to device: no device found`);
+            return undefined;
+        }
+
+        AppService.AppToolbar?.ToggleProgressbar(true);
+        const payload = Array.isArray(obj.data) && obj.data.every(d => typeof d === "string") ? { data: obj.data } : { json: JSON.stringify(obj.data ?? {}) };
+        const started = Date.now();
+        try {
+            const resp = await ConnectIQ.SendTransaction({ device_id: String(obj.device.Identifier), type: obj.messageType, timeout: obj.timeout, ...payload });
+            if (resp?.success && resp.device && resp.message) {
+                Logger.Debug(`Received watch response for request ${resp.tid} from device ${obj.device.toString()} after ${Date.now() - started} ms`);
+                return new ConnectIQDeviceMessage({ device: resp.device, message: resp.message }, this);
+            }
+            Logger.Debug(`No response for request ${resp?.tid} from device ${obj.device.toString()}: ${resp?.result}`);
+            return undefined;
+        } finally {
+            AppService.AppToolbar?.ToggleProgressbar(false);
+        }
     }
 
     public CancelRequest(tid: number) {
@@ -341,6 +508,18 @@ export class ConnectIQService {
         });
     }
 
+    /**
+     * gets the counters and latency histograms of the native layer, e.g. send latency per device and message type
+     * @param reset reset the metrics after reading, so the next call covers the time since this one
+     * @returns metrics, or undefined if not on a native platform
+     */
+    public async GetMetrics(reset: boolean = false): Promise<MetricsEventArgs | undefined> {
+        if (!Capacitor.isNativePlatform()) {
+            return undefined;
+        }
+        return ConnectIQ.GetMetrics({ reset: reset });
+    }
+
     public async addListener(listener: ConnectIQListener<any>) {
         const arr = this._watchListeners.get(listener.Event());
         if (arr && arr.indexOf(listener) < 0) {
@@ -409,6 +588,22 @@ export class ConnectIQService {
         this.checkDeviceVersion(device_args);
     }
 
+    /**
+     * removes a device, that is no longer known to the ConnectIQ sdk
+     * @param id unique device id
+     */
+    public async RemoveDevice(id: number) {
+        const count = this._devices.length;
+        this._devices = this._devices.filter(d => d.Identifier != id);
+        if (this._devices.length != count) {
+            if (this._alwaysTransmitToDevice?.Identifier == id) {
+                this._alwaysTransmitToDevice = undefined;
+            }
+            await this.calcOnlineDevices(this._devices);
+            this.onDeviceRemovedSubject.next(id);
+        }
+    }
+
     private async checkDeviceVersion(device: DeviceEventArgs) {
         if (device.state == "Ready" && (device.version ?? 0) > 0 && !this._watchOutdatedNotice.includes(device.id)) {
             this._watchOutdatedNotice.push(device.id);
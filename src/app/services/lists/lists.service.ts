@@ -642,7 +642,7 @@ export class ListsService {
             device = await this.ConnectIQ.GetDefaultDevice({ btn_text: this.Locale.getText("service-lists.transmit_send_btn") });
         }
 
-        if (device && device.State == "Ready") {
+        if (device && (device.State == "Ready" || device.Queueable)) {
             const text_key = list.length > 1 ? "service-lists.transmit_confirm_plural" : "service-lists.transmit_confirm";
             const confirm = await this.Preferences.Get<boolean>(EPrefProperty.ConfirmTransmitList, true);
             const locale = this.Locale.getText([text_key, "yes", "no"], { device: device.Name });
@@ -650,31 +650,32 @@ export class ListsService {
                 const toast = await this.Popups.Toast.Notice(list.length == 1 ? "service-lists.transmit_process" : "service-lists.transmit_process_plural", Toast.DURATION_INFINITE);
                 AppService.AppToolbar?.ToggleProgressbar(true);
 
-                let errors = 0;
+                const payloads: string[][] = [];
                 for (let i = 0; i < list.length; ++i) {
-                    if (device && device.State == "Ready") {
-                        const l = list[i];
-                        let peek = false;
-                        if (l.isPeek) {
-                            peek = true;
-                            const copy = await this.GetList(l.Uuid);
-                            if (copy) {
-                                l.copyDetails(copy);
-                            }
-                        }
-                        const payload = l.toDeviceObject();
-                        const resp = await this.ConnectIQ.SendToDevice({ device: device, messageType: ConnectIQMessageType.List, data: payload });
-                        if (peek) {
-                            l.PurgeDetails();
+                    const l = list[i];
+                    let peek = false;
+                    if (l.isPeek) {
+                        peek = true;
+                        const copy = await this.GetList(l.Uuid);
+                        if (copy) {
+                            l.copyDetails(copy);
                         }
+                    }
+                    payloads.push(l.toDeviceObject());
+                    if (peek) {
+                        l.PurgeDetails();
+                    }
+                }
 
-                        if (resp !== false) {
-                            Logger.Debug(`Transfered list ${l.toLog()} to device ${device.toLog()}`);
-                            continue;
-                        }
+                let errors = 0;
+                const resp = device.State == "Ready" || device.Queueable ? await this.ConnectIQ.SendBatchToDevice({ device: device, messageType: ConnectIQMessageType.List, data: payloads }) : false;
+                for (let i = 0; i < list.length; ++i) {
+                    if (resp !== false && resp[i]) {
+                        Logger.Debug(`Transfered list ${list[i].toLog()} to device ${device.toLog()}`);
+                    } else {
+                        errors++;
+                        Logger.Debug(`Could not transfer list ${list[i].toLog()} to device ${device.toLog()}`);
                     }
-                    errors++;
-                    Logger.Debug(`Could not transfer list ${list[i].toLog()} to device ${device.toLog()}`);
                 }
                 toast.dismiss();
                 AppService.AppToolbar?.ToggleProgressbar(false);
@@ -688,6 +689,9 @@ export class ListsService {
                         this.Popups.Toast.Error("service-lists.transmit_error_partial");
                     }
                     return false;
+                } else if (device.State != "Ready") {
+                    this.Popups.Toast.Notice("service-lists.transmit_queued");
+                    return true;
                 } else {
                     if (list.length == 1) {
                         this.Popups.Toast.Success("service-lists.transmit_success");
@@ -1,7 +1,10 @@
 import { formatDate } from "@angular/common";
 import { Injectable, isDevMode } from "@angular/core";
+import { Capacitor } from "@capacitor/core";
 import { Directory, Encoding, FileInfo, Filesystem } from "@capacitor/filesystem";
 import { FileUtils } from "src/app/classes/utils/file-utils";
+import ConnectIQ from "src/app/plugins/connectiq/connect-iq";
+import { LogEventArgs } from "src/app/plugins/connectiq/event-args/log-event-args";
 import SysInfo from "src/app/plugins/sysinfo/sys-info";
 import { StringUtils } from "../../classes/utils/string-utils";
 import { EPrefProperty, PreferencesService } from "../storage/preferences.service";
@@ -65,6 +68,7 @@ export class LoggingService {
      */
     public async Initialize() {
         this.LogLevel = await this.Preferences.Get<ELogType>(EPrefProperty.LogMode, this.LogLevel);
+        await this.SetNativeLogLevel();
         const autodelete = await this.Preferences.Get(EPrefProperty.LogsAutoDelete, this.AutoDelete);
         await this.SetAutodelete(autodelete);
         this.Debug("Logging initialized");
@@ -343,9 +347,57 @@ export class LoggingService {
             }
             this.Notice(`Changed logging to ${logging} (${this.LogLevel})`);
             this.Preferences.Set(EPrefProperty.LogMode, this.LogLevel);
+            await this.SetNativeLogLevel();
         }
     }
 
+    /**
+     * passes the log level to the native plugin, so that filtered messages are not sent over the bridge
+     */
+    private async SetNativeLogLevel() {
+        if (Capacitor.isNativePlatform()) {
+            const levels: { [key: number]: "debug" | "notice" | "important" | "error" } = {
+                [ELogType.Debug]: "debug",
+                [ELogType.Notice]: "notice",
+                [ELogType.Important]: "important",
+                [ELogType.Error]: "error",
+            };
+            try {
+                await ConnectIQ.SetLogLevel({ level: levels[this.LogLevel] ?? "debug" });
+            } catch (error) {
+                console.error("Could not set native log level", error);
+            }
+        }
+    }
+
+    /**
+     * reads the persisted native logs, e.g. to attach them to an error report
+     * @param filter optional filter: time range, minimum level, tag, text and maximum number of the newest records
+     * @returns native log records, oldest first
+     */
+    public async ExportNativeLogs(filter?: { since?: number; until?: number; level?: "debug" | "notice" | "important" | "error"; tag?: string; contains?: string; limit?: number }): Promise<LogEventArgs[]> {
+        if (!Capacitor.isNativePlatform()) {
+            return [];
+        }
+        return new Promise<LogEventArgs[]>(resolve => {
+            const logs: LogEventArgs[] = [];
+            ConnectIQ.ExportLogs(filter ?? {}, (chunk, err) => {
+                if (err || !chunk) {
+                    console.error("Could not export native logs", err);
+                    resolve(logs);
+                    return;
+                }
+                logs.push(...chunk.logs);
+                if (chunk.done) {
+                    resolve(logs);
+                }
+            }).catch(error => {
+                console.error("Could not export native logs", error);
+                resolve(logs);
+            });
+        });
+    }
+
     /**
      * set the autodelete time periode and deletes old logfiles if needed
      * @param autodelete new time periode